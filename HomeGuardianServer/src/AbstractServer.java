@@ -14,20 +14,67 @@
  * 
  * Subclasses must implement handleMessageFromClient() to define specific
  * server behavior for incoming messages.
+ *
+ * Two transports are available (see ServerTransport). BLOCKING runs one
+ * thread per client; NIO hands every client to a small pool of Selector
+ * event loops (see NioTransport), which only read and decode: the commands
+ * run on a separate worker pool, so a slow one never stalls the loop.
+ * Both report through the same callbacks.
+ *
+ * With the BLOCKING transport, ClientExecutionMode picks what runs each
+ * client loop (platform threads, virtual threads or a bounded pool). An
+ * optional connection cap applies backpressure on both transports: once
+ * full, the server stops accepting and new clients wait in the OS backlog.
+ *
+ * Outgoing messages go through a bounded per-connection OutboundQueue, so a
+ * slow client never stalls the sender; SlowConsumerPolicy decides what
+ * happens when a client falls too far behind.
  */
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 public abstract class AbstractServer {
 
     // ---- SERVER PROPERTIES ----
     private int port;                     // Port number server listens on
     private ServerSocket serverSocket;    // Server socket object
-    private boolean listening = false;    // True if server is currently listening
+    private volatile boolean listening = false; // True if server is currently listening
+
+    private ServerTransport transport = ServerTransport.BLOCKING; // How clients are serviced
+    private int eventLoopThreads =                                // NIO event-loop pool size
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private NioTransport nioTransport;    // Active NIO transport, if any
+    private int nioWorkerThreads =                                // Runs NIO clients' commands
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private volatile ExecutorService nioWorkers;
+
+    private ClientExecutionMode executionMode = ClientExecutionMode.THREAD_PER_CLIENT;
+    private int clientPoolSize = 256;     // Thread count for BOUNDED_POOL without a connection cap
+    private ExecutorService clientExecutor; // Runs blocking client loops
+
+    private int maxConnections = 0;       // 0 = no cap
+    private Semaphore connectionSlots;    // One permit per allowed connection
+
+    private int outboundQueueCapacity = 256; // Messages buffered per client
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+    private long slowConsumerTimeoutMillis = 2000; // Wait limit for BLOCK
+    private ExecutorService writerExecutor; // Drains blocking clients' outbound queues
 
     // List of connected clients
     protected final List<ConnectionToClient> clients = new ArrayList<>();
@@ -42,6 +89,99 @@ public abstract class AbstractServer {
     // NEW: allow subclasses (like Server) to access the port
     public int getPort() { return port; }
 
+    // ---- TRANSPORT CONFIGURATION ----
+
+    /**
+     * Choose the transport used by the next call to listen()
+     */
+    public void setTransport(ServerTransport transport) {
+        if (listening) throw new IllegalStateException("Cannot change transport while listening");
+        this.transport = (transport != null) ? transport : ServerTransport.BLOCKING;
+    }
+
+    public ServerTransport getTransport() { return transport; }
+
+    /**
+     * Number of Selector threads used by the NIO transport
+     */
+    public void setEventLoopThreads(int threads) {
+        if (listening) throw new IllegalStateException("Cannot resize event loops while listening");
+        this.eventLoopThreads = Math.max(1, threads);
+    }
+
+    public int getEventLoopThreads() { return eventLoopThreads; }
+
+    /**
+     * Number of threads running NIO clients' commands. The event loops only
+     * decode; a command that waits on a device lock holds one of these.
+     */
+    public void setNioWorkerThreads(int threads) {
+        if (listening) throw new IllegalStateException("Cannot resize NIO workers while listening");
+        this.nioWorkerThreads = Math.max(1, threads);
+    }
+
+    public int getNioWorkerThreads() { return nioWorkerThreads; }
+
+    /**
+     * Choose what runs each client loop for the BLOCKING transport
+     */
+    public void setExecutionMode(ClientExecutionMode mode) {
+        if (listening) throw new IllegalStateException("Cannot change execution mode while listening");
+        this.executionMode = (mode != null) ? mode : ClientExecutionMode.THREAD_PER_CLIENT;
+    }
+
+    public ClientExecutionMode getExecutionMode() { return executionMode; }
+
+    /**
+     * Number of threads used when the execution mode is BOUNDED_POOL and
+     * no connection cap is set (with a cap, the pool has that many threads)
+     */
+    public void setClientPoolSize(int size) {
+        if (listening) throw new IllegalStateException("Cannot resize client pool while listening");
+        this.clientPoolSize = Math.max(1, size);
+    }
+
+    public int getClientPoolSize() { return clientPoolSize; }
+
+    /**
+     * Maximum number of simultaneously connected clients (0 = unlimited)
+     */
+    public void setMaxConnections(int max) {
+        if (listening) throw new IllegalStateException("Cannot change connection cap while listening");
+        this.maxConnections = Math.max(0, max);
+    }
+
+    public int getMaxConnections() { return maxConnections; }
+
+    /**
+     * Maximum number of messages queued for one client before the
+     * slow-consumer policy applies
+     */
+    public void setOutboundQueueCapacity(int capacity) {
+        this.outboundQueueCapacity = Math.max(1, capacity);
+    }
+
+    public int getOutboundQueueCapacity() { return outboundQueueCapacity; }
+
+    /**
+     * What to do when a client's outbound queue is full (new connections only)
+     */
+    public void setSlowConsumerPolicy(SlowConsumerPolicy policy, long timeoutMillis) {
+        this.slowConsumerPolicy = (policy != null) ? policy : SlowConsumerPolicy.DROP_OLDEST;
+        this.slowConsumerTimeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() { return slowConsumerPolicy; }
+
+    /**
+     * @return the number of currently connected clients
+     */
+    public int getNumberOfClients() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
     // ---- SERVER LISTENING METHODS ----
 
     /**
@@ -50,31 +190,134 @@ public abstract class AbstractServer {
     public void listen() throws IOException {
         if (listening) return; // Already listening
 
+        connectionSlots = new Semaphore(connectionLimit());
+
+        if (transport == ServerTransport.NIO) {
+            nioWorkers = Executors.newFixedThreadPool(nioWorkerThreads, namedThreads("hg-nio-worker-"));
+            nioTransport = new NioTransport(this, eventLoopThreads);
+            nioTransport.start(port);
+            listening = true;
+            serverStarted(); // Callback: server started
+            return;
+        }
+
         serverSocket = new ServerSocket(port);
+        clientExecutor = createClientExecutor();
+        writerExecutor = createWriterExecutor();
         listening = true;
         serverStarted(); // Callback: server started
 
         // Thread to accept incoming connections continuously
-        Thread acceptThread = new Thread(() -> {
-            try {
-                while (listening) {
-                    Socket clientSocket = serverSocket.accept(); // Wait for client
-                    ConnectionToClient client = new ConnectionToClient(clientSocket, this);
-
-                    // Add client to list
-                    synchronized (clients) {
-                        clients.add(client);
-                    }
-
-                    // Start a thread for handling this client
-                    new Thread(client).start();
+        Thread acceptThread = new Thread(this::acceptLoop, "hg-accept-" + port);
+        acceptThread.start();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (listening) {
+                if (!acquireConnectionSlot()) break; // Blocks while the server is full
+
+                Socket clientSocket;
+                try {
+                    clientSocket = serverSocket.accept(); // Wait for client
+                } catch (IOException e) {
+                    releaseConnectionSlot();
+                    throw e;
                 }
-            } catch (Exception e) {
-                if (listening) listeningException(e); // Callback: error while listening
+
+                ConnectionToClient client;
+                try {
+                    client = new ConnectionToClient(clientSocket, this);
+                } catch (IOException e) {
+                    releaseConnectionSlot();
+                    try { clientSocket.close(); } catch (IOException ignore) {}
+                    listeningException(e);
+                    continue;
+                }
+
+                addClient(client);
+
+                // Hand the client loop to the configured executor
+                try {
+                    clientExecutor.execute(client);
+                } catch (RejectedExecutionException e) {
+                    removeClient(client);
+                    client.close();
+                }
+            }
+        } catch (Exception e) {
+            if (listening) listeningException(e); // Callback: error while listening
+        }
+    }
+
+    private ExecutorService createClientExecutor() {
+        switch (executionMode) {
+            case VIRTUAL_THREADS: {
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) return virtual;
+                // JVM without virtual threads: closest equivalent is an elastic pool
+                return Executors.newCachedThreadPool(namedThreads("hg-client-"));
             }
+            case BOUNDED_POOL: {
+                // One thread per connection slot; the short queue only covers a
+                // slot freed just before its client loop returns its thread
+                int threads = boundedPoolThreads();
+                return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(Math.min(threads, 64)), namedThreads("hg-client-"));
+            }
+            default:
+                return Executors.newCachedThreadPool(namedThreads("hg-client-"));
+        }
+    }
+
+    private int boundedPoolThreads() {
+        return (maxConnections > 0) ? maxConnections : clientPoolSize;
+    }
+
+    /**
+     * Connections admitted at once: the cap, and with BOUNDED_POOL on the
+     * BLOCKING transport never more than the pool has threads, so a client
+     * is only accepted when a thread can serve it (the rest wait in the OS
+     * backlog instead of an executor queue)
+     */
+    private int connectionLimit() {
+        if (transport == ServerTransport.BLOCKING && executionMode == ClientExecutionMode.BOUNDED_POOL) {
+            return boundedPoolThreads();
+        }
+        return (maxConnections > 0) ? maxConnections : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Writers are short-lived and mostly idle; virtual threads when available,
+     * otherwise an elastic pool of daemon threads.
+     */
+    private static ExecutorService createWriterExecutor() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) return virtual;
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "hg-writer-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
         });
+    }
 
-        acceptThread.start();
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() when the running JVM has it
+     * (Java 21+), looked up reflectively so the server still builds on 17.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> new Thread(r, prefix + count.incrementAndGet());
     }
 
     /**
@@ -82,7 +325,11 @@ public abstract class AbstractServer {
      */
     public void stopListening() {
         listening = false;
-        try { serverSocket.close(); } catch (IOException ignore) {}
+        if (nioTransport != null) {
+            nioTransport.stopAccepting();
+        } else if (serverSocket != null) {
+            try { serverSocket.close(); } catch (IOException ignore) {}
+        }
         serverStopped(); // Callback: server stopped
     }
 
@@ -92,12 +339,32 @@ public abstract class AbstractServer {
     public void close() {
         stopListening();
 
+        // Copy first: closing a connection removes it from the list
+        List<ConnectionToClient> snapshot;
         synchronized (clients) {
-            for (ConnectionToClient c : clients) {
-                c.close(); // Close individual client connections
-            }
+            snapshot = new ArrayList<>(clients);
             clients.clear();
         }
+        for (ConnectionToClient c : snapshot) {
+            c.close(); // Close individual client connections
+        }
+
+        if (nioTransport != null) {
+            nioTransport.shutdown();
+            nioTransport = null;
+        }
+        if (nioWorkers != null) {
+            nioWorkers.shutdown();
+            nioWorkers = null;
+        }
+        if (clientExecutor != null) {
+            clientExecutor.shutdown();
+            clientExecutor = null;
+        }
+        if (writerExecutor != null) {
+            writerExecutor.shutdown();
+            writerExecutor = null;
+        }
 
         serverClosed(); // Callback: server fully closed
     }
@@ -105,14 +372,71 @@ public abstract class AbstractServer {
     // ---- CLIENT COMMUNICATION ----
 
     /**
-     * Send a message to all connected clients
+     * Send a message to all connected clients.
+     * Only enqueues on each connection, outside the clients lock.
      */
     public void sendToAllClients(Object msg) {
-        synchronized (clients) {
-            for (ConnectionToClient c : clients) {
-                c.sendToClient(msg);
+        broadcast(msg, null);
+    }
+
+    /**
+     * Send one message to every eligible client. The message is encoded once
+     * per wire format and the same bytes are queued on each connection.
+     * @param msg      The message object to send
+     * @param eligible Filter on connections (null = all)
+     * @return the number of connections the message was queued on
+     */
+    public int broadcast(Object msg, Predicate<? super ConnectionToClient> eligible) {
+        BroadcastFrame frame = new BroadcastFrame(msg);
+        int queued = 0;
+        for (ConnectionToClient c : snapshotClients()) {
+            if (eligible == null || eligible.test(c)) {
+                c.sendShared(frame);
+                queued++;
             }
         }
+        return queued;
+    }
+
+    private List<ConnectionToClient> snapshotClients() {
+        synchronized (clients) {
+            return new ArrayList<>(clients);
+        }
+    }
+
+    // ---- OUTBOUND QUEUE METRICS ----
+
+    /**
+     * @return messages currently queued across all clients
+     */
+    public long getTotalOutboundQueueDepth() {
+        long total = 0;
+        for (ConnectionToClient c : snapshotClients()) {
+            total += c.getOutboundQueueDepth();
+        }
+        return total;
+    }
+
+    /**
+     * @return the deepest outbound queue among connected clients
+     */
+    public int getMaxOutboundQueueDepth() {
+        int max = 0;
+        for (ConnectionToClient c : snapshotClients()) {
+            max = Math.max(max, c.getOutboundQueueDepth());
+        }
+        return max;
+    }
+
+    /**
+     * @return messages dropped or refused across connected clients
+     */
+    public long getTotalOutboundDropped() {
+        long total = 0;
+        for (ConnectionToClient c : snapshotClients()) {
+            total += c.getOutboundDropped();
+        }
+        return total;
     }
 
     /**
@@ -124,6 +448,64 @@ public abstract class AbstractServer {
         }
     }
 
+    // ---- CLIENT BOOKKEEPING (used by the transports) ----
+
+    <T> OutboundQueue<T> newOutboundQueue() {
+        return new OutboundQueue<>(outboundQueueCapacity, slowConsumerPolicy, slowConsumerTimeoutMillis);
+    }
+
+    Executor getWriterExecutor() {
+        ExecutorService writers = writerExecutor;
+        return (writers != null) ? writers : Runnable::run; // Not listening: write inline
+    }
+
+    /**
+     * @return the pool NIO connections hand decoded commands to, or null
+     * once the server has closed
+     */
+    Executor getNioWorkers() {
+        return nioWorkers;
+    }
+
+    void addClient(ConnectionToClient client) {
+        synchronized (clients) {
+            clients.add(client);
+        }
+    }
+
+    void removeClient(ConnectionToClient client) {
+        boolean removed;
+        synchronized (clients) {
+            removed = clients.remove(client);
+        }
+        if (removed) releaseConnectionSlot();
+    }
+
+    /**
+     * Wait for a free connection slot while listening
+     * @return false if the server stopped listening while waiting
+     */
+    private boolean acquireConnectionSlot() throws InterruptedException {
+        Semaphore slots = connectionSlots;
+        while (listening) {
+            if (slots.tryAcquire(250, TimeUnit.MILLISECONDS)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Take a connection slot without waiting (NIO accept path)
+     */
+    boolean tryAcquireConnectionSlot() {
+        return connectionSlots.tryAcquire();
+    }
+
+    void releaseConnectionSlot() {
+        connectionSlots.release();
+        NioTransport nio = nioTransport;
+        if (nio != null) nio.connectionSlotFreed();
+    }
+
     // ---- ABSTRACT CALLBACK TO IMPLEMENT IN SUBCLASS ----
 
     /**
@@ -131,6 +513,23 @@ public abstract class AbstractServer {
      */
     protected abstract void handleMessageFromClient(Object msg, ConnectionToClient client);
 
+    /**
+     * Messages the NIO transport hands to urgentExecutor() instead of
+     * queueing them behind other clients' work on the worker pool. Called
+     * on event-loop and worker threads, so it must be cheap. Default: none.
+     */
+    protected boolean isUrgent(Object msg) {
+        return false;
+    }
+
+    /**
+     * Reserved threads for urgent messages (null = none; they use the
+     * worker pool like everything else)
+     */
+    protected Executor urgentExecutor() {
+        return null;
+    }
+
     // ---- OPTIONAL CALLBACKS ----
     protected void clientConnected(ConnectionToClient client) {}
     protected void clientDisconnected(ConnectionToClient client) {}
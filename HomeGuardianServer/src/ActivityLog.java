@@ -1,19 +1,43 @@
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class ActivityLog {
+public class ActivityLog implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
+    // Shared, thread-safe formatter for getDateTime()
+    private static final DateTimeFormatter DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    // Canonical copies of device IDs, sources and usernames read back from disk
+    private static final int MAX_NAMES = 4096;
+    private static final Map<String, String> NAMES = new ConcurrentHashMap<>();
+
+    private final String deviceId;         // Source device ID, or null for SYSTEM/user entries
+    private final String username;         // Acting user, or null if not attributed
     private final String device;
     private final String activity;
-    private final String dateTime;
+    private final long timestamp;          // Epoch millis; formatted only when asked for
+    private String dateTime;               // Lazily formatted (benign race)
+    private volatile long sequence = -1;   // Assigned by ActivityLogRing on append
 
     // Main constructor used by HGController and devices
     public ActivityLog(String device, String activity) {
-        this.device = device;
-        this.activity = activity;
-        this.dateTime =
-                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-                        .format(new Date());
+        this(null, device, activity);
+    }
+
+    // Entry attributed to a specific device (used by Device.addLog)
+    public ActivityLog(String deviceId, String device, String activity) {
+        this(deviceId, null, device, activity, System.currentTimeMillis());
+    }
+
+    // Entry attributed to a user (User.addUserLog, login/signup)
+    public static ActivityLog forUser(String username, String activity) {
+        return new ActivityLog(null, username, "SYSTEM", activity, System.currentTimeMillis());
     }
 
     // Simple 1-argument constructor used by User, HGController, devices
@@ -21,8 +45,49 @@ public class ActivityLog {
         this("SYSTEM", message);
     }
 
+    // Entry read back from a log segment: repeated names share one String
+    ActivityLog(long sequence, long timestamp, String deviceId, String username,
+                String device, String activity) {
+        this(canonical(deviceId), canonical(username), canonical(device), activity, timestamp);
+        this.sequence = sequence;
+    }
+
+    private ActivityLog(String deviceId, String username, String device, String activity, long timestamp) {
+        this.deviceId = deviceId;
+        this.username = username;
+        this.device = device;
+        this.activity = activity;
+        this.timestamp = timestamp;
+    }
+
     // Getters for the ActivityLogPageController
     public String getDevice() { return device; }
     public String getActivity() { return activity; }
-    public String getDateTime() { return dateTime; }
+
+    public String getDateTime() {
+        String formatted = dateTime;
+        if (formatted == null) {
+            formatted = DATE_TIME.format(Instant.ofEpochMilli(timestamp));
+            dateTime = formatted; // Same value whichever thread gets here first
+        }
+        return formatted;
+    }
+
+    public String getDeviceId() { return deviceId; }
+    public String getUsername() { return username; }
+    public long getTimestamp() { return timestamp; }
+
+    // Position in the controller's log stream (-1 if never appended)
+    public long getSequence() { return sequence; }
+
+    void setSequence(long sequence) { this.sequence = sequence; }
+
+    private static String canonical(String name) {
+        if (name == null) return null;
+        String shared = NAMES.get(name);
+        if (shared != null) return shared;
+        if (NAMES.size() >= MAX_NAMES) return name;
+        shared = NAMES.putIfAbsent(name, name);
+        return (shared != null) ? shared : name;
+    }
 }
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class: ActivityLogRing
+ *
+ * Description:
+ * Fixed-capacity, multi-producer ring buffer of ActivityLog entries.
+ *
+ *  - append() claims a sequence number with one atomic increment and
+ *    publishes the entry into slot (sequence & mask); no locks. A slot
+ *    only ever moves to a newer sequence, so a writer stalled for a full
+ *    lap cannot leave a hole that readers of the live window wait on.
+ *  - Once full, each append overwrites the oldest entry. Memory use is
+ *    bounded by the capacity, and overwritten entries are counted.
+ *  - snapshot() copies the live window oldest-first. An entry is included
+ *    only if its slot still holds the entry stamped with the expected
+ *    sequence, so a concurrently overwritten or not-yet-published slot is
+ *    skipped rather than returned out of order.
+ *  - get(sequence) gives random access to the live window, which is how
+ *    ActivityLogStore tails the ring when spilling entries to disk.
+ */
+public class ActivityLogRing {
+
+    private final AtomicReferenceArray<ActivityLog> slots;
+    private final int capacity;
+    private final int mask;
+    private final long firstSequence;
+    private final AtomicLong nextSequence;
+
+    /**
+     * @param requestedCapacity Rounded up to a power of two (minimum 16)
+     */
+    public ActivityLogRing(int requestedCapacity) {
+        this(requestedCapacity, 0);
+    }
+
+    /**
+     * @param requestedCapacity Rounded up to a power of two (minimum 16)
+     * @param firstSequence     Sequence of the first append (continues a
+     *                          persisted log after restart)
+     */
+    public ActivityLogRing(int requestedCapacity, long firstSequence) {
+        int cap = 16;
+        while (cap < requestedCapacity && cap < (1 << 30)) cap <<= 1;
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.slots = new AtomicReferenceArray<>(cap);
+        this.firstSequence = Math.max(0, firstSequence);
+        this.nextSequence = new AtomicLong(this.firstSequence);
+    }
+
+    /**
+     * Append an entry, overwriting the oldest one when full
+     * @return the sequence number assigned to the entry
+     */
+    public long append(ActivityLog log) {
+        long sequence = nextSequence.getAndIncrement();
+        log.setSequence(sequence);
+        int slot = (int) (sequence & mask);
+        while (true) {
+            ActivityLog current = slots.get(slot);
+            // A writer delayed for a whole lap must not replace the newer
+            // entry: its own is already out of the live window (lost)
+            if (current != null && current.getSequence() > sequence) break;
+            if (slots.compareAndSet(slot, current, log)) break; // Publishes the entry
+        }
+        return sequence;
+    }
+
+    /**
+     * @return the entries currently held, oldest first
+     */
+    public List<ActivityLog> snapshot() {
+        long end = nextSequence.get();
+        long start = oldestSequence(end);
+        List<ActivityLog> copy = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            ActivityLog log = slots.get((int) (seq & mask));
+            if (log != null && log.getSequence() == seq) {
+                copy.add(log);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return the entry with this sequence, or null if it was overwritten
+     *         or has been claimed but not yet published
+     */
+    public ActivityLog get(long sequence) {
+        ActivityLog log = slots.get((int) (sequence & mask));
+        return (log != null && log.getSequence() == sequence) ? log : null;
+    }
+
+    /**
+     * @return the sequence the next append will receive
+     */
+    public long nextSequence() {
+        return nextSequence.get();
+    }
+
+    /**
+     * @return the oldest sequence that may still be held in memory
+     */
+    public long oldestSequence() {
+        return oldestSequence(nextSequence.get());
+    }
+
+    private long oldestSequence(long end) {
+        return Math.max(firstSequence, end - capacity);
+    }
+
+    // ---- COUNTERS ----
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return total entries ever appended
+     */
+    public long appendedCount() {
+        return nextSequence.get() - firstSequence;
+    }
+
+    /**
+     * @return entries lost because newer entries overwrote them
+     */
+    public long overwrittenCount() {
+        return Math.max(0, appendedCount() - capacity);
+    }
+
+    /**
+     * @return entries currently retained
+     */
+    public int size() {
+        return (int) Math.min(capacity, appendedCount());
+    }
+}
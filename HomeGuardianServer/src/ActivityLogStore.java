@@ -0,0 +1,423 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * Class: ActivityLogStore
+ *
+ * Description:
+ * The activity log shared by HGController, its devices and its users: an
+ * in-memory ActivityLogRing holding the most recent entries, optionally
+ * backed by append-only LogSegments on disk, plus a LogIndex by device,
+ * user and time over everything retained.
+ *
+ *  - append() only touches the ring, so logging never waits on disk I/O.
+ *  - A single tail thread follows the ring. It writes new entries to the
+ *    active segment in batches (fsynced at most once per fsync interval
+ *    and on close), then adds them to the index. Memory-only stores run
+ *    the same thread for indexing alone.
+ *  - If the tail thread falls more than a ring's worth behind, the entries
+ *    it missed are counted rather than making producers wait.
+ *  - Entries are fetched by sequence from the ring or, once the ring has
+ *    moved on, from the mapped segments. LogQuery reads take candidate
+ *    sequences from the index; only entries appended since the tail
+ *    thread last ran are scanned.
+ *  - Device and user histories are views over this store, not copies.
+ */
+public class ActivityLogStore {
+
+    private static final int SPILL_BATCH = 512;
+    private static final long SPILL_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long PRUNE_STEP = 1024;
+
+    private final ActivityLogRing ring;
+    private final LogSegments segments;          // null = memory only
+    private final LogIndex index;
+    private final long fsyncIntervalNanos;
+    private final long spillWakeMask;            // Wake the tail thread every quarter ring
+    private final Thread tailThread;
+    private volatile boolean running = true;
+
+    // ---- TAIL COUNTERS (written by the tail thread only) ----
+    private volatile long persisted;
+    private volatile long spillLost;
+
+    /**
+     * Memory-only store
+     * @param capacity Entries retained in memory
+     */
+    public ActivityLogStore(int capacity) {
+        this.ring = new ActivityLogRing(capacity);
+        this.segments = null;
+        this.index = new LogIndex(0);
+        this.fsyncIntervalNanos = 0;
+        this.spillWakeMask = (ring.capacity() / 4) - 1;
+        this.tailThread = startTailThread("hg-log-index");
+    }
+
+    /**
+     * Store persisted to segment files in the given directory. Sequence
+     * numbers continue from the entries already on disk, which are replayed
+     * into the index.
+     * @param capacity            Entries retained in memory
+     * @param directory           Segment directory (created if missing)
+     * @param segmentBytes        Size at which a new segment is started
+     * @param maxSegments         Segments kept on disk
+     * @param fsyncIntervalMillis Maximum time written entries stay unsynced
+     *                            (0 = fsync after every batch)
+     */
+    public ActivityLogStore(int capacity, Path directory, long segmentBytes,
+                            int maxSegments, long fsyncIntervalMillis) throws IOException {
+        this.index = new LogIndex(0);
+        this.segments = new LogSegments(directory, segmentBytes, maxSegments, index::add);
+        this.index.skipTo(segments.nextSequence());
+        this.ring = new ActivityLogRing(capacity, segments.nextSequence());
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, fsyncIntervalMillis));
+        this.spillWakeMask = (ring.capacity() / 4) - 1;
+        this.tailThread = startTailThread("hg-log-spill");
+    }
+
+    private Thread startTailThread(String name) {
+        Thread thread = new Thread(this::tailLoop, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return the sequence number assigned to the entry
+     */
+    public long append(ActivityLog log) {
+        long sequence = ring.append(log);
+        if ((sequence & spillWakeMask) == 0) {
+            LockSupport.unpark(tailThread); // Don't let a burst outrun an idle tail thread
+        }
+        return sequence;
+    }
+
+    /**
+     * @return the entry with this sequence, or null if it is no longer kept
+     */
+    public ActivityLog get(long sequence) {
+        ActivityLog log = ring.get(sequence);
+        if (log == null && segments != null) {
+            log = segments.read(sequence);
+        }
+        return log;
+    }
+
+    /**
+     * @return the sequence the next appended entry will receive
+     */
+    public long nextSequence() {
+        return ring.nextSequence();
+    }
+
+    /**
+     * @return the oldest sequence still held in memory or on disk
+     */
+    public long oldestSequence() {
+        long memory = ring.oldestSequence();
+        long disk = (segments != null) ? segments.oldestSequence() : -1;
+        return (disk >= 0) ? Math.min(disk, memory) : memory;
+    }
+
+    // =====================================================
+    // ==================== NEWEST FIRST ===================
+    // =====================================================
+
+    /**
+     * @return up to limit of the newest entries accepted by the filter
+     *         (null = all), oldest first
+     */
+    public List<ActivityLog> readLatest(Predicate<ActivityLog> filter, int limit) {
+        return readLatest(Long.MAX_VALUE, filter, limit);
+    }
+
+    /**
+     * @return up to limit of the newest entries with sequence below
+     *         beforeSequence that the filter accepts, oldest first. A
+     *         LogQuery filter is answered from the index.
+     */
+    public List<ActivityLog> readLatest(long beforeSequence, Predicate<ActivityLog> filter, int limit) {
+        List<ActivityLog> newestFirst = new ArrayList<>(Math.min(Math.max(limit, 0), 256));
+        if (limit <= 0) return newestFirst;
+
+        long end = Math.min(ring.nextSequence(), beforeSequence);
+        long start = oldestSequence();
+        long indexed = Math.min(index.indexedUpTo(), end);
+
+        // Entries the tail thread hasn't reached yet are only in the ring
+        for (long seq = end - 1; seq >= Math.max(indexed, start) && newestFirst.size() < limit; seq--) {
+            ActivityLog log = ring.get(seq);
+            if (log != null && (filter == null || filter.test(log))) newestFirst.add(log);
+        }
+        if (newestFirst.size() == limit) {
+            Collections.reverse(newestFirst);
+            return newestFirst;
+        }
+
+        LogQuery query = (filter instanceof LogQuery) ? (LogQuery) filter : null;
+        long from = Math.max(start, firstCandidate(query));
+        long to = Math.min(indexed, endCandidate(query));
+
+        if (query != null && query.isKeyed()) {
+            LogIndex.SequenceList keys = keysFor(query);
+            while (keys != null && newestFirst.size() < limit && from < to) {
+                int wanted = limit - newestFirst.size();
+                long[] sequences = keys.select(from, to, wanted, true);
+                for (long seq : sequences) {
+                    ActivityLog log = get(seq);
+                    if (log != null && query.test(log)) newestFirst.add(log);
+                    to = seq;
+                }
+                if (sequences.length < wanted) break;
+            }
+        } else {
+            for (long seq = to - 1; seq >= from && newestFirst.size() < limit; seq--) {
+                ActivityLog log = get(seq);
+                if (log != null && (filter == null || filter.test(log))) newestFirst.add(log);
+            }
+        }
+
+        Collections.reverse(newestFirst);
+        return newestFirst;
+    }
+
+    // =====================================================
+    // ==================== FORWARD PAGES ==================
+    // =====================================================
+
+    /**
+     * Forward reader starting at the given sequence (negative = the oldest
+     * entry still available). The time index skips everything before the
+     * query's range and marks where it ends; device and user filters read
+     * only that key's sequences.
+     */
+    public LogReader openReader(long fromSequence, LogQuery query) {
+        long start = Math.max(Math.max(0, fromSequence), firstCandidate(query));
+        return new LogReader(start, query);
+    }
+
+    /**
+     * Reads the log oldest to newest. Not thread-safe; one per page request.
+     */
+    public final class LogReader {
+
+        private final LogQuery query;
+        private final long endSequence;        // From the time index; MAX if open-ended
+        private final long stopAfterMillis;
+        private long next;
+        private boolean done;
+
+        private LogReader(long fromSequence, LogQuery query) {
+            this.query = query;
+            this.next = fromSequence;
+            this.endSequence = endCandidate(query);
+            this.stopAfterMillis = query.stopAfterMillis();
+        }
+
+        /**
+         * @return the cursor to resume from: one past the last entry read
+         *         or skipped
+         */
+        public long nextSequence() {
+            return next;
+        }
+
+        /**
+         * Add up to max matching entries to out.
+         * @return false once the reader has caught up with the newest entry
+         *         or passed the end of its time range
+         */
+        public boolean read(List<ActivityLog> out, int max) {
+            int added = 0;
+            while (added < max && !done) {
+                if (next >= endSequence) {
+                    done = true;
+                    break;
+                }
+                next = Math.max(next, oldestSequence()); // Anything older was lost or deleted
+                long indexed = index.indexedUpTo();
+
+                if (next < indexed) {
+                    long to = Math.min(indexed, endSequence);
+                    if (query.isKeyed()) {
+                        LogIndex.SequenceList keys = keysFor(query);
+                        int wanted = max - added;
+                        long[] sequences = (keys != null) ? keys.select(next, to, wanted, false) : new long[0];
+                        for (int i = 0; i < sequences.length && !done; i++) {
+                            added += accept(get(sequences[i]), sequences[i], out);
+                        }
+                        if (sequences.length < wanted && !done) next = to;
+                    } else {
+                        while (next < to && added < max && !done) {
+                            added += accept(get(next), next, out);
+                        }
+                    }
+                    continue;
+                }
+
+                // Not indexed yet: only in the ring
+                if (next >= ring.nextSequence()) return false;
+                ActivityLog log = ring.get(next);
+                if (log == null && next >= ring.oldestSequence()) return false; // Not yet published
+                added += accept(log, next, out);
+            }
+            return !done;
+        }
+
+        /**
+         * Consume the entry at sequence (null if it was lost)
+         * @return 1 if it was added to out
+         */
+        private int accept(ActivityLog log, long sequence, List<ActivityLog> out) {
+            if (log != null && log.getTimestamp() > stopAfterMillis) {
+                done = true; // Everything from here on is newer than the range
+                return 0;
+            }
+            next = sequence + 1;
+            if (log != null && query.test(log)) {
+                out.add(log);
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    // ---- INDEX LOOKUPS ----
+
+    private LogIndex.SequenceList keysFor(LogQuery query) {
+        return (query.deviceId() != null) ? index.forDevice(query.deviceId())
+                                          : index.forUser(query.username());
+    }
+
+    private long firstCandidate(LogQuery query) {
+        return (query != null && query.fromMillis() > 0)
+                ? index.firstSequenceFrom(query.fromMillis(), LogQuery.CLOCK_SKEW_MILLIS) : 0;
+    }
+
+    private long endCandidate(LogQuery query) {
+        return (query != null && query.toMillis() < Long.MAX_VALUE)
+                ? index.endSequenceAfter(query.toMillis(), LogQuery.CLOCK_SKEW_MILLIS) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the entries currently held in memory, oldest first
+     */
+    public List<ActivityLog> memorySnapshot() {
+        return ring.snapshot();
+    }
+
+    /**
+     * Stop the tail thread once everything appended so far is written out,
+     * fsynced and indexed.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(tailThread);
+        try {
+            tailThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // =====================================================
+    // ===================== TAIL THREAD ===================
+    // =====================================================
+
+    private void tailLoop() {
+        List<ActivityLog> batch = new ArrayList<>(SPILL_BATCH);
+        long next = index.indexedUpTo(); // The ring's first sequence, even if appends beat this thread
+        long lastSync = System.nanoTime();
+        long lastPrune = 0;
+
+        while (true) {
+            boolean stopping = !running;
+            long end = ring.nextSequence();
+
+            batch.clear();
+            while (next < end && batch.size() < SPILL_BATCH) {
+                ActivityLog log = ring.get(next);
+                if (log == null) {
+                    if (next >= ring.oldestSequence()) break; // Not yet published; retry
+                    spillLost++;                               // Overwritten before we got to it
+                    next++;
+                    continue;
+                }
+                batch.add(log);
+                next++;
+            }
+
+            if (segments != null) {
+                try {
+                    if (!batch.isEmpty()) {
+                        segments.append(batch);
+                        persisted += batch.size();
+                    }
+                    long now = System.nanoTime();
+                    if (now - lastSync >= fsyncIntervalNanos || stopping) {
+                        segments.force();
+                        lastSync = now;
+                    }
+                } catch (IOException e) {
+                    ServerLog.log("[LOG] Failed to persist activity log: " + e.getMessage());
+                }
+            }
+
+            // Indexed only once written, so an indexed entry that leaves the
+            // ring can always be read back from its segment
+            for (ActivityLog log : batch) {
+                index.add(log);
+            }
+            index.skipTo(next);
+
+            long oldest = oldestSequence();
+            if (oldest - lastPrune >= PRUNE_STEP) {
+                index.pruneBelow(oldest);
+                lastPrune = oldest;
+            }
+
+            if (stopping && next >= end) {
+                if (segments != null) {
+                    try {
+                        segments.close();
+                    } catch (IOException e) {
+                        ServerLog.log("[LOG] Failed to close activity log: " + e.getMessage());
+                    }
+                }
+                return;
+            }
+
+            if (next >= end && !stopping) {
+                LockSupport.parkNanos(SPILL_IDLE_NANOS);
+            } else if (batch.isEmpty()) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // ---- COUNTERS ----
+
+    public int capacity() { return ring.capacity(); }
+    public long appendedCount() { return ring.appendedCount(); }
+    public long overwrittenCount() { return ring.overwrittenCount(); }
+    public boolean isPersistent() { return segments != null; }
+
+    /**
+     * @return entries written to disk since this store was opened
+     */
+    public long persistedCount() { return persisted; }
+
+    /**
+     * @return entries overwritten in memory before the tail thread could
+     *         persist and index them
+     */
+    public long spillLostCount() { return spillLost; }
+}
@@ -1,12 +1,13 @@
+import java.util.Map;
+
 public class Alarm extends Device {
 
     private int id;                     // 1, 2, 3
-    private boolean armed;
-    private int volume;                 // 0–100
-    private String tone;                // can be any string or enum
-    private boolean linkedToMotion;
-    private boolean linkedToLight;
-    private boolean linkedToLock;
+    private volatile boolean armed;
+    private volatile int volume;                 // 0–100
+    private volatile String tone;                // can be any string or enum
+    private volatile boolean linkedToMotion;
+    private volatile boolean linkedToLock;
 
     public Alarm(int id, String name) {
         // FIX: Device(String deviceID, String deviceName)
@@ -17,17 +18,16 @@ public class Alarm extends Device {
         this.volume = 50;
         this.tone = "default";
         this.linkedToMotion = false;
-        this.linkedToLight = false;
         this.linkedToLock = false;
     }
 
+    @Override
     public int getId() { return id; }
     public boolean isArmed() { return armed; }
     public int getVolume() { return volume; }
     public String getTone() { return tone; }
 
     public boolean isLinkedToMotion() { return linkedToMotion; }
-    public boolean isLinkedToLight() { return linkedToLight; }
     public boolean isLinkedToLock() { return linkedToLock; }
 
     public void arm()  { armed = true; }
@@ -42,6 +42,16 @@ public class Alarm extends Device {
     }
 
     public void toggleMotionLink() { linkedToMotion = !linkedToMotion; }
-    public void toggleLightLink()  { linkedToLight  = !linkedToLight; }
     public void toggleLockLink()   { linkedToLock   = !linkedToLock; }
+
+    @Override
+    public Map<String, Object> getState() {
+        Map<String, Object> state = super.getState();
+        state.put("armed", armed);
+        state.put("volume", volume);
+        state.put("tone", tone);
+        state.put("linkedToMotion", linkedToMotion);
+        state.put("linkedToLock", linkedToLock);
+        return state;
+    }
 }
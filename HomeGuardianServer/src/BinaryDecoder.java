@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class: BinaryDecoder
+ *
+ * Description:
+ * Decodes binary request frames (see WireProtocol) into a reusable
+ * CommandFrame. Integers and booleans are copied straight out of the
+ * buffer; only string arguments (login, signup, footage range) allocate.
+ */
+public final class BinaryDecoder {
+
+    private BinaryDecoder() {}
+
+    /**
+     * Decode one frame body (opcode + payload) and advance the buffer past it.
+     * Unknown opcodes decode to a frame with no arguments whose command is
+     * not recognised by Server, so the client gets "ERROR" instead of a
+     * dropped connection.
+     *
+     * @param buffer Buffer positioned at the opcode byte
+     * @param length Frame length (opcode + payload)
+     * @param frame  Frame to fill
+     * @throws IOException if the payload does not match the opcode's schema
+     */
+    public static void decodeCommand(ByteBuffer buffer, int length, CommandFrame frame) throws IOException {
+        if (length < 1) throw new IOException("Empty binary frame");
+
+        int end = buffer.position() + length;
+        int opcode = buffer.get() & 0xFF;
+
+        if (opcode == WireProtocol.OP_REQUEST) { // [id][wrapped request]
+            if (length < 6) throw new IOException("Truncated request envelope");
+            int requestId = buffer.getInt();
+            if ((buffer.get(buffer.position()) & 0xFF) == WireProtocol.OP_REQUEST) {
+                throw new IOException("Nested request envelope");
+            }
+            decodeCommand(buffer, length - 5, frame);
+            frame.setRequestId(requestId);
+            return;
+        }
+
+        String types = WireProtocol.argumentTypes(opcode);
+
+        if (types == null) {
+            frame.reset(opcode, "OPCODE_0x" + Integer.toHexString(opcode), "");
+            buffer.position(end);
+            return;
+        }
+
+        frame.reset(opcode, WireProtocol.commandName(opcode), types);
+        try {
+            for (int i = 0; i < types.length(); i++) {
+                switch (types.charAt(i)) {
+                    case 'i':
+                        frame.setInt(i + 1, buffer.getInt());
+                        break;
+                    case 'b':
+                        frame.setInt(i + 1, buffer.get());
+                        break;
+                    case 'l':
+                        frame.setLong(i + 1, buffer.getLong());
+                        break;
+                    case 's':
+                        frame.setString(i + 1, readString(buffer, buffer.getShort() & 0xFFFF));
+                        break;
+                    case 'n':
+                        frame.setCommands(readCommands(buffer, end));
+                        break;
+                    default:
+                        throw new IOException("Bad schema for opcode " + opcode);
+                }
+            }
+        } catch (RuntimeException e) { // BufferUnderflow / bad string or nested length
+            throw new IOException("Truncated binary frame for " + frame.command(), e);
+        }
+
+        if (buffer.position() != end) {
+            throw new IOException("Binary frame length mismatch for " + frame.command());
+        }
+    }
+
+    /**
+     * u16 count, then count frames of [int32 length][opcode][payload].
+     * Each gets its own CommandFrame (the batch outlives the read buffer's
+     * next frame). A nested frame may not itself carry sub-commands.
+     */
+    private static List<CommandFrame> readCommands(ByteBuffer buffer, int end) throws IOException {
+        int count = buffer.getShort() & 0xFFFF;
+        if (count > WireProtocol.MAX_BATCH_ITEMS) {
+            throw new IOException("Batch of " + count + " commands exceeds " + WireProtocol.MAX_BATCH_ITEMS);
+        }
+        List<CommandFrame> commands = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            int length = buffer.getInt();
+            if (length < 1 || length > end - buffer.position()) {
+                throw new IOException("Bad nested frame length " + length);
+            }
+            int opcode = buffer.get(buffer.position()) & 0xFF;
+            String types = WireProtocol.argumentTypes(opcode);
+            if (opcode == WireProtocol.OP_REQUEST || (types != null && types.indexOf('n') >= 0)) {
+                throw new IOException("Nested batch or request envelope in BATCH");
+            }
+            CommandFrame command = new CommandFrame();
+            decodeCommand(buffer, length, command);
+            commands.add(command);
+        }
+        return commands;
+    }
+
+    private static String readString(ByteBuffer buffer, int byteLength) {
+        if (buffer.hasArray()) {
+            int start = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + byteLength);
+            return new String(buffer.array(), start, byteLength, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[byteLength];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
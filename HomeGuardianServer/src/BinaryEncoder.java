@@ -0,0 +1,192 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Class: BinaryEncoder
+ *
+ * Description:
+ * Encodes server replies as binary frames (see WireProtocol) into a scratch
+ * buffer owned by the encoder. The buffer only grows, and strings are
+ * written as UTF-8 directly from their chars, so steady-state encoding of
+ * "OK"/"ERROR" and small values does not allocate.
+ *
+ * A reply is never encoded past WireProtocol.MAX_FRAME_BYTES (the most a
+ * client accepts): a value that would not fit (e.g. a full GET_LOGS list)
+ * is replaced by OP_ERROR and logged, so clients page it instead
+ * (GET_LOGS_PAGE). The buffer never grows beyond one such frame.
+ *
+ * Not thread-safe: each connection owns one encoder and serialises its use.
+ */
+public final class BinaryEncoder {
+
+    // Thrown by ensure() when a value would not fit in one frame
+    private static final class FrameTooLarge extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        FrameTooLarge() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final FrameTooLarge FRAME_TOO_LARGE = new FrameTooLarge();
+
+    private ByteBuffer buffer;
+
+    public BinaryEncoder() {
+        this(256);
+    }
+
+    public BinaryEncoder(int initialCapacity) {
+        this.buffer = ByteBuffer.allocate(Math.max(16, Math.min(initialCapacity, WireProtocol.MAX_FRAME_BYTES + 4)));
+    }
+
+    /**
+     * Encode one reply frame.
+     * "OK" and "ERROR" become bare status opcodes; anything else is sent
+     * as OP_VALUE with a tagged value. A TaggedReply is prefixed with
+     * OP_RESPONSE and its correlation id. A value too large for one frame
+     * is sent as OP_ERROR instead.
+     *
+     * @return the encoder's buffer, flipped and holding exactly one frame;
+     *         valid until the next call
+     */
+    public ByteBuffer encodeReply(Object msg) {
+        buffer.clear();
+        buffer.position(4); // Length written last
+
+        if (msg instanceof TaggedReply) {
+            TaggedReply tagged = (TaggedReply) msg;
+            buffer.put((byte) WireProtocol.OP_RESPONSE);
+            buffer.putInt(tagged.requestId);
+            msg = tagged.reply;
+        }
+
+        if ("OK".equals(msg)) {
+            buffer.put((byte) WireProtocol.OP_OK);
+        } else if ("ERROR".equals(msg)) {
+            buffer.put((byte) WireProtocol.OP_ERROR);
+        } else {
+            int start = buffer.position();
+            try {
+                buffer.put((byte) WireProtocol.OP_VALUE);
+                writeValue(msg);
+            } catch (FrameTooLarge e) {
+                buffer.position(start);
+                buffer.put((byte) WireProtocol.OP_ERROR);
+                ServerLog.log("[WIRE] Reply refused: larger than " + WireProtocol.MAX_FRAME_BYTES
+                        + " bytes (" + describe(msg) + ")");
+            }
+        }
+
+        buffer.putInt(0, buffer.position() - 4);
+        buffer.flip();
+        return buffer;
+    }
+
+    // ---- VALUES ----
+
+    private void writeValue(Object value) {
+        ensure(1);
+        if (value == null) {
+            buffer.put((byte) WireProtocol.TAG_NULL);
+        } else if (value instanceof String) {
+            buffer.put((byte) WireProtocol.TAG_STRING);
+            writeString((String) value);
+        } else if (value instanceof Integer) {
+            buffer.put((byte) WireProtocol.TAG_INT);
+            ensure(4);
+            buffer.putInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            buffer.put((byte) WireProtocol.TAG_BOOL);
+            ensure(1);
+            buffer.put((byte) (((Boolean) value) ? 1 : 0));
+        } else if (value instanceof Long) {
+            buffer.put((byte) WireProtocol.TAG_LONG);
+            ensure(8);
+            buffer.putLong((Long) value);
+        } else if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            buffer.put((byte) WireProtocol.TAG_LIST);
+            ensure(4);
+            buffer.putInt(list.size());
+            for (Object item : list) {
+                writeValue(item);
+            }
+        } else if (value instanceof ActivityLog) {
+            ActivityLog log = (ActivityLog) value;
+            buffer.put((byte) WireProtocol.TAG_LOG);
+            writeString(log.getDevice());
+            writeString(log.getActivity());
+            writeString(log.getDateTime());
+        } else {
+            buffer.put((byte) WireProtocol.TAG_STRING);
+            writeString(String.valueOf(value));
+        }
+    }
+
+    /**
+     * int32 byte length followed by UTF-8, encoded straight from the chars
+     */
+    private void writeString(String s) {
+        if (s == null) s = "";
+        int length = utf8Length(s);
+        ensure(4 + length);
+        buffer.putInt(length);
+
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static String describe(Object msg) {
+        return (msg instanceof List<?>) ? "list of " + ((List<?>) msg).size() : msg.getClass().getSimpleName();
+    }
+
+    // The frame (everything after the 4-byte length) may not pass MAX_FRAME_BYTES
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        long needed = (long) buffer.position() + bytes;
+        if (needed - 4 > WireProtocol.MAX_FRAME_BYTES) throw FRAME_TOO_LARGE;
+        ByteBuffer larger = ByteBuffer.allocate((int) Math.min(Math.max(needed, buffer.capacity() * 2L),
+                WireProtocol.MAX_FRAME_BYTES + 4L));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+}
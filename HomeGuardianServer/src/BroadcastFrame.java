@@ -0,0 +1,116 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.nio.ByteBuffer;
+
+/**
+ * Class: BroadcastFrame
+ *
+ * Description:
+ * One message going to many clients. Each wire format is encoded at most
+ * once, on first use, and the resulting bytes are shared read-only by every
+ * connection that receives the message:
+ *
+ *  - streamBytes():      legacy serialization stream (BLOCKING transport).
+ *                        Starts with TC_RESET so the bytes do not depend on
+ *                        what was previously written to the connection.
+ *  - serializedFrame():  length-prefixed serialized object (NIO transport).
+ *  - binaryBytes() /
+ *    binaryFrame():      binary protocol reply frame.
+ *
+ * The NIO variants are direct buffers; connections write duplicates of
+ * them, so the payload is neither re-encoded nor copied per client.
+ */
+final class BroadcastFrame {
+
+    private final Object message;
+
+    private byte[] streamBytes;          // Guarded by this
+    private ByteBuffer serializedFrame;  // Guarded by this
+    private byte[] binaryBytes;          // Guarded by this
+    private ByteBuffer binaryFrame;      // Guarded by this
+
+    BroadcastFrame(Object message) {
+        this.message = message;
+    }
+
+    Object message() {
+        return message;
+    }
+
+    /**
+     * TC_RESET followed by the serialized object, without a stream header
+     */
+    synchronized byte[] streamBytes() throws IOException {
+        if (streamBytes == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            int headerLength;
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.flush();
+                headerLength = bytes.size();
+                out.writeObject(message);
+            }
+            byte[] all = bytes.toByteArray();
+            byte[] shared = new byte[1 + all.length - headerLength];
+            shared[0] = ObjectStreamConstants.TC_RESET;
+            System.arraycopy(all, headerLength, shared, 1, all.length - headerLength);
+            streamBytes = shared;
+        }
+        return streamBytes;
+    }
+
+    /**
+     * [int32 length][standalone serialized object], read-only duplicate
+     */
+    synchronized ByteBuffer serializedFrame() throws IOException {
+        if (serializedFrame == null) {
+            serializedFrame = toDirect(serializeFramed(message));
+        }
+        return serializedFrame.duplicate();
+    }
+
+    /**
+     * Binary reply frame as a byte array (shared, do not modify)
+     */
+    synchronized byte[] binaryBytes() {
+        if (binaryBytes == null) {
+            ByteBuffer encoded = new BinaryEncoder().encodeReply(message);
+            binaryBytes = new byte[encoded.remaining()];
+            encoded.get(binaryBytes);
+        }
+        return binaryBytes;
+    }
+
+    /**
+     * Binary reply frame, read-only duplicate
+     */
+    synchronized ByteBuffer binaryFrame() {
+        if (binaryFrame == null) {
+            binaryFrame = toDirect(ByteBuffer.wrap(binaryBytes()));
+        }
+        return binaryFrame.duplicate();
+    }
+
+    // ---- ENCODING HELPERS ----
+
+    /**
+     * Serialize one object as a length-prefixed frame with its own stream header
+     */
+    static ByteBuffer serializeFramed(Object msg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        bytes.write(new byte[4]); // Length placeholder
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(msg);
+        }
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - 4);
+        return frame;
+    }
+
+    private static ByteBuffer toDirect(ByteBuffer heap) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.remaining());
+        direct.put(heap).flip();
+        return direct.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Class: ClientExecutionMode
+ *
+ * Description:
+ * Selects what runs each blocking ConnectionToClient loop.
+ *
+ *  - THREAD_PER_CLIENT: a new platform thread per client (original behavior).
+ *  - VIRTUAL_THREADS:   one virtual thread per client. Falls back to a cached
+ *                       pool of platform threads on JVMs without virtual threads.
+ *  - BOUNDED_POOL:      a fixed-size pool (maxConnections threads, or the
+ *                       pool size with no cap). Connections are capped at the
+ *                       pool size, so clients beyond it wait in the OS
+ *                       backlog instead of an unbounded executor queue.
+ *
+ * Only used by the BLOCKING transport; the NIO transport has its own loops.
+ */
+public enum ClientExecutionMode {
+    THREAD_PER_CLIENT,
+    VIRTUAL_THREADS,
+    BOUNDED_POOL;
+
+    /**
+     * Parses a mode name (case-insensitive, "virtual" and "pool" accepted as
+     * short forms), falling back to THREAD_PER_CLIENT.
+     */
+    public static ClientExecutionMode fromString(String value) {
+        if (value == null) return THREAD_PER_CLIENT;
+        switch (value.trim().toUpperCase()) {
+            case "VIRTUAL":
+            case "VIRTUAL_THREADS":
+                return VIRTUAL_THREADS;
+            case "POOL":
+            case "BOUNDED_POOL":
+                return BOUNDED_POOL;
+            default:
+                return THREAD_PER_CLIENT;
+        }
+    }
+}
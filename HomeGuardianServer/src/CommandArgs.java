@@ -0,0 +1,38 @@
+import java.util.List;
+
+/**
+ * Class: CommandArgs
+ *
+ * Description:
+ * Read-only view of one client command, independent of how it arrived.
+ * Index 0 is the command itself; arguments start at index 1, matching the
+ * layout of the ArrayList protocol (e.g. ["TOGGLE_LIGHT", 1, true]).
+ *
+ * Implemented by ListCommandArgs (serialized ArrayList commands) and by
+ * CommandFrame (decoded binary frames).
+ */
+public interface CommandArgs {
+
+    /** Upper-case command name, e.g. "TOGGLE_LIGHT" */
+    String command();
+
+    /** Number of elements including the command at index 0 */
+    int size();
+
+    /** Correlation id the client sent, or WireProtocol.NO_REQUEST_ID */
+    int requestId();
+
+    int getInt(int index);
+
+    long getLong(int index);
+
+    boolean getBoolean(int index);
+
+    String getString(int index);
+
+    /**
+     * Nested sub-commands (BATCH): ArrayLists in the list protocol,
+     * CommandFrames in the binary protocol
+     */
+    List<?> getList(int index);
+}
@@ -0,0 +1,129 @@
+import java.util.List;
+
+/**
+ * Class: CommandFrame
+ *
+ * Description:
+ * One decoded binary command. A connection keeps a single instance and
+ * BinaryDecoder refills it for every frame, so integer and boolean
+ * arguments are read without boxing or per-message allocation.
+ *
+ * Only valid until the next frame is decoded on the same connection;
+ * copy() it to keep it longer (e.g. to run it on another thread).
+ */
+public class CommandFrame implements CommandArgs {
+
+    /** Most arguments any opcode carries (GET_LOGS_PAGE) */
+    static final int MAX_ARGS = 6;
+
+    private int opcode;
+    private int requestId;                     // OP_REQUEST envelope, else NO_REQUEST_ID
+    private String command;
+    private String argumentTypes = "";
+    private final int[] ints = new int[MAX_ARGS + 1];
+    private final long[] longs = new long[MAX_ARGS + 1];
+    private final String[] strings = new String[MAX_ARGS + 1];
+    private List<CommandFrame> commands;       // 'n' argument (BATCH), else null
+
+    /**
+     * Start filling the frame for a new opcode (called by BinaryDecoder)
+     */
+    void reset(int opcode, String command, String argumentTypes) {
+        this.opcode = opcode;
+        this.command = command;
+        this.argumentTypes = argumentTypes;
+        this.commands = null;
+        this.requestId = WireProtocol.NO_REQUEST_ID;
+    }
+
+    void setInt(int index, int value) { ints[index] = value; }
+
+    void setLong(int index, long value) { longs[index] = value; }
+
+    void setString(int index, String value) { strings[index] = value; }
+
+    void setCommands(List<CommandFrame> value) { commands = value; }
+
+    void setRequestId(int value) { requestId = value; }
+
+    /**
+     * @return an independent copy that later decodes do not overwrite
+     */
+    public CommandFrame copy() {
+        CommandFrame copy = new CommandFrame();
+        copy.reset(opcode, command, argumentTypes);
+        System.arraycopy(ints, 0, copy.ints, 0, ints.length);
+        System.arraycopy(longs, 0, copy.longs, 0, longs.length);
+        System.arraycopy(strings, 0, copy.strings, 0, strings.length);
+        copy.commands = commands;             // Fresh list per decode, never refilled
+        copy.requestId = requestId;
+        return copy;
+    }
+
+    public int opcode() { return opcode; }
+
+    @Override
+    public String command() { return command; }
+
+    @Override
+    public int size() { return argumentTypes.length() + 1; }
+
+    @Override
+    public int requestId() { return requestId; }
+
+    @Override
+    public int getInt(int index) {
+        checkType(index, 'i');
+        return ints[index];
+    }
+
+    @Override
+    public long getLong(int index) {
+        checkType(index, 'l');
+        return longs[index];
+    }
+
+    @Override
+    public boolean getBoolean(int index) {
+        checkType(index, 'b');
+        return ints[index] != 0;
+    }
+
+    @Override
+    public String getString(int index) {
+        checkType(index, 's');
+        return strings[index];
+    }
+
+    @Override
+    public List<CommandFrame> getList(int index) {
+        checkType(index, 'n');
+        return commands;
+    }
+
+    private void checkType(int index, char expected) {
+        if (index < 1 || index > argumentTypes.length()) {
+            throw new IndexOutOfBoundsException("Argument " + index + " missing for " + command);
+        }
+        if (argumentTypes.charAt(index - 1) != expected) {
+            throw new ClassCastException("Argument " + index + " of " + command
+                    + " is not of type '" + expected + "'");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[").append(command);
+        for (int i = 1; i < size(); i++) {
+            sb.append(", ");
+            switch (argumentTypes.charAt(i - 1)) {
+                case 'b': sb.append(ints[i] != 0); break;
+                case 's': sb.append(strings[i]); break;
+                case 'l': sb.append(longs[i]); break;
+                case 'n': sb.append(commands); break;
+                default:  sb.append(ints[i]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class: CommandRegistry
+ *
+ * Description:
+ * Server's dispatch table: each command is resolved once to a Command
+ * holding its handler and argument schema, by name (ArrayList protocol)
+ * or by opcode (binary protocol, one array load).
+ *
+ * Names and schemas come from WireProtocol, so both protocols share one
+ * definition per command. ArrayList commands are checked against the
+ * schema before the handler runs; a malformed command is answered with
+ * "ERROR" without reaching the handler. Binary frames were already checked
+ * by BinaryDecoder.
+ *
+ * Commands that act on devices name their device arguments with device(),
+ * so BATCH can find (and lock) every device a sub-command touches before
+ * running it; commands that also reach linked devices (DeviceLinks) are
+ * marked cascades() and kept out of validateFirst batches, whose lock
+ * set could not cover them. Commands that change the connection's own state are marked
+ * ordered() and always run in arrival order, even when tagged requests
+ * are run concurrently. Only commands marked anonymous() run without a
+ * logged-in user; the device arguments of the rest are checked against
+ * that user's access. Each command has a Priority (NORMAL unless set
+ * with priority()) that picks its executor lane and latency recorder.
+ *
+ * Built once by Server's constructor and only read afterwards.
+ */
+final class CommandRegistry {
+
+    /** Handler result meaning the handler already sent its own reply */
+    static final Object REPLIED = new Object();
+
+    /**
+     * Runs one command. Returns a Boolean for a plain "OK" / "ERROR",
+     * REPLIED if it answered the client itself, or any other reply object.
+     */
+    @FunctionalInterface
+    interface Handler {
+        Object handle(CommandArgs args, ConnectionToClient client) throws Exception;
+    }
+
+    /**
+     * One registered command
+     */
+    static final class Command {
+
+        final int opcode;
+        final String name;
+        final String argumentTypes;   // WireProtocol schema, e.g. "ib"
+        final int requiredArgs;       // Leading schema arguments a list command must carry
+        final Handler handler;
+
+        // Device arguments: schema index (1-based) and the table resolving it
+        private int[] deviceArgs = new int[0];
+        private DeviceRegistry.Numbered<?>[] deviceTables = new DeviceRegistry.Numbered<?>[0];
+        private boolean ordered;
+        private boolean anonymous;
+        private boolean cascades;
+        private Priority priority = Priority.NORMAL;
+
+        private Command(int opcode, String name, String argumentTypes, int requiredArgs, Handler handler) {
+            this.opcode = opcode;
+            this.name = name;
+            this.argumentTypes = argumentTypes;
+            this.requiredArgs = requiredArgs;
+            this.handler = handler;
+        }
+
+        /**
+         * @return true if the ArrayList command has the required arguments
+         *         and every argument present matches the schema
+         */
+        boolean accepts(List<?> list) {
+            if (list.size() < requiredArgs + 1) return false;
+            int present = Math.min(list.size() - 1, argumentTypes.length());
+            for (int i = 0; i < present; i++) {
+                Object value = list.get(i + 1);
+                switch (argumentTypes.charAt(i)) {
+                    case 'i': if (!(value instanceof Integer)) return false; break;
+                    case 'b': if (!(value instanceof Boolean)) return false; break;
+                    case 'l': if (!(value instanceof Integer || value instanceof Long)) return false; break;
+                    case 'n': if (!(value instanceof List)) return false; break;
+                    default:  if (value == null) return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Declare argument index as a device number looked up in table.
+         * Called while the table is built, before the Server starts.
+         */
+        Command device(int index, DeviceRegistry.Numbered<?> table) {
+            int n = deviceArgs.length;
+            deviceArgs = Arrays.copyOf(deviceArgs, n + 1);
+            deviceTables = Arrays.copyOf(deviceTables, n + 1);
+            deviceArgs[n] = index;
+            deviceTables[n] = table;
+            return this;
+        }
+
+        /**
+         * Always run on the connection's own thread, in arrival order
+         */
+        Command ordered() {
+            ordered = true;
+            return this;
+        }
+
+        boolean isOrdered() {
+            return ordered;
+        }
+
+        /**
+         * May run on a connection with no logged-in user (LOGIN, RESUME...)
+         */
+        Command anonymous() {
+            anonymous = true;
+            return this;
+        }
+
+        boolean isAnonymous() {
+            return anonymous;
+        }
+
+        /**
+         * Also locks devices linked to its arguments (e.g. MOTION_EVENT
+         * switching linked lights), so it cannot join a validateFirst BATCH
+         */
+        Command cascades() {
+            cascades = true;
+            return this;
+        }
+
+        boolean isCascading() {
+            return cascades;
+        }
+
+        Command priority(Priority value) {
+            priority = value;
+            return this;
+        }
+
+        Priority priority() {
+            return priority;
+        }
+
+        /**
+         * @return true if this command acts on declared device arguments
+         *         (and, if it cascades(), on devices linked to them)
+         */
+        boolean isDeviceCommand() {
+            return deviceArgs.length > 0;
+        }
+
+        /**
+         * Look up every device argument and add it to out.
+         * @return false if any device number is unknown
+         */
+        boolean resolveDevices(CommandArgs args, List<Device> out) {
+            for (int i = 0; i < deviceArgs.length; i++) {
+                Device device = deviceTables[i].get(args.getInt(deviceArgs[i]));
+                if (device == null) return false;
+                out.add(device);
+            }
+            return true;
+        }
+
+        /**
+         * @return the first device argument's device (null if the command
+         *         names none or the number is unknown)
+         */
+        Device firstDevice(CommandArgs args) {
+            return (deviceArgs.length > 0) ? deviceTables[0].get(args.getInt(deviceArgs[0])) : null;
+        }
+
+        /**
+         * @return false if any device argument names a device outside
+         *         access (unknown numbers are left to the handler)
+         */
+        boolean allowsDevices(CommandArgs args, DeviceAccess access) {
+            for (int i = 0; i < deviceArgs.length; i++) {
+                Device device = deviceTables[i].get(args.getInt(deviceArgs[i]));
+                if (device != null && !access.allows(device)) return false;
+            }
+            return true;
+        }
+    }
+
+    private final Map<String, Command> byName = new HashMap<>();
+    private final Command[] byOpcode = new Command[0x80];
+
+    /**
+     * Register a command whose arguments are all required
+     */
+    Command register(int opcode, Handler handler) {
+        return register(opcode, WireProtocol.argumentTypes(opcode).length(), handler);
+    }
+
+    /**
+     * @param requiredArgs How many leading arguments a list command must
+     *                     carry; the rest of the schema is optional
+     */
+    Command register(int opcode, int requiredArgs, Handler handler) {
+        String name = WireProtocol.commandName(opcode);
+        String types = WireProtocol.argumentTypes(opcode);
+        if (name == null || types == null) {
+            throw new IllegalArgumentException("Opcode 0x" + Integer.toHexString(opcode) + " is not defined");
+        }
+        Command command = new Command(opcode, name, types, requiredArgs, handler);
+        byName.put(name, command);
+        byOpcode[opcode] = command;
+        return command;
+    }
+
+    /**
+     * @return the command with this name (upper-cased only if the exact
+     *         name is unknown), or null
+     */
+    Command forName(String name) {
+        if (name == null) return null;
+        Command command = byName.get(name);
+        return (command != null) ? command : byName.get(name.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the command for a binary opcode, or null
+     */
+    Command forOpcode(int opcode) {
+        return (opcode >= 0 && opcode < byOpcode.length) ? byOpcode[opcode] : null;
+    }
+}
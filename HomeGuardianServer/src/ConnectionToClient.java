@@ -10,10 +10,31 @@
  * It handles receiving messages from the client, sending messages to the client,
  * and notifying the server of client events like connect, disconnect, or exceptions.
  * Implements Runnable so each client can run in its own thread.
+ *
+ * The NIO transport subclasses this (NioConnectionToClient) so that Server
+ * callbacks keep receiving a ConnectionToClient regardless of transport.
+ *
+ * A client may switch the connection to the compact binary protocol by
+ * sending WireProtocol.MAGIC as its first bytes; otherwise the connection
+ * speaks the original Java serialization stream.
+ *
+ * sendToClient() never writes on the caller's thread: messages go into a
+ * bounded OutboundQueue that a writer task drains in batches, flushing the
+ * socket once per batch. Broadcasts arrive as a BroadcastFrame whose bytes
+ * were encoded once for all clients.
+ *
+ * Each connection may carry the User that logged in on it (with the
+ * session token it logged in or resumed with), which AbstractServer.broadcast()
+ * filters and SUBSCRIBE events use to pick recipients.
  */
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ConnectionToClient implements Runnable {
 
@@ -21,8 +42,25 @@ public class ConnectionToClient implements Runnable {
     private Socket socket;                 // Client socket
     private ObjectInputStream in;          // Input stream from client
     private ObjectOutputStream out;        // Output stream to client
+    private InputStream rawIn;             // Buffered socket input (for protocol sniffing)
+    private OutputStream rawOut;           // Socket output used by the binary protocol
     private AbstractServer server;         // Reference to the server
-    private boolean running = true;        // True while connection is active
+    private volatile boolean running = true; // True while connection is active
+
+    private final Object writeLock = new Object(); // Serialises socket writes
+    private volatile boolean binary;       // True once the client negotiated binary frames
+    private BinaryEncoder encoder;         // Binary reply encoder (guarded by writeLock)
+
+    /** Most messages written between two flushes */
+    private static final int MAX_WRITE_BATCH = 64;
+
+    private OutboundQueue<Object> outbound; // Messages waiting for the writer
+    private final AtomicBoolean writerScheduled = new AtomicBoolean();
+    private final List<Object> writeBatch = new ArrayList<>(); // Used by the active writer only
+
+    private volatile User user;            // Logged-in user, if any
+    private volatile DeviceAccess access = DeviceAccess.NONE; // Cached from user for the session
+    private volatile String sessionToken;  // Session the user is bound through, if any
 
     /**
      * Constructor initializes the connection with the socket and server reference
@@ -35,9 +73,117 @@ public class ConnectionToClient implements Runnable {
         this.server = server;
 
         // Java requires ObjectOutputStream to be created first
-        this.out = new ObjectOutputStream(socket.getOutputStream());
+        // Buffered so that a batch of messages leaves in as few packets as possible
+        this.rawOut = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.out = new ObjectOutputStream(rawOut);
         this.out.flush();
-        this.in = new ObjectInputStream(socket.getInputStream());
+        this.rawIn = new BufferedInputStream(socket.getInputStream());
+        this.outbound = server.newOutboundQueue();
+        // The input stream is opened in run(): reading the client's stream
+        // header blocks, and must not stall the server's accept loop
+    }
+
+    /**
+     * Constructor for transports that manage their own channel (no blocking streams)
+     * @param server The server handling this client
+     */
+    protected ConnectionToClient(AbstractServer server) {
+        this.server = server;
+    }
+
+    /**
+     * @return the server this connection reports to
+     */
+    protected AbstractServer getServer() {
+        return server;
+    }
+
+    /**
+     * @return true while the connection has not been closed
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    // ---- USER AND TOPICS (broadcast filtering) ----
+
+    public User getUser() {
+        return user;
+    }
+
+    public void setUser(User user) {
+        this.access = (user != null) ? user.getDeviceAccess() : DeviceAccess.NONE;
+        this.user = user;
+    }
+
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    /**
+     * @return the bound user's device access (NONE when nobody is logged in)
+     */
+    public DeviceAccess getDeviceAccess() {
+        return access;
+    }
+
+    /**
+     * @return true if a user is bound and may see the given device
+     *         (a bit test on the session's cached DeviceAccess)
+     */
+    public boolean canAccessDevice(Device device) {
+        return access.allows(device);
+    }
+
+    // ---- OUTBOUND QUEUE METRICS ----
+
+    /**
+     * @return messages currently waiting to be written to this client
+     */
+    public int getOutboundQueueDepth() {
+        OutboundQueue<?> queue = outboundQueue();
+        return (queue != null) ? queue.depth() : 0;
+    }
+
+    /**
+     * @return the deepest this client's outbound queue has been
+     */
+    public int getOutboundQueueHighWatermark() {
+        OutboundQueue<?> queue = outboundQueue();
+        return (queue != null) ? queue.highWatermark() : 0;
+    }
+
+    /**
+     * @return messages dropped or refused because this client was too slow
+     */
+    public long getOutboundDropped() {
+        OutboundQueue<?> queue = outboundQueue();
+        return (queue != null) ? queue.droppedCount() : 0;
+    }
+
+    /**
+     * @return the queue backing sendToClient() (overridden by other transports)
+     */
+    protected OutboundQueue<?> outboundQueue() {
+        return outbound;
+    }
+
+    /**
+     * @return true if this client negotiated the binary protocol
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Mark the connection as no longer running (used by subclasses on close)
+     */
+    protected void markClosed() {
+        running = false;
     }
 
     /**
@@ -48,30 +194,190 @@ public class ConnectionToClient implements Runnable {
         server.clientConnected(this); // Callback: client connected
 
         try {
-            while (running) {
-                Object msg = in.readObject(); // Wait for a message from client
-                server.handleMessageFromClient(msg, this); // Pass message to server
+            if (negotiateBinary()) {
+                readBinaryFrames();
+            } else {
+                in = new ObjectInputStream(rawIn);
+                while (running) {
+                    Object msg = in.readObject(); // Wait for a message from client
+                    server.handleMessageFromClient(msg, this); // Pass message to server
+                }
             }
         } catch (Exception e) {
             running = false;
             server.clientException(this, e); // Callback: client exception
         } finally {
+            server.removeClient(this);
             server.clientDisconnected(this); // Callback: client disconnected
             close(); // Ensure connection is closed
         }
     }
 
     /**
-     * Send a message to the client
+     * Peek at the first four bytes: MAGIC selects the binary protocol,
+     * anything else is left in place for ObjectInputStream.
+     */
+    private boolean negotiateBinary() throws IOException {
+        rawIn.mark(4);
+        DataInputStream data = new DataInputStream(rawIn);
+        if (data.readInt() != WireProtocol.MAGIC) {
+            rawIn.reset();
+            return false;
+        }
+
+        synchronized (writeLock) {
+            encoder = new BinaryEncoder();
+            binary = true;
+            new DataOutputStream(rawOut).writeInt(WireProtocol.MAGIC); // Acknowledge
+            rawOut.flush();
+        }
+        return true;
+    }
+
+    /**
+     * Binary read loop: one reusable frame buffer and CommandFrame per connection
+     */
+    private void readBinaryFrames() throws IOException {
+        DataInputStream data = new DataInputStream(rawIn);
+        byte[] body = new byte[256];
+        ByteBuffer view = ByteBuffer.wrap(body);
+        CommandFrame frame = new CommandFrame();
+
+        while (running) {
+            int length = data.readInt();
+            if (length < 1 || length > WireProtocol.MAX_FRAME_BYTES) {
+                throw new IOException("Invalid binary frame length: " + length);
+            }
+            if (length > body.length) {
+                body = new byte[Math.max(length, body.length * 2)];
+                view = ByteBuffer.wrap(body);
+            }
+            data.readFully(body, 0, length);
+
+            view.clear();
+            view.limit(length);
+            BinaryDecoder.decodeCommand(view, length, frame);
+            server.handleMessageFromClient(frame, this); // Pass command to server
+        }
+    }
+
+    /**
+     * Send a message to the client.
+     * Queues the message and returns; the writer task does the socket I/O.
      * @param msg The message object to send
      */
     public void sendToClient(Object msg) {
+        enqueue(msg, true, false);
+    }
+
+    /**
+     * Queue a broadcast whose bytes are shared with other connections.
+     * Under DROP_OLDEST it may be dropped; direct replies never are.
+     */
+    void sendShared(BroadcastFrame frame) {
+        enqueue(frame, true, true);
+    }
+
+    /**
+     * Queue a device state event (SUBSCRIBE) without ever waiting for room:
+     * events are published under the device's command lock, so a BLOCK
+     * wait here would stall every command on that device. A full queue is
+     * handled as DISCONNECT.
+     */
+    void sendEvent(BroadcastFrame frame) {
+        enqueue(frame, false, true);
+    }
+
+    private void enqueue(Object msg, boolean mayBlock, boolean canDrop) {
+        if (!running) return;
+
+        if (!outbound.offer(msg, mayBlock, canDrop)) {
+            // Slow consumer: policy says this client must go
+            server.clientException(this, new IOException("Outbound queue full, disconnecting slow client"));
+            close();
+            return;
+        }
+        scheduleWriter();
+    }
+
+    private void scheduleWriter() {
+        if (!writerScheduled.compareAndSet(false, true)) return; // Writer already running
         try {
-            out.writeObject(msg);
-            out.flush();
+            server.getWriterExecutor().execute(this::drainOutbound);
+        } catch (RejectedExecutionException e) {
+            writerScheduled.set(false); // Server shutting down
+        }
+    }
+
+    /**
+     * Writer task: drain the queue in batches until it is empty
+     */
+    private void drainOutbound() {
+        try {
+            while (true) {
+                writeBatch.clear();
+                if (outbound.drainTo(writeBatch, MAX_WRITE_BATCH) > 0) {
+                    writeMessages(writeBatch);
+                    continue;
+                }
+
+                writerScheduled.set(false);
+                // A message may have arrived between the drain and the reset
+                if (outbound.isEmpty() || !writerScheduled.compareAndSet(false, true)) return;
+            }
         } catch (IOException e) {
+            writerScheduled.set(false);
             server.clientException(this, e); // Callback: client exception
+            close();
+        } finally {
+            writeBatch.clear();
+        }
+    }
+
+    /**
+     * Write a batch of messages and flush once
+     */
+    private void writeMessages(List<Object> batch) throws IOException {
+        synchronized (writeLock) {
+            for (Object msg : batch) {
+                if (msg instanceof BroadcastFrame) {
+                    writeShared((BroadcastFrame) msg);
+                } else if (binary) {
+                    ByteBuffer frame = encoder.encodeReply(msg);
+                    rawOut.write(frame.array(), 0, frame.limit());
+                } else {
+                    out.writeObject(msg);
+                }
+            }
+            if (binary) {
+                rawOut.flush();
+            } else {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Write pre-encoded broadcast bytes. For the serialization stream the
+     * shared bytes begin with TC_RESET, and the stream is reset again after
+     * them so our handle table matches the client's.
+     */
+    private void writeShared(BroadcastFrame frame) throws IOException {
+        if (binary) {
+            rawOut.write(frame.binaryBytes());
+            return;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = frame.streamBytes();
+        } catch (IOException e) {
+            server.clientException(this, e); // Not serializable: skip this message only
+            return;
         }
+        out.flush();
+        rawOut.write(bytes);
+        out.reset();
     }
 
     /**
@@ -79,6 +385,7 @@ public class ConnectionToClient implements Runnable {
      */
     public void close() {
         running = false;
+        if (outbound != null) outbound.close();
         try {
             socket.close(); // Close underlying socket
         } catch (IOException ignore) {}
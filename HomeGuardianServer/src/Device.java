@@ -1,6 +1,12 @@
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Device {
 	
@@ -11,7 +17,11 @@ public class Device {
      *  - deviceID: unique identifier for the device
      *  - deviceName: human-readable name
      *  - connected: basic ON/OFF or connection status
-     *  - deviceLogs: list of ActivityLog entries for this device
+     *  - deviceLogs: ActivityLog entries logged before the device is
+     *    registered; afterwards entries go to the controller's log store
+     *  - commandLock: serialises commands on this device only
+     *  - index: dense number over all devices (0, 1, 2, ...) for bitsets
+     *    and arrays keyed by device, e.g. DeviceAccess
      *
      * METHODS
      *  - getDeviceID(), getDeviceName()
@@ -20,19 +30,28 @@ public class Device {
      *  - notifyEvents()
      *  - handleCommand()
      *  - getDeviceLogs()
+     *  - getState()
      */
 
     private final String deviceID;
     private final String deviceName;
-    private boolean connected;
-    private final List<ActivityLog> deviceLogs;
+    private volatile boolean connected;
+    private final Queue<ActivityLog> deviceLogs;       // Lock-free appends
+    private volatile ActivityLogStore logStore;        // Set by HGController.addDevice
+
+    /** Entries returned by getDeviceLogs() */
+    public static final int DEVICE_LOG_LIMIT = 1000;
+    private final ReentrantLock commandLock = new ReentrantLock();
+
+    private static final AtomicInteger NEXT_INDEX = new AtomicInteger();
+    private final int index = NEXT_INDEX.getAndIncrement();
 
     public Device(String deviceID, String deviceName) {
         this.deviceID = deviceID;
         this.deviceName = deviceName;
         // default: device starts disconnected / OFF
         this.connected = false;
-        this.deviceLogs = new ArrayList<>();
+        this.deviceLogs = new ConcurrentLinkedQueue<>();
     }
 
     // ---------- GETTERS ----------
@@ -45,24 +64,56 @@ public class Device {
         return deviceName;
     }
 
+    // Number within the device's type (light3 -> 3), or -1 if it has none.
+    // Lets DeviceRegistry resolve numeric command arguments without strings.
+    public int getId() {
+        return -1;
+    }
+
+    // Dense index over every device created (unlike getId(), unique across types)
+    public int getIndex() {
+        return index;
+    }
+
     // Returns the current connection / ON-OFF status
     public boolean connectionStatus() {
         return connected;
     }
 
+    /**
+     * Current state as property -> value (the names used in
+     * DeviceStateEvents). Subclasses add their own properties.
+     * Read under the command lock for a consistent snapshot.
+     */
+    public Map<String, Object> getState() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("connected", connected);
+        return state;
+    }
+
+    // Held by HGController while it changes this device's state
+    public ReentrantLock getCommandLock() {
+        return commandLock;
+    }
+
     // ---------- LOGGING & EVENTS ----------
 
-    // Adds a new log entry to the device's internal log history
+    // Adds a new log entry to the device's log history
     public void addLog(String message) {
-        ActivityLog log = new ActivityLog(deviceName, message);
-        deviceLogs.add(log);
+        ActivityLog log = new ActivityLog(deviceID, deviceName, message);
+        ActivityLogStore store = logStore;
+        if (store != null) {
+            store.append(log);
+        } else {
+            deviceLogs.add(log);
+        }
 
-        System.out.println("[LOG][DEVICE] " + message);
+        ServerLog.log("[LOG][DEVICE] " + message);
     }
 
     // Sends notifications for important device events (currently console + log)
     public void notifyEvents(String eventMessage) {
-        System.out.println("[DEVICE EVENT][" + deviceName + "] " + eventMessage);
+        ServerLog.log("[DEVICE EVENT][" + deviceName + "] " + eventMessage);
         addLog("Event: " + eventMessage);
     }
 
@@ -103,7 +154,22 @@ public class Device {
         }
     }
 
+    // Recent log history (newest DEVICE_LOG_LIMIT entries), oldest first
     public List<ActivityLog> getDeviceLogs() {
-        return deviceLogs;
+        ActivityLogStore store = logStore;
+        if (store == null) {
+            return new ArrayList<>(deviceLogs);
+        }
+        return store.readLatest(new LogQuery(0, 0, deviceID, null), DEVICE_LOG_LIMIT);
+    }
+
+    // Route this device's logs into the controller's store, moving any
+    // entries logged before registration
+    void attachLogStore(ActivityLogStore store) {
+        logStore = store;
+        ActivityLog log;
+        while ((log = deviceLogs.poll()) != null) {
+            store.append(log);
+        }
     }
 }
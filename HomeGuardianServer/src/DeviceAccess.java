@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Class: DeviceAccess
+ *
+ * Description:
+ * The set of devices a user may use, compiled to a bitset over
+ * Device.getIndex(), so an access check is one array load and a bit test
+ * however many devices are assigned.
+ *
+ * A guest owns one DeviceAccess; grant() and revoke() flip a single bit
+ * (copy-on-write, so readers never lock). Connections cache their user's
+ * DeviceAccess when a session is bound, and because the guest updates that
+ * same object, an assignment or revocation applies to every live session
+ * at once without rebuilding anything.
+ */
+public final class DeviceAccess {
+
+    /** Every device (admins) */
+    public static final DeviceAccess ALL = new DeviceAccess(true);
+
+    /** No device (accounts without a role granting access) */
+    public static final DeviceAccess NONE = new DeviceAccess(false);
+
+    private final boolean all;
+    private volatile long[] bits = new long[0];       // Replaced on every change
+
+    public DeviceAccess() {
+        this(false);
+    }
+
+    private DeviceAccess(boolean all) {
+        this.all = all;
+    }
+
+    /**
+     * @return true if the device may be used
+     */
+    public boolean allows(Device device) {
+        if (device == null) return false;
+        if (all) return true;
+        int index = device.getIndex();
+        long[] current = bits;
+        int word = index >>> 6;
+        return word < current.length && (current[word] & (1L << index)) != 0;
+    }
+
+    /**
+     * Add one device
+     * @return false if it was already allowed
+     */
+    synchronized boolean grant(Device device) {
+        checkMutable();
+        int index = device.getIndex();
+        long[] current = bits;
+        int word = index >>> 6;
+        if (word < current.length && (current[word] & (1L << index)) != 0) return false;
+
+        long[] next = Arrays.copyOf(current, Math.max(current.length, word + 1));
+        next[word] |= 1L << index;
+        bits = next;
+        return true;
+    }
+
+    /**
+     * Remove one device
+     * @return false if it was not allowed
+     */
+    synchronized boolean revoke(Device device) {
+        checkMutable();
+        int index = device.getIndex();
+        long[] current = bits;
+        int word = index >>> 6;
+        if (word >= current.length || (current[word] & (1L << index)) == 0) return false;
+
+        long[] next = current.clone();
+        next[word] &= ~(1L << index);
+        bits = next;
+        return true;
+    }
+
+    private void checkMutable() {
+        if (this == ALL || this == NONE) {
+            throw new UnsupportedOperationException("Shared DeviceAccess cannot be changed");
+        }
+    }
+}
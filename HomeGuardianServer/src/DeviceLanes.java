@@ -0,0 +1,78 @@
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Class: DeviceLanes
+ *
+ * Description:
+ * Runs tasks on a shared pool, one at a time per device and in the order
+ * they were submitted. Server uses it for the reserved CRITICAL threads:
+ * tagged commands may finish out of order across devices, but two lock
+ * commands for the same door never overtake each other, however many
+ * threads the pool has.
+ *
+ * A device with queued work holds one pool thread until its queue is
+ * empty; tasks without a device run on the pool directly.
+ */
+final class DeviceLanes {
+
+    // Queued tasks of one device and whether a pool thread is draining them
+    private static final class Lane {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>(); // Guarded by this
+        boolean running;                                       // Guarded by this
+    }
+
+    private final Executor pool;
+    private final Map<Device, Lane> lanes = new ConcurrentHashMap<>();
+
+    DeviceLanes(Executor pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Run the task after every task already submitted for the device
+     * @param device The device to serialize on (null = no ordering)
+     * @throws RejectedExecutionException if the pool has shut down and the
+     *         task has no device (it has not run; a device's tasks run on
+     *         the caller instead)
+     */
+    void execute(Device device, Runnable task) {
+        if (device == null) {
+            pool.execute(task);
+            return;
+        }
+
+        Lane lane = lanes.computeIfAbsent(device, d -> new Lane());
+        synchronized (lane) {
+            lane.tasks.addLast(task);
+            if (lane.running) return; // Picked up by the current drain
+            lane.running = true;
+        }
+        try {
+            pool.execute(() -> drain(lane));
+        } catch (RejectedExecutionException e) {
+            drain(lane); // Pool shut down: run what is queued here, in order
+        }
+    }
+
+    private static void drain(Lane lane) {
+        while (true) {
+            Runnable task;
+            synchronized (lane) {
+                task = lane.tasks.pollFirst();
+                if (task == null) {
+                    lane.running = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                ServerLog.log("Exception in device lane task", e);
+            }
+        }
+    }
+}
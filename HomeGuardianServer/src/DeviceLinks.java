@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * Class: DeviceLinks
+ *
+ * Description:
+ * HGController's graph of links between devices (see LinkKind), stored
+ * as primitive adjacency arrays indexed by Device.getIndex():
+ *
+ *  - out[kind][from] = sorted indices of the devices "from" acts on
+ *  - in[kind][to]    = sorted indices of the devices acting on "to"
+ *  - plan[alarm]     = what a triggered alarm does, precomputed: the
+ *                      cameras to start recording, then the locks to engage
+ *
+ * Reads are volatile array loads and return the stored int[] itself (never
+ * modify it), so propagating an event to hundreds of linked devices is a
+ * loop over one array with no allocation, lookup or scan. Links change
+ * rarely: link() and unlink() replace the affected rows and plans
+ * (copy-on-write, under this object's lock).
+ */
+public final class DeviceLinks {
+
+    private static final int[] NO_LINKS = new int[0];
+    private static final int KINDS = LinkKind.values().length;
+
+    private volatile Device[] devices = new Device[0];           // Index -> device
+    private volatile int[][][] out = new int[KINDS][0][];        // [kind][from] -> targets
+    private volatile int[][][] in = new int[KINDS][0][];         // [kind][to] -> sources
+    private volatile int[][] plans = new int[0][];               // [alarm] -> cameras, locks
+
+    /**
+     * Make a device reachable by index (HGController.addDevice; link()
+     * registers both ends too).
+     */
+    public synchronized void register(Device device) {
+        int index = device.getIndex();
+        Device[] current = devices;
+        Device[] next = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        next[index] = device;
+        devices = next;
+    }
+
+    /**
+     * @return the registered device with this index, or null
+     */
+    public Device device(int index) {
+        Device[] current = devices;
+        return (index >= 0 && index < current.length) ? current[index] : null;
+    }
+
+    /**
+     * @return indices of the devices "from" acts on through this kind of link
+     */
+    public int[] targets(LinkKind kind, Device from) {
+        return row(out[kind.ordinal()], from.getIndex());
+    }
+
+    /**
+     * @return indices of the devices acting on "to" through this kind of link
+     */
+    public int[] sources(LinkKind kind, Device to) {
+        return row(in[kind.ordinal()], to.getIndex());
+    }
+
+    /**
+     * @return the alarm's precomputed trigger plan: camera indices, then lock indices
+     */
+    public int[] triggerPlan(Alarm alarm) {
+        return row(plans, alarm.getIndex());
+    }
+
+    public boolean isLinked(LinkKind kind, Device from, Device to) {
+        return Arrays.binarySearch(targets(kind, from), to.getIndex()) >= 0;
+    }
+
+    private static int[] row(int[][] rows, int index) {
+        int[] r = (index < rows.length) ? rows[index] : null;
+        return (r != null) ? r : NO_LINKS;
+    }
+
+    // =====================================================
+    // ====================== CHANGES ======================
+    // =====================================================
+
+    /**
+     * @return false if the link already existed
+     */
+    public synchronized boolean link(LinkKind kind, Device from, Device to) {
+        return change(kind, from, to, true);
+    }
+
+    /**
+     * @return false if there was no such link
+     */
+    public synchronized boolean unlink(LinkKind kind, Device from, Device to) {
+        return change(kind, from, to, false);
+    }
+
+    // Caller holds this
+    private boolean change(LinkKind kind, Device from, Device to, boolean add) {
+        if (add) {
+            if (device(from.getIndex()) != from) register(from);
+            if (device(to.getIndex()) != to) register(to);
+        }
+        int k = kind.ordinal();
+        int[][] outRows = out[k];
+        int[] targets = row(outRows, from.getIndex());
+        int[] nextTargets = add ? with(targets, to.getIndex()) : without(targets, to.getIndex());
+        if (nextTargets == targets) return false;
+
+        int[][] inRows = in[k];
+        int[] sources = row(inRows, to.getIndex());
+        int[] nextSources = add ? with(sources, from.getIndex()) : without(sources, from.getIndex());
+
+        int[][][] nextOut = out.clone();
+        int[][][] nextIn = in.clone();
+        nextOut[k] = replace(outRows, from.getIndex(), nextTargets);
+        nextIn[k] = replace(inRows, to.getIndex(), nextSources);
+        out = nextOut;
+        in = nextIn;
+
+        if (kind == LinkKind.ALARM_CAMERA || kind == LinkKind.ALARM_LOCK) {
+            rebuildPlan(from.getIndex());
+        }
+        return true;
+    }
+
+    // Caller holds this: cameras first so recording is running before doors lock
+    private void rebuildPlan(int alarm) {
+        int[] cameras = row(out[LinkKind.ALARM_CAMERA.ordinal()], alarm);
+        int[] locks = row(out[LinkKind.ALARM_LOCK.ordinal()], alarm);
+        int[] plan = Arrays.copyOf(cameras, cameras.length + locks.length);
+        System.arraycopy(locks, 0, plan, cameras.length, locks.length);
+        plans = replace(plans, alarm, (plan.length > 0) ? plan : null);
+    }
+
+    private static int[][] replace(int[][] rows, int index, int[] value) {
+        int[][] next = Arrays.copyOf(rows, Math.max(rows.length, index + 1));
+        next[index] = value;
+        return next;
+    }
+
+    // Sorted insert; returns the same array if already present
+    private static int[] with(int[] sorted, int value) {
+        int at = Arrays.binarySearch(sorted, value);
+        if (at >= 0) return sorted;
+        at = -at - 1;
+        int[] next = new int[sorted.length + 1];
+        System.arraycopy(sorted, 0, next, 0, at);
+        next[at] = value;
+        System.arraycopy(sorted, at, next, at + 1, sorted.length - at);
+        return next;
+    }
+
+    // Returns the same array if absent
+    private static int[] without(int[] sorted, int value) {
+        int at = Arrays.binarySearch(sorted, value);
+        if (at < 0) return sorted;
+        if (sorted.length == 1) return NO_LINKS;
+        int[] next = new int[sorted.length - 1];
+        System.arraycopy(sorted, 0, next, 0, at);
+        System.arraycopy(sorted, at + 1, next, at, sorted.length - at - 1);
+        return next;
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class: DeviceRegistry
+ *
+ * Description:
+ * Concurrent index of the devices managed by HGController.
+ *
+ *  - byId:   deviceID -> Device, for O(1) lookup on every command
+ *  - byType: device class -> (deviceID -> Device), so type-filtered loops
+ *            (e.g. all SmartLights) only visit matching devices
+ *  - byNumber: device class -> Numbered table indexed by Device.getId(),
+ *            so a command carrying "light 3" reaches the device with one
+ *            array load instead of building the string "light3" (numbers
+ *            beyond DENSE_LIMIT fall back to a hash lookup)
+ *
+ * A device is indexed under its own class and every superclass below
+ * Device, so ofType(SmartLight.class) also finds subclasses of SmartLight.
+ */
+public class DeviceRegistry {
+
+    private final Map<String, Device> byId = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Map<String, Device>> byType = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Numbered<?>> byNumber = new ConcurrentHashMap<>();
+
+    /** Numbers below this are kept in a plain array; larger ones are hashed */
+    static final int DENSE_LIMIT = 1 << 16;
+
+    /**
+     * Register a device under its ID.
+     * @return false if the device is null, its ID is already registered,
+     *         or its number is negative (-1 alone means "no number")
+     */
+    public boolean register(Device device) {
+        if (device == null || device.getDeviceID() == null) return false;
+        if (device.getId() < -1) return false;
+        if (byId.putIfAbsent(device.getDeviceID(), device) != null) return false;
+
+        for (Class<?> type = device.getClass(); type != Device.class && type != null;
+             type = type.getSuperclass()) {
+            byType.computeIfAbsent(type, t -> new ConcurrentHashMap<>())
+                  .put(device.getDeviceID(), device);
+            if (device.getId() >= 0) {
+                numberedRaw(type).put(device.getId(), device);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The number table for a device type. Tables are created on first use
+     * and live as long as the registry, so callers (e.g. the server's
+     * command handlers) can resolve them once and keep them.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Device> Numbered<T> numbered(Class<T> type) {
+        return (Numbered<T>) numberedRaw(type);
+    }
+
+    private Numbered<?> numberedRaw(Class<?> type) {
+        return byNumber.computeIfAbsent(type, t -> new Numbered<>());
+    }
+
+    /**
+     * @return the device with this ID, or null
+     */
+    public Device get(String deviceID) {
+        return (deviceID != null) ? byId.get(deviceID) : null;
+    }
+
+    /**
+     * @return the device with this ID if it is of the given type, or null
+     */
+    public <T extends Device> T get(String deviceID, Class<T> type) {
+        Device device = get(deviceID);
+        return type.isInstance(device) ? type.cast(device) : null;
+    }
+
+    /**
+     * @return a live, unmodifiable view of all devices of the given type
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Device> Collection<T> ofType(Class<T> type) {
+        if (type == Device.class) return (Collection<T>) Collections.unmodifiableCollection(byId.values());
+        Map<String, Device> devices = byType.get(type);
+        if (devices == null) return Collections.emptyList();
+        return (Collection<T>) Collections.unmodifiableCollection(devices.values());
+    }
+
+    public boolean contains(String deviceID) {
+        return deviceID != null && byId.containsKey(deviceID);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * @return a snapshot of all registered devices
+     */
+    public List<Device> all() {
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Devices of one type indexed by their number. Reads are a volatile
+     * array load; registration copies the array (devices are added rarely).
+     * Numbers from DENSE_LIMIT up live in a hash map instead, so one very
+     * large number does not allocate a huge array.
+     */
+    public static final class Numbered<T extends Device> {
+
+        private volatile Device[] devices = new Device[0];
+        private final Map<Integer, Device> sparse = new ConcurrentHashMap<>();
+
+        /**
+         * @return the device with this number, or null
+         */
+        @SuppressWarnings("unchecked")
+        public T get(int number) {
+            Device[] current = devices;
+            if (number >= 0 && number < current.length) return (T) current[number];
+            return (number >= DENSE_LIMIT) ? (T) sparse.get(number) : null;
+        }
+
+        synchronized void put(int number, Device device) {
+            if (number >= DENSE_LIMIT) {
+                sparse.put(number, device);
+                return;
+            }
+            Device[] current = devices;
+            if (number >= current.length) {
+                current = Arrays.copyOf(current, Math.min(DENSE_LIMIT, Math.max(number + 1, current.length * 2)));
+            } else {
+                current = current.clone();
+            }
+            current[number] = device;
+            devices = current;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+
+/**
+ * Class: DeviceStateEvent
+ *
+ * Description:
+ * One change to a device's state, published by HGController to its
+ * DeviceStateListeners (e.g. light1 "brightness" -> 40). Immutable, so a
+ * single event can be shared by every subscriber.
+ *
+ * Sent to clients as ["deviceState", deviceId, property, value, timestamp].
+ */
+public final class DeviceStateEvent {
+
+    private final Device device;
+    private final String property;
+    private final Object value;        // Boolean, Integer, String or List<Integer>
+    private final long timestamp;      // Epoch millis
+
+    public DeviceStateEvent(Device device, String property, Object value) {
+        this.device = device;
+        this.property = property;
+        this.value = value;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public Device getDevice() { return device; }
+    public String getDeviceId() { return device.getDeviceID(); }
+    public String getProperty() { return property; }
+    public Object getValue() { return value; }
+    public long getTimestamp() { return timestamp; }
+
+    /**
+     * @return the message pushed to subscribed clients
+     */
+    public ArrayList<Object> toMessage() {
+        ArrayList<Object> msg = new ArrayList<>(5);
+        msg.add("deviceState");
+        msg.add(device.getDeviceID());
+        msg.add(property);
+        msg.add(value);
+        msg.add(timestamp);
+        return msg;
+    }
+
+    @Override
+    public String toString() {
+        return device.getDeviceID() + "." + property + " = " + value;
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * Class: DeviceStateListener
+ *
+ * Description:
+ * Receives device state changes from HGController's event bus.
+ *
+ * Called on the thread that made the change, while it still holds the
+ * device's command lock, so events for one device arrive in the order the
+ * changes were made. Implementations must not block (queue, don't write).
+ */
+@FunctionalInterface
+public interface DeviceStateListener {
+
+    void deviceStateChanged(DeviceStateEvent event);
+}
@@ -0,0 +1,80 @@
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class: DeviceSubscriptions
+ *
+ * Description:
+ * Which connections asked for state events of which devices (SUBSCRIBE).
+ * A connection subscribes to one device ID or to every device; either way
+ * an event is only delivered if the connection's user may access the
+ * device at delivery time, so revoking a guest's access takes effect on
+ * the next event.
+ *
+ * Lookups on the event path touch only the subscribers of that device,
+ * not every connected client. Events are delivered under the device's
+ * command lock, so they are queued with sendEvent(), which never waits
+ * for room even under SlowConsumerPolicy.BLOCK.
+ */
+final class DeviceSubscriptions {
+
+    private final Map<String, Set<ConnectionToClient>> byDevice = new ConcurrentHashMap<>();
+    private final Set<ConnectionToClient> allDevices = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param deviceId Device to follow, or null for every device
+     */
+    void subscribe(ConnectionToClient client, String deviceId) {
+        if (deviceId == null) {
+            allDevices.add(client);
+        } else {
+            byDevice.computeIfAbsent(deviceId, id -> ConcurrentHashMap.newKeySet()).add(client);
+        }
+    }
+
+    /**
+     * @param deviceId Device to stop following, or null to drop every
+     *                 subscription of this connection
+     */
+    void unsubscribe(ConnectionToClient client, String deviceId) {
+        if (deviceId == null) {
+            allDevices.remove(client);
+            for (Set<ConnectionToClient> subscribers : byDevice.values()) {
+                subscribers.remove(client);
+            }
+        } else {
+            Set<ConnectionToClient> subscribers = byDevice.get(deviceId);
+            if (subscribers != null) subscribers.remove(client);
+        }
+    }
+
+    /**
+     * Queue the event on every subscriber allowed to see its device. The
+     * message is encoded once per wire format for all of them.
+     * @return the number of connections it was queued on
+     */
+    int deliver(DeviceStateEvent event) {
+        Device device = event.getDevice();
+        Set<ConnectionToClient> subscribers = byDevice.get(device.getDeviceID());
+        if (allDevices.isEmpty() && (subscribers == null || subscribers.isEmpty())) return 0;
+
+        BroadcastFrame frame = new BroadcastFrame(event.toMessage()); // Encoded lazily
+        int queued = 0;
+        for (ConnectionToClient client : allDevices) {
+            if (client.canAccessDevice(device)) {
+                client.sendEvent(frame);
+                queued++;
+            }
+        }
+        if (subscribers != null) {
+            for (ConnectionToClient client : subscribers) {
+                if (!allDevices.contains(client) && client.canAccessDevice(device)) {
+                    client.sendEvent(frame);
+                    queued++;
+                }
+            }
+        }
+        return queued;
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Class: DeviceTimers
+ *
+ * Description:
+ * At most one pending timer per device (a light's auto-off, a lock's
+ * relock) on a shared TimingWheel. Arming a device again replaces its
+ * timer, so motion re-arming a light costs one O(1) cancel and one O(1)
+ * schedule, never a task per event.
+ *
+ * When a timer fires it is removed first and the expiry handler is called
+ * with the device. A handler that takes the device's command lock should
+ * check isArmed() again: the device may have been re-armed in between.
+ *
+ * Snapshots: save() writes one line per device with a configured delay
+ * (tab-separated: device ID, minutes) to a temporary file and renames it
+ * over the old one. load() reads them back. Only the delays survive a
+ * restart; pending timers are deliberately not saved or restored. Devices
+ * start with lights off and locks locked, so a pending timer would have
+ * nothing to undo, and a deadline from before the restart would fire
+ * against state it never saw.
+ */
+public final class DeviceTimers {
+
+    private static final String HEADER = "# HomeGuardian device timers";
+
+    /**
+     * One line of a snapshot
+     */
+    public static final class Entry {
+        public final String deviceId;
+        public final int minutes;
+
+        public Entry(String deviceId, int minutes) {
+            this.deviceId = deviceId;
+            this.minutes = minutes;
+        }
+    }
+
+    // A device's pending timer; mapped before it is scheduled, so even a
+    // timer due at once finds itself in the map when it fires
+    private static final class Armed {
+        volatile TimingWheel.Timeout timeout;
+    }
+
+    private final TimingWheel wheel;
+    private final Consumer<Device> onExpiry;
+    private final Map<Device, Armed> armed = new ConcurrentHashMap<>();
+
+    public DeviceTimers(TimingWheel wheel, Consumer<Device> onExpiry) {
+        this.wheel = wheel;
+        this.onExpiry = onExpiry;
+    }
+
+    /**
+     * (Re)start the device's timer, replacing any pending one. Callers
+     * serialise arm() and cancel() per device (its command lock).
+     * @return false if the wheel is closed (shutting down)
+     */
+    public boolean arm(Device device, long delayMillis) {
+        Armed entry = new Armed();
+        Armed previous = armed.put(device, entry);
+        if (previous != null && previous.timeout != null) previous.timeout.cancel();
+        try {
+            entry.timeout = wheel.schedule(() -> {
+                if (armed.remove(device, entry)) onExpiry.accept(device);
+            }, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (IllegalStateException e) {
+            armed.remove(device, entry);
+            return false;
+        }
+    }
+
+    /**
+     * @return false if the device had no pending timer
+     */
+    public boolean cancel(Device device) {
+        Armed previous = armed.remove(device);
+        return previous != null && previous.timeout != null && previous.timeout.cancel();
+    }
+
+    public boolean isArmed(Device device) {
+        return armed.containsKey(device);
+    }
+
+    public int size() {
+        return armed.size();
+    }
+
+    public void close() {
+        wheel.close();
+    }
+
+    // =====================================================
+    // ===================== SNAPSHOTS =====================
+    // =====================================================
+
+    public static void save(Path file, List<Entry> entries) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (Entry e : entries) {
+                out.write(e.deviceId + "\t" + e.minutes);
+                out.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the saved entries, or an empty list if there is no snapshot;
+     *         malformed lines are skipped
+     */
+    public static List<Entry> load(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(file)) return entries;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] fields = line.split("\t");
+            if (fields.length != 2) continue;
+            try {
+                entries.add(new Entry(fields[0], Integer.parseInt(fields[1])));
+            } catch (NumberFormatException e) {
+                ServerLog.log("[TIMER] Skipping bad timer snapshot line: " + line);
+            }
+        }
+        return entries;
+    }
+}
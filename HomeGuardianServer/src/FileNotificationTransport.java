@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Class: FileNotificationTransport
+ *
+ * Description:
+ * Loopback NotificationTransport for tests and deployments without a
+ * mail/push gateway: every batch is appended to a file as one line per
+ * alert, tab-separated:
+ *
+ *   recipient  email  timestamp  repeatCount  notificationID  message
+ *
+ * and flushed once per batch. A write error is reported to the dispatcher,
+ * which retries the batch.
+ */
+public class FileNotificationTransport implements NotificationTransport {
+
+    private final Path file;
+    private Writer out;                                 // Guarded by this
+
+    public FileNotificationTransport(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void deliver(String recipient, List<Notification> batch) throws IOException {
+        if (out == null) {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        try {
+            for (Notification n : batch) {
+                out.append(recipient).append('\t')
+                   .append(String.valueOf(n.getEmail())).append('\t')
+                   .append(n.getTimestampFormatted()).append('\t')
+                   .append(String.valueOf(n.getRepeatCount())).append('\t')
+                   .append(n.getNotificationID()).append('\t')
+                   .append(n.getMessage().replace('\n', ' ')).append(System.lineSeparator());
+            }
+            out.flush();
+        } catch (IOException e) {
+            closeQuietly(); // Reopen on the retry
+            throw e;
+        }
+    }
+
+    public synchronized void close() {
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignore) {}
+        out = null;
+    }
+}
@@ -1,7 +1,19 @@
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Central controller for the Home Guardian server.
@@ -14,23 +26,80 @@ import java.util.Optional;
  *
  * - Also exposes high-level, type-safe methods that the Server can call
  *   in response to client commands (toggleLight, setLightBrightness, etc.).
+ *   Each takes either a device ID (looked up in the registry) or the
+ *   device itself, which the server's command table resolves by number.
+ *
+ * - Thread-safety: every client connection calls in concurrently.
+ *   - Device commands run under that device's own command lock, so
+ *     clients working on different devices never contend.
+ *   - Activity logs (controller and device entries) go to an
+ *     ActivityLogStore: a lock-free ring buffer of recent entries, spilled
+ *     to append-only segment files when persistence is configured.
+ *   - Notifications are handed to a NotificationDispatcher, which
+ *     batches, merges and delivers them on its own threads.
+ *   - Users live in a UserDirectory hashed by username and email; signup
+ *     reserves both atomically, so concurrent signups never duplicate.
+ *   - Login sessions live in a SessionTable keyed by token, so a client
+ *     reconnecting with its token is bound again in O(1).
+ *   - Light auto-off, lock relock and motion hold timers live in
+ *     DeviceTimers on one hashed TimingWheel; they are armed and cancelled
+ *     under the device's command lock. Light timeouts and lock durations
+ *     can be snapshotted to a file and restored.
+ *
+ *   - Links between devices (motion -> light/alarm, alarm -> camera/lock)
+ *     are a DeviceLinks graph of primitive adjacency arrays; a triggered
+ *     alarm walks its precomputed plan instead of searching for targets.
+ *
+ * - Device state changes are published to DeviceStateListeners (the
+ *   server's SUBSCRIBE fan-out) while the device's command lock is held,
+ *   so listeners see each device's changes in order. Listeners must
+ *   not wait (the fan-out never blocks on a slow client's queue). Only
+ *   real changes are published; setting a light that is already on is silent.
  */
 public class HGController {
 
     //fields
 
-    private final List<ActivityLog> activityLogs;
-    private final List<Notification> notifications;
-    private final List<Device> deviceList;
-    private final List<User> userList;
+    private final ActivityLogStore activityLogs;       // Ring + optional disk segments
+    private volatile NotificationDispatcher notifications; // Async delivery + recent history
+    private final DeviceRegistry devices;   // Indexed by ID and by device type
+    private final UserDirectory users;                 // Indexed by username and email
+    private final SessionTable sessions = new SessionTable(); // Token -> logged-in user
+    private final List<DeviceStateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private final DeviceTimers timers;                 // Light auto-off, lock relock
+    private final DeviceLinks links = new DeviceLinks(); // Motion/alarm/camera/lock link graph
+    private final Set<SmartLight> lightsOnAllMotion = ConcurrentHashMap.newKeySet(); // Also linked to sensors added later
+    private final Set<Alarm> alarmsOnAllMotion = ConcurrentHashMap.newKeySet();      // Also linked to sensors added later
+    private final Object allMotionLinks = new Object(); // Serialises the two sets with addDevice
+    private volatile Path timerSnapshot;               // null = timers not saved
+    private ScheduledExecutorService timerSnapshotWriter; // Periodic saves, off the timer thread
+    private final Object timerSnapshotLock = new Object(); // One snapshot write at a time
 
     //constructor
 
+    /** Activity log entries kept in memory unless configured otherwise */
+    public static final int DEFAULT_LOG_CAPACITY = 16384;
+
     public HGController() {
-        this.activityLogs = new ArrayList<>();
-        this.notifications = new ArrayList<>();
-        this.deviceList = new ArrayList<>();
-        this.userList = new ArrayList<>();
+        this(DEFAULT_LOG_CAPACITY);
+    }
+
+    /**
+     * @param logCapacity Number of activity log entries retained in memory
+     */
+    public HGController(int logCapacity) {
+        this(new ActivityLogStore(logCapacity));
+    }
+
+    /**
+     * @param logStore Where activity logs are kept (memory-only or persistent)
+     */
+    public HGController(ActivityLogStore logStore) {
+        this.activityLogs = logStore;
+        this.notifications = new NotificationDispatcher(new LogNotificationTransport());
+        this.devices = new DeviceRegistry();
+        this.users = new UserDirectory();
+        this.timers = new DeviceTimers(new TimingWheel(), this::deviceTimerExpired);
     }
 
     // =====================================================
@@ -38,13 +107,28 @@ public class HGController {
     // =====================================================
 
     /**
-     * Adds a new device if not already present.
+     * Adds a new device if no device with the same ID is registered and its
+     * number can be indexed; otherwise the rejection is logged. A new
+     * motion sensor is linked to every light and alarm switched to follow
+     * all sensors (toggleLightMotionLink, toggleAlarmMotion).
      */
     public void addDevice(Device device) {
-        if (device != null && !deviceList.contains(device)) {
-            deviceList.add(device);
+        if (devices.register(device)) {
+            links.register(device);
+            device.attachLogStore(activityLogs);
             logActivity("New device added: " + device.getDeviceName()
                     + " (" + device.getDeviceID() + ")");
+            if (device instanceof MotionSensor) {
+                // Graph only: no device lock is taken under allMotionLinks, and
+                // the targets' linkedToMotion flags are already set
+                synchronized (allMotionLinks) {
+                    for (SmartLight light : lightsOnAllMotion) links.link(LinkKind.MOTION_LIGHT, device, light);
+                    for (Alarm alarm : alarmsOnAllMotion) links.link(LinkKind.MOTION_ALARM, device, alarm);
+                }
+            }
+        } else if (device != null) {
+            logActivity("Device rejected: " + device.getDeviceID()
+                    + " (duplicate ID or invalid number " + device.getId() + ")");
         }
     }
 
@@ -55,12 +139,23 @@ public class HGController {
     public boolean controlDevice(String deviceID, String command) {
         Optional<Device> deviceOpt = findDeviceByID(deviceID);
         if (deviceOpt.isEmpty()) {
-            logActivity("Device with ID " + deviceID + " can't be found.");
+            logActivity("Device with ID " + forLog(deviceID) + " can't be found.");
             return false;
         }
 
         Device device = deviceOpt.get();
-        boolean success = device.handleCommand(command);
+        boolean success;
+        ReentrantLock lock = device.getCommandLock();
+        lock.lock();
+        try {
+            boolean wasConnected = device.connectionStatus();
+            success = device.handleCommand(command);
+            if (device.connectionStatus() != wasConnected) {
+                publishState(device, "connected", device.connectionStatus());
+            }
+        } finally {
+            lock.unlock();
+        }
 
         String statusMessage = success
                 ? "Command '" + command + "' executed on device " + deviceID
@@ -71,149 +166,307 @@ public class HGController {
     }
 
     /**
-     * Helper: find a Device by its ID.
+     * Helper: find a Device by its ID (O(1) registry lookup).
      */
     private Optional<Device> findDeviceByID(String deviceID) {
-        return deviceList.stream()
-                .filter(d -> d.getDeviceID().equals(deviceID))
-                .findFirst();
+        return Optional.ofNullable(devices.get(deviceID));
     }
 
 
     //user mgmt
 
-    public void addUser(User user) {
-        if (user != null && !userList.contains(user)) {
-            userList.add(user);
-        }
+    /**
+     * Registers a user unless its username or email is already taken.
+     * @return false if the user was not added
+     */
+    public boolean addUser(User user) {
+        if (!users.add(user)) return false;
+        user.attachLogStore(activityLogs);
+        return true;
     }
 
     public boolean removeUser(User user) {
-        if (user == null) return false;
-        return userList.remove(user);
+        if (!users.remove(user)) return false;
+        sessions.endAll(user);
+        return true;
     }
 
     public List<User> getAllUsers() {
-        return Collections.unmodifiableList(userList);
+        return Collections.unmodifiableList(users.all());
     }
 
-    //Finds the first user whose username matches (case-sensitive).
-   
+    //Finds the user with this login username (case-sensitive, O(1)).
+
     public User findUserByUsername(String username) {
-        if (username == null) return null;
-        for (User u : userList) {
-            if (username.equals(u.getUsername())) {   // <--- use login username
-                return u;
-            }
-        }
-        return null;
+        return users.byUsername(username);
     }
 
+    //Finds the user registered with this email (case-insensitive, O(1)).
 
+    public User findUserByEmail(String email) {
+        return users.byEmail(email);
+    }
 
     public boolean isUsernameTaken(String username) {
-        return findUserByUsername(username) != null;
+        return users.containsUsername(username);
+    }
+
+    public boolean isEmailTaken(String email) {
+        return users.containsEmail(email);
     }
 
 
     public User authenticateUser(String username, String password) {
         if (username == null || password == null) return null;
 
-        for (User u : userList) {
-            // compare against stored login username
-            if (username.equals(u.getUsername())) {
-                // for now we treat passwordHash as plain text password
-                if (password.equals(u.getPasswordHash())) {
-                    logActivity("User '" + username + "' authenticated successfully.");
-                    return u;
-                } else {
-                    logActivity("Failed login attempt for user '" + username + "': wrong password.");
-                    return null;
-                }
-            }
+        User u = users.byUsername(username);
+        if (u == null) {
+            logActivity("Failed login attempt for unknown username '" + forLog(username) + "'.");
+            return null;
         }
 
-        logActivity("Failed login attempt for unknown username '" + username + "'.");
+        // for now we treat passwordHash as plain text password
+        if (password.equals(u.getPasswordHash())) {
+            logUserActivity(username, "User '" + username + "' authenticated successfully.");
+            return u;
+        }
+        logUserActivity(username, "Failed login attempt for user '" + username + "': wrong password.");
         return null;
     }
 
 
+    // =====================================================
+    // ===================== SESSIONS ======================
+    // =====================================================
+
+    /**
+     * Start a session for a user that just authenticated.
+     * @return the opaque token the client can RESUME with
+     */
+    public String startSession(User user) {
+        return sessions.issue(user);
+    }
+
+    /**
+     * @return the user of a live session (its expiry is extended), or null
+     *         if the token is unknown, expired or its account was removed
+     */
+    public User resumeSession(String token) {
+        User user = sessions.resume(token);
+        if (user == null) {
+            logActivity("Session resume failed: unknown or expired token.");
+            return null;
+        }
+        if (users.byUsername(user.getUsername()) != user) {
+            sessions.end(token);
+            return null;
+        }
+        logUserActivity(user.getUsername(), "User '" + user.getUsername() + "' resumed a session.");
+        return user;
+    }
+
+    public boolean endSession(String token) {
+        return sessions.end(token);
+    }
+
+    public SessionTable getSessions() {
+        return sessions;
+    }
+
     public HomeGuest registerGuest(String name, String email, String username, String password) {
         if (name == null || email == null || username == null || password == null) {
             throw new IllegalArgumentException("All signup fields must be provided.");
         }
 
-        if (isUsernameTaken(username)) {
-            throw new IllegalArgumentException("Username '" + username + "' is already taken.");
-        }
-
         // password is stored as passwordHash for now (no real hashing yet)
         HomeGuest guest = new HomeGuest(name, username, email, password);
-        guest.signup(this); // existing pattern: user calls signup(controller)
-        logActivity("New guest user registered: " + username + " (" + email + ")");
+
+        // existing pattern: user calls signup(controller); the directory
+        // reserves username and email atomically, so this is the only check
+        if (!guest.signup(this)) {
+            if (isUsernameTaken(username)) {
+                throw new IllegalArgumentException("Username '" + username + "' is already taken.");
+            }
+            throw new IllegalArgumentException("Email '" + email + "' is already registered.");
+        }
+        logUserActivity(username, "New guest user registered: " + username + " (" + email + ")");
         return guest;
     }
 
+    /** Longest client-supplied text copied into one log message */
+    static final int MAX_LOGGED_CHARS = 200;
+
+    /**
+     * Client-supplied value for a log message, cut to MAX_LOGGED_CHARS so a
+     * huge command cannot bloat the activity log (or the server log)
+     */
+    static String forLog(Object value) {
+        String text = String.valueOf(value);
+        if (text.length() <= MAX_LOGGED_CHARS) return text;
+        return text.substring(0, MAX_LOGGED_CHARS) + "... (" + text.length() + " chars)";
+    }
+
     public void logActivity(String message) {
         ActivityLog log = new ActivityLog(message);
-        activityLogs.add(log);
-        System.out.println("[ACTIVITY] " + message);
+        activityLogs.append(log);
+        ServerLog.log("[ACTIVITY] " + message);
+    }
+
+    // Same as logActivity, attributed to a device so its history includes it
+    private void logDeviceActivity(Device device, String message) {
+        activityLogs.append(new ActivityLog(device.getDeviceID(), device.getDeviceName(), message));
+        ServerLog.log("[ACTIVITY] " + message);
+    }
+
+    // Same as logActivity, attributed to a user so GET_LOGS_PAGE can filter by it
+    public void logUserActivity(String username, String message) {
+        ActivityLog log = ActivityLog.forUser(username, message);
+        activityLogs.append(log);
+        ServerLog.log("[ACTIVITY] " + message);
     }
 
+    // The newest getLogCapacity() entries; anything no longer in memory
+    // (e.g. after a restart) is read back from the log segments
     public List<ActivityLog> getAllLogs() {
-        return Collections.unmodifiableList(activityLogs);
+        return getLogs(null);
+    }
+
+    // Same as getAllLogs, limited to the entries the filter accepts (null = all)
+    public List<ActivityLog> getLogs(Predicate<ActivityLog> filter) {
+        return Collections.unmodifiableList(
+                activityLogs.readLatest(filter, activityLogs.capacity()));
     }
 
+    public ActivityLogStore getLogStore() {
+        return activityLogs;
+    }
 
+    /** How long close() waits for queued notifications to go out */
+    private static final long NOTIFICATION_CLOSE_MILLIS = 2000;
+
+    // Save timer settings, deliver queued notifications, then flush and
+    // fsync persisted activity logs (called on shutdown)
+    public void close() {
+        synchronized (this) {
+            if (timerSnapshotWriter != null) timerSnapshotWriter.shutdown();
+        }
+        saveTimers();
+        timers.close();
+        notifications.close(NOTIFICATION_CLOSE_MILLIS);
+        activityLogs.close();
+    }
+
+    // Log buffer counters (for monitoring)
+    public int getLogCapacity() { return activityLogs.capacity(); }
+    public long getLogsAppended() { return activityLogs.appendedCount(); }
+    public long getLogsOverwritten() { return activityLogs.overwrittenCount(); }
+    public long getLogsPersisted() { return activityLogs.persistedCount(); }
+    public long getLogsSpillLost() { return activityLogs.spillLostCount(); }
+
+
+    // Queued for delivery; identical alerts queued for the user are merged
     public void notifyUser(User user, String message) {
         if (user == null || message == null || message.isBlank()) return;
 
-        Notification notification = new Notification(user, message);
-        notifications.add(notification);
+        Notification notification = new Notification(user, message, true, user.getEmail());
+        notifications.submit(notification, Priority.NORMAL);
 
         logActivity("Notification queued for user "
                 + user.getUserName() + ": " + message);
     }
 
+    // Delivered without waiting to batch
     public void notifyEmergencyServices(String message) {
         Notification emergencyNotification =
                 new Notification(null, "[EMERGENCY] " + message);
-        notifications.add(emergencyNotification);
+        notifications.submit(emergencyNotification, Priority.CRITICAL);
         logActivity("Emergency services notified: " + message);
-        System.out.println("Emergency services notified: " + message);
+        ServerLog.logCritical("Emergency services notified: " + message);
     }
 
+    // The most recent notifications (NotificationDispatcher.HISTORY_LIMIT)
     public List<Notification> getAllNotifications() {
-        return Collections.unmodifiableList(notifications);
+        return Collections.unmodifiableList(notifications.getRecent());
+    }
+
+    public NotificationDispatcher getNotificationDispatcher() {
+        return notifications;
+    }
+
+    /**
+     * Replace the notification dispatcher (e.g. another transport or pool
+     * size). Alerts queued on the previous one are delivered first.
+     */
+    public void setNotificationDispatcher(NotificationDispatcher dispatcher) {
+        NotificationDispatcher previous = notifications;
+        notifications = dispatcher;
+        previous.close(NOTIFICATION_CLOSE_MILLIS);
     }
 
     public List<Device> getAllDevices() {
-        return Collections.unmodifiableList(deviceList);
+        return Collections.unmodifiableList(devices.all());
+    }
+
+    public DeviceRegistry getDeviceRegistry() {
+        return devices;
+    }
+
+    // =====================================================
+    // ================= DEVICE STATE EVENTS ===============
+    // =====================================================
+
+    public void addStateListener(DeviceStateListener listener) {
+        if (listener != null) stateListeners.add(listener);
+    }
+
+    public void removeStateListener(DeviceStateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * Hand the device's current state to the consumer under its command
+     * lock: no change can be published between the snapshot and the
+     * consumer's return, so a snapshot queued to a subscriber is never
+     * overtaken by an older event.
+     */
+    public void withDeviceState(Device device, Consumer<Map<String, Object>> consumer) {
+        ReentrantLock lock = device.getCommandLock();
+        lock.lock();
+        try {
+            consumer.accept(device.getState());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caller holds the device's command lock
+    private void publishState(Device device, String property, Object value) {
+        if (stateListeners.isEmpty()) return;
+        DeviceStateEvent event = new DeviceStateEvent(device, property, value);
+        for (DeviceStateListener listener : stateListeners) {
+            try {
+                listener.deviceStateChanged(event);
+            } catch (RuntimeException e) {
+                ServerLog.log("[EVENT] State listener failed for " + event + ": " + e);
+            }
+        }
     }
 
 
     private SmartLight getLightById(String deviceId) {
-        Optional<Device> opt = findDeviceByID(deviceId);
-        if (opt.isEmpty() || !(opt.get() instanceof SmartLight)) return null;
-        return (SmartLight) opt.get();
+        return devices.get(deviceId, SmartLight.class);
     }
 
     private SmartLock getLockById(String deviceId) {
-        Optional<Device> opt = findDeviceByID(deviceId);
-        if (opt.isEmpty() || !(opt.get() instanceof SmartLock)) return null;
-        return (SmartLock) opt.get();
+        return devices.get(deviceId, SmartLock.class);
     }
 
     private Alarm getAlarmById(String deviceId) {
-        Optional<Device> opt = findDeviceByID(deviceId);
-        if (opt.isEmpty() || !(opt.get() instanceof Alarm)) return null;
-        return (Alarm) opt.get();
+        return devices.get(deviceId, Alarm.class);
     }
 
     private SecurityCamera getCameraById(String deviceId) {
-        Optional<Device> opt = findDeviceByID(deviceId);
-        if (opt.isEmpty() || !(opt.get() instanceof SecurityCamera)) return null;
-        return (SecurityCamera) opt.get();
+        return devices.get(deviceId, SecurityCamera.class);
     }
 
 
@@ -225,14 +478,27 @@ public class HGController {
             logActivity("toggleLight failed – no SmartLight with ID " + deviceId);
             return false;
         }
+        return toggleLight(light, on);
+    }
 
-        if (on) {
-            light.turnOn();
-        } else {
-            light.turnOff();
+    public boolean toggleLight(SmartLight light, boolean on) {
+        String deviceId = light.getDeviceID();
+        ReentrantLock lock = light.getCommandLock();
+        lock.lock();
+        try {
+            boolean wasOn = light.isOn();
+            if (on) {
+                light.turnOn();
+            } else {
+                light.turnOff();
+            }
+            if (wasOn != on) publishState(light, "on", on);
+            armLightTimer(light); // Turning on again restarts the timeout
+        } finally {
+            lock.unlock();
         }
 
-        logActivity("Light " + deviceId + " set to " + (on ? "ON" : "OFF"));
+        logDeviceActivity(light, "Light " + deviceId + " set to " + (on ? "ON" : "OFF"));
         return true;
     }
 
@@ -242,8 +508,21 @@ public class HGController {
             logActivity("setLightBrightness failed – no SmartLight with ID " + deviceId);
             return false;
         }
-        light.setBrightness(value);
-        logActivity("Light " + deviceId + " brightness set to " + value);
+        return setLightBrightness(light, value);
+    }
+
+    public boolean setLightBrightness(SmartLight light, int value) {
+        String deviceId = light.getDeviceID();
+        ReentrantLock lock = light.getCommandLock();
+        lock.lock();
+        try {
+            int before = light.getBrightness();
+            light.setBrightness(value);
+            if (light.getBrightness() != before) publishState(light, "brightness", light.getBrightness());
+        } finally {
+            lock.unlock();
+        }
+        logDeviceActivity(light, "Light " + deviceId + " brightness set to " + value);
         return true;
     }
 
@@ -253,15 +532,28 @@ public class HGController {
             logActivity("setLightColor failed – no SmartLight with ID " + deviceId);
             return false;
         }
+        return setLightColor(light, r, g, b);
+    }
 
-        light.setColor(r, g, b);
-        logActivity("Light " + deviceId + " colour set to RGB(" + r + "," + g + "," + b + ")");
+    public boolean setLightColor(SmartLight light, int r, int g, int b) {
+        String deviceId = light.getDeviceID();
+        ReentrantLock lock = light.getCommandLock();
+        lock.lock();
+        try {
+            List<Integer> before = List.of(light.getRed(), light.getGreen(), light.getBlue());
+            light.setColor(r, g, b);
+            List<Integer> after = List.of(light.getRed(), light.getGreen(), light.getBlue());
+            if (!after.equals(before)) publishState(light, "color", after);
+        } finally {
+            lock.unlock();
+        }
+        logDeviceActivity(light, "Light " + deviceId + " colour set to RGB(" + r + "," + g + "," + b + ")");
         return true;
     }
 
     /**
-     * Your SmartLight class doesn't have timeout support.
-     * We keep this method for protocol compatibility, but log it as a no-op.
+     * Turn the light off after it has been on for this many minutes
+     * (0 = never). Applies at once to a light that is already on.
      */
     public boolean setLightTimeout(String deviceId, int minutes) {
         SmartLight light = getLightById(deviceId);
@@ -269,14 +561,39 @@ public class HGController {
             logActivity("setLightTimeout failed – no SmartLight with ID " + deviceId);
             return false;
         }
-        logActivity("setLightTimeout called for " + deviceId +
-                " with " + minutes + " minutes (no timeout field implemented).");
+        return setLightTimeout(light, minutes);
+    }
+
+    public boolean setLightTimeout(SmartLight light, int minutes) {
+        String deviceId = light.getDeviceID();
+        ReentrantLock lock = light.getCommandLock();
+        lock.lock();
+        try {
+            int before = light.getTimeoutMinutes();
+            light.setTimeoutMinutes(minutes);
+            if (light.getTimeoutMinutes() != before) publishState(light, "timeoutMinutes", light.getTimeoutMinutes());
+            armLightTimer(light);
+        } finally {
+            lock.unlock();
+        }
+        logDeviceActivity(light, "Light " + deviceId + " timeout set to " + light.getTimeoutMinutes() + " minutes");
         return true;
     }
 
+    // Caller holds the light's command lock: restart its auto-off timer if
+    // it is on with a timeout, otherwise drop any pending one
+    private void armLightTimer(SmartLight light) {
+        if (light.isOn() && light.getTimeoutMinutes() > 0) {
+            timers.arm(light, light.getTimeoutMinutes() * MILLIS_PER_MINUTE);
+        } else {
+            timers.cancel(light);
+        }
+    }
+
     /**
-     * Link/unlink light to the MotionSensor.
-     * On = link via MotionSensor.linkLight; Off = unlink.
+     * Link/unlink light to the motion sensors.
+     * On = MOTION_LIGHT link from every MotionSensor, including sensors
+     * added later; Off = unlink them all.
      */
     public boolean toggleLightMotionLink(String deviceId, boolean on) {
         SmartLight light = getLightById(deviceId);
@@ -284,33 +601,151 @@ public class HGController {
             logActivity("toggleLightMotionLink failed – no SmartLight with ID " + deviceId);
             return false;
         }
-        light.toggleMotionLink();
+        return toggleLightMotionLink(light, on);
+    }
+
+    public boolean toggleLightMotionLink(SmartLight light, boolean on) {
+        String deviceId = light.getDeviceID();
+        synchronized (allMotionLinks) {
+            if (on) lightsOnAllMotion.add(light); else lightsOnAllMotion.remove(light);
+            for (MotionSensor sensor : devices.ofType(MotionSensor.class)) {
+                updateLink(LinkKind.MOTION_LIGHT, sensor, light, on);
+            }
+        }
+        ReentrantLock lock = light.getCommandLock();
+        lock.lock();
+        try {
+            if (light.isLinkedToMotion() != on) {
+                light.toggleMotionLink();
+                publishState(light, "linkedToMotion", on);
+            }
+        } finally {
+            lock.unlock();
+        }
 
-        logActivity("Light " + deviceId + " motion link toggled to " 
-                + (on ? "ON" : "OFF") + " (handled locally on the light).");
+        logDeviceActivity(light, "Light " + deviceId + " motion link set to " + (on ? "ON" : "OFF"));
         return true;
     }
 
 
+    /**
+     * One raw reading from a motion sensor (MOTION_EVENT). Cheap for the
+     * common case of a reading during motion that is already detected;
+     * linked devices (DeviceLinks) are only switched on edges:
+     *  - rising: MOTION_LIGHT lights turn on and their auto-off timers stop
+     *    while motion lasts; MOTION_ALARM alarms are armed, not triggered
+     *    (clients fire an armed alarm with TRIGGER_ALARM, see triggerAlarm())
+     *  - falling (no motion for the sensor's hold time): linked lights'
+     *    auto-off timers start from then
+     */
+    public boolean motionEvent(MotionSensor sensor, int intensity) {
+        int edge;
+        ReentrantLock lock = sensor.getCommandLock();
+        lock.lock();
+        try {
+            if (sensor.debounce(System.nanoTime())) return true;
+            edge = sensor.ingest(clamp(intensity, 0, 100), motionSensitivity(sensor));
+            if (edge == MotionSensor.RISING || edge == MotionSensor.HELD) {
+                timers.arm(sensor, sensor.getHoldMillis()); // Falling edge unless motion continues
+            }
+            if (edge == MotionSensor.RISING) publishState(sensor, "motionDetected", true);
+        } finally {
+            lock.unlock();
+        }
+        if (edge != MotionSensor.RISING) return true;
+
+        logDeviceActivity(sensor, "Motion detected by " + sensor.getDeviceID() + " (intensity " + intensity + ")");
+        for (int index : links.targets(LinkKind.MOTION_LIGHT, sensor)) {
+            SmartLight light = (SmartLight) links.device(index);
+            ReentrantLock lightLock = light.getCommandLock();
+            lightLock.lock();
+            try {
+                if (!light.isOn()) {
+                    light.turnOn();
+                    publishState(light, "on", true);
+                }
+                armMotionLightTimer(sensor, light);
+            } finally {
+                lightLock.unlock();
+            }
+        }
+        for (int index : links.targets(LinkKind.MOTION_ALARM, sensor)) {
+            Alarm alarm = (Alarm) links.device(index);
+            if (!alarm.isArmed()) toggleAlarm(alarm, true);
+        }
+        return true;
+    }
+
+    // Most sensitive MOTION_LIGHT light, or the sensor default with none linked
+    private int motionSensitivity(MotionSensor sensor) {
+        int[] lights = links.targets(LinkKind.MOTION_LIGHT, sensor);
+        if (lights.length == 0) return MotionSensor.DEFAULT_SENSITIVITY;
+        int sensitivity = 0;
+        for (int index : lights) {
+            sensitivity = Math.max(sensitivity, ((SmartLight) links.device(index)).getMotionSensitivity());
+        }
+        return sensitivity;
+    }
+
+    // Timer thread: the sensor's hold ran out (caller checked it was not re-armed)
+    private void motionCleared(MotionSensor sensor) {
+        for (int index : links.targets(LinkKind.MOTION_LIGHT, sensor)) {
+            SmartLight light = (SmartLight) links.device(index);
+            ReentrantLock lightLock = light.getCommandLock();
+            lightLock.lock();
+            try {
+                armMotionLightTimer(sensor, light);
+            } finally {
+                lightLock.unlock();
+            }
+        }
+        logDeviceActivity(sensor, "Motion cleared on " + sensor.getDeviceID());
+    }
+
+    // Caller holds the light's command lock. A linked light stays on while
+    // the sensor sees motion; its timeout runs from when motion clears.
+    // Reads the sensor's current state, so a rising and a falling edge
+    // handled at the same time leave the light's timer right either way.
+    private void armMotionLightTimer(MotionSensor sensor, SmartLight light) {
+        if (sensor.isMotionDetected()) {
+            timers.cancel(light);
+        } else {
+            armLightTimer(light);
+        }
+    }
+
     public boolean setMotionSensitivity(int value) {
+        return setMotionSensitivity(value, DeviceAccess.ALL);
+    }
+
+    // Only the lights the given access allows (a guest's session); an
+    // account with none of them changes nothing and fails
+    public boolean setMotionSensitivity(int value, DeviceAccess access) {
         // clamp to 0–100 or whatever range your slider uses
         int clamped = clamp(value, 0, 100);
 
         boolean anyLight = false;
-        for (Device d : deviceList) {
-            if (d instanceof SmartLight) {
-                SmartLight light = (SmartLight) d;
+        for (SmartLight light : devices.ofType(SmartLight.class)) {
+            if (!access.allows(light)) continue;
+            ReentrantLock lock = light.getCommandLock();
+            lock.lock();
+            try {
+                int before = light.getMotionSensitivity();
                 light.setMotionSensitivity(clamped);   // <-- per-light field
-                anyLight = true;
+                if (before != clamped) publishState(light, "motionSensitivity", clamped);
+            } finally {
+                lock.unlock();
             }
+            anyLight = true;
         }
 
         if (!anyLight) {
-            logActivity("setMotionSensitivity failed – no SmartLights in device list.");
+            logActivity("setMotionSensitivity failed – no accessible SmartLights in device list.");
             return false;
         }
 
-        logActivity("Motion sensitivity set to " + clamped + " for all SmartLights.");
+        logActivity("Motion sensitivity set to " + clamped
+                + ((access == DeviceAccess.ALL) ? " for all SmartLights." : " for accessible SmartLights."));
         return true;
     }
 
@@ -323,19 +758,33 @@ public class HGController {
             logActivity("toggleLock failed – no SmartLock with ID " + deviceId);
             return false;
         }
+        return toggleLock(lock, engaged);
+    }
 
-        if (engaged) {
-            lock.lock();
-        } else {
-            lock.unlock();
+    public boolean toggleLock(SmartLock lock, boolean engaged) {
+        String deviceId = lock.getDeviceID();
+        ReentrantLock commandLock = lock.getCommandLock();
+        commandLock.lock();
+        try {
+            boolean wasLocked = lock.isLocked();
+            if (engaged) {
+                lock.lock();
+            } else {
+                lock.unlock();
+            }
+            if (wasLocked != engaged) publishState(lock, "locked", engaged);
+            armRelockTimer(lock);
+        } finally {
+            commandLock.unlock();
         }
 
-        logActivity("Lock " + deviceId + " set to " + (engaged ? "LOCKED" : "UNLOCKED"));
+        logDeviceActivity(lock, "Lock " + deviceId + " set to " + (engaged ? "LOCKED" : "UNLOCKED"));
         return true;
     }
 
     /**
-     * Your SmartLock model has no duration; keep method for protocol but log as no-op.
+     * Relock the lock after it has been unlocked for this many minutes
+     * (0 = never). Applies at once to a lock that is already unlocked.
      */
     public boolean setLockDuration(String deviceId, int minutes) {
         SmartLock lock = getLockById(deviceId);
@@ -343,15 +792,42 @@ public class HGController {
             logActivity("setLockDuration failed – no SmartLock with ID " + deviceId);
             return false;
         }
-        logActivity("setLockDuration called for " + deviceId +
-                " with " + minutes + " minutes (no duration field implemented).");
+        return setLockDuration(lock, minutes);
+    }
+
+    public boolean setLockDuration(SmartLock lock, int minutes) {
+        String deviceId = lock.getDeviceID();
+        ReentrantLock commandLock = lock.getCommandLock();
+        commandLock.lock();
+        try {
+            int before = lock.getLockDurationMinutes();
+            lock.setLockDurationMinutes(minutes);
+            if (lock.getLockDurationMinutes() != before) {
+                publishState(lock, "lockDurationMinutes", lock.getLockDurationMinutes());
+            }
+            armRelockTimer(lock);
+        } finally {
+            commandLock.unlock();
+        }
+        logDeviceActivity(lock, "Lock " + deviceId + " relock duration set to "
+                + lock.getLockDurationMinutes() + " minutes");
         return true;
     }
 
+    // Caller holds the lock's command lock: restart its relock timer if it
+    // is unlocked with a duration, otherwise drop any pending one
+    private void armRelockTimer(SmartLock lock) {
+        if (!lock.isLocked() && lock.getLockDurationMinutes() > 0) {
+            timers.arm(lock, lock.getLockDurationMinutes() * MILLIS_PER_MINUTE);
+        } else {
+            timers.cancel(lock);
+        }
+    }
+
     /**
-     * Link/unlink lock to an alarm.
-     * Your SmartLock only has a boolean linkedToAlarm; we toggle that, but
-     * we don't store exactly *which* alarm. We still log the targeted alarmId.
+     * Link/unlink lock to an alarm (ALARM_LOCK): the lock engages when the
+     * alarm is triggered. The lock's linkedToAlarm and the alarm's
+     * linkedToLock flags report whether any such link exists.
      */
     public boolean linkLockToAlarm(String lockId, String alarmId, boolean linked) {
         SmartLock lock = getLockById(lockId);
@@ -361,18 +837,42 @@ public class HGController {
                     lockId + ", alarm=" + alarmId + ")");
             return false;
         }
+        return linkLockToAlarm(lock, alarm, linked);
+    }
 
-        // Just reflect the link status on the lock
-        if (linked) {
-            if (!lock.isLinkedToAlarm()) {
+    public boolean linkLockToAlarm(SmartLock lock, Alarm alarm, boolean linked) {
+        String lockId = lock.getDeviceID();
+        String alarmId = alarm.getDeviceID();
+
+        updateLink(LinkKind.ALARM_LOCK, alarm, lock, linked);
+
+        ReentrantLock commandLock = lock.getCommandLock();
+        commandLock.lock();
+        try {
+            boolean any = links.sources(LinkKind.ALARM_LOCK, lock).length > 0;
+            if (lock.isLinkedToAlarm() != any) {
                 lock.toggleAlarmLink();
+                publishState(lock, "linkedToAlarm", any);
             }
-            logActivity("Lock " + lockId + " linked logically to Alarm " + alarmId);
-        } else {
-            if (lock.isLinkedToAlarm()) {
-                lock.toggleAlarmLink();
+        } finally {
+            commandLock.unlock();
+        }
+        ReentrantLock alarmLock = alarm.getCommandLock();
+        alarmLock.lock();
+        try {
+            boolean any = links.targets(LinkKind.ALARM_LOCK, alarm).length > 0;
+            if (alarm.isLinkedToLock() != any) {
+                alarm.toggleLockLink();
+                publishState(alarm, "linkedToLock", any);
             }
-            logActivity("Lock " + lockId + " unlinked logically from Alarm " + alarmId);
+        } finally {
+            alarmLock.unlock();
+        }
+
+        if (linked) {
+            logDeviceActivity(lock, "Lock " + lockId + " linked to Alarm " + alarmId);
+        } else {
+            logDeviceActivity(lock, "Lock " + lockId + " unlinked from Alarm " + alarmId);
         }
         return true;
     }
@@ -385,14 +885,26 @@ public class HGController {
             logActivity("toggleCamera failed – no SecurityCamera with ID " + deviceId);
             return false;
         }
+        return toggleCamera(cam, on);
+    }
 
-        if (on) {
-            cam.turnOn();
-        } else {
-            cam.turnOff();
+    public boolean toggleCamera(SecurityCamera cam, boolean on) {
+        String deviceId = cam.getDeviceID();
+        ReentrantLock lock = cam.getCommandLock();
+        lock.lock();
+        try {
+            boolean wasOn = cam.isOn();
+            if (on) {
+                cam.turnOn();
+            } else {
+                cam.turnOff();
+            }
+            if (wasOn != on) publishState(cam, "on", on);
+        } finally {
+            lock.unlock();
         }
 
-        logActivity("Camera " + deviceId + " set to " + (on ? "ON" : "OFF"));
+        logDeviceActivity(cam, "Camera " + deviceId + " set to " + (on ? "ON" : "OFF"));
         return true;
     }
 
@@ -402,14 +914,26 @@ public class HGController {
             logActivity("toggleCameraRecording failed – no SecurityCamera with ID " + deviceId);
             return false;
         }
+        return toggleCameraRecording(cam, on);
+    }
 
-        if (on) {
-            cam.startRecording();
-        } else {
-            cam.stopRecording();
+    public boolean toggleCameraRecording(SecurityCamera cam, boolean on) {
+        String deviceId = cam.getDeviceID();
+        ReentrantLock lock = cam.getCommandLock();
+        lock.lock();
+        try {
+            boolean wasRecording = cam.isRecording();
+            if (on) {
+                cam.startRecording();
+            } else {
+                cam.stopRecording();
+            }
+            if (wasRecording != on) publishState(cam, "recording", on);
+        } finally {
+            lock.unlock();
         }
 
-        logActivity("Camera " + deviceId + " recording " + (on ? "STARTED" : "STOPPED"));
+        logDeviceActivity(cam, "Camera " + deviceId + " recording " + (on ? "STARTED" : "STOPPED"));
         return true;
     }
 
@@ -423,13 +947,24 @@ public class HGController {
             logActivity("toggleCameraMotion failed – camera missing (cam=" + deviceId + ")");
             return false;
         }
+        return toggleCameraMotion(cam, on);
+    }
 
-        boolean current = cam.isMotionTriggered();
-        if (current != on) {
-            cam.toggleMotionTrigger();
+    public boolean toggleCameraMotion(SecurityCamera cam, boolean on) {
+        String deviceId = cam.getDeviceID();
+        ReentrantLock lock = cam.getCommandLock();
+        lock.lock();
+        try {
+            boolean current = cam.isMotionTriggered();
+            if (current != on) {
+                cam.toggleMotionTrigger();
+                publishState(cam, "motionTriggered", on);
+            }
+        } finally {
+            lock.unlock();
         }
 
-        logActivity("Camera " + deviceId + " motion trigger set to " + on);
+        logDeviceActivity(cam, "Camera " + deviceId + " motion trigger set to " + on);
         return true;
     }
 
@@ -443,7 +978,12 @@ public class HGController {
             logActivity("requestCameraFootage failed – no SecurityCamera with ID " + deviceId);
             return;
         }
-        logActivity("Footage requested from camera " + deviceId +
+        requestCameraFootage(cam, timeRangeLabel);
+    }
+
+    public void requestCameraFootage(SecurityCamera cam, String timeRangeLabel) {
+        String deviceId = cam.getDeviceID();
+        logDeviceActivity(cam, "Footage requested from camera " + deviceId +
                 " for range: " + timeRangeLabel + " (not implemented).");
     }
 
@@ -455,14 +995,26 @@ public class HGController {
             logActivity("toggleAlarmWithString failed – no Alarm with ID " + alarmId);
             return false;
         }
+        return toggleAlarm(alarm, on);
+    }
 
-        if (on) {
-            alarm.arm();
-        } else {
-            alarm.disarm();
+    public boolean toggleAlarm(Alarm alarm, boolean on) {
+        String alarmId = alarm.getDeviceID();
+        ReentrantLock lock = alarm.getCommandLock();
+        lock.lock();
+        try {
+            boolean wasArmed = alarm.isArmed();
+            if (on) {
+                alarm.arm();
+            } else {
+                alarm.disarm();
+            }
+            if (wasArmed != on) publishState(alarm, "armed", on);
+        } finally {
+            lock.unlock();
         }
 
-        logActivity("Alarm " + alarmId + " set to " + (on ? "ARMED" : "DISARMED"));
+        logDeviceActivity(alarm, "Alarm " + alarmId + " set to " + (on ? "ARMED" : "DISARMED"));
         return true;
     }
 
@@ -472,21 +1024,39 @@ public class HGController {
             logActivity("toggleAlarmMotion failed – no Alarm with ID " + alarmId);
             return false;
         }
+        return toggleAlarmMotion(alarm, on);
+    }
 
-        // Alarm already has isLinkedToMotion() + toggleMotionLink()
-        boolean current = alarm.isLinkedToMotion();
-        if (current != on) {
-            alarm.toggleMotionLink();
+    // MOTION_ALARM links from every MotionSensor, including sensors added
+    // later; the alarm's linkedToMotion flag reports them
+    public boolean toggleAlarmMotion(Alarm alarm, boolean on) {
+        String alarmId = alarm.getDeviceID();
+        synchronized (allMotionLinks) {
+            if (on) alarmsOnAllMotion.add(alarm); else alarmsOnAllMotion.remove(alarm);
+            for (MotionSensor sensor : devices.ofType(MotionSensor.class)) {
+                updateLink(LinkKind.MOTION_ALARM, sensor, alarm, on);
+            }
+        }
+        ReentrantLock lock = alarm.getCommandLock();
+        lock.lock();
+        try {
+            boolean current = alarm.isLinkedToMotion();
+            if (current != on) {
+                alarm.toggleMotionLink();
+                publishState(alarm, "linkedToMotion", on);
+            }
+        } finally {
+            lock.unlock();
         }
 
-        logActivity("Alarm " + alarmId + " motion link set to " + on);
+        logDeviceActivity(alarm, "Alarm " + alarmId + " motion link set to " + on);
         return true;
     }
 
 
     /**
-     * Link/unlink alarm to record on camera when activated.
-     * Your current Alarm model has no cameraId storage; we only log this.
+     * Link/unlink alarm to record on camera when activated (ALARM_CAMERA):
+     * the camera starts recording when the alarm is triggered.
      */
     public boolean toggleAlarmRecordOnCam(String alarmId, String cameraId, boolean on) {
         Alarm alarm = getAlarmById(alarmId);
@@ -496,13 +1066,225 @@ public class HGController {
                     alarmId + ", cam=" + cameraId + ")");
             return false;
         }
+        return toggleAlarmRecordOnCam(alarm, cam, on);
+    }
+
+    public boolean toggleAlarmRecordOnCam(Alarm alarm, SecurityCamera cam, boolean on) {
+        String alarmId = alarm.getDeviceID();
+        String cameraId = cam.getDeviceID();
+
+        updateLink(LinkKind.ALARM_CAMERA, alarm, cam, on);
+        logDeviceActivity(alarm, "Alarm " + alarmId
+                + (on ? " will record on camera " : " no longer records on camera ") + cameraId);
+        return true;
+    }
+
+    /**
+     * Fire an alarm: its precomputed plan starts the linked cameras
+     * recording, then engages the linked locks, one device at a time;
+     * emergency services are notified. Does nothing unless it is armed.
+     */
+    public boolean triggerAlarm(Alarm alarm) {
+        if (!alarm.isArmed()) return false;
+        String alarmId = alarm.getDeviceID();
+        logDeviceActivity(alarm, "Alarm " + alarmId + " TRIGGERED");
+
+        for (int index : links.triggerPlan(alarm)) {
+            Device target = links.device(index);
+            if (target instanceof SecurityCamera) {
+                toggleCameraRecording((SecurityCamera) target, true);
+            } else if (target instanceof SmartLock) {
+                toggleLock((SmartLock) target, true);
+            }
+        }
+        notifyEmergencyServices("Alarm " + alarmId + " (" + alarm.getDeviceName() + ") triggered");
+        return true;
+    }
 
-        logActivity("toggleAlarmRecordOnCam called for alarm=" + alarmId +
-                ", camera=" + cameraId + ", on=" + on +
-                " (link not modeled in Alarm class).");
+    // =====================================================
+    // ==================== DEVICE LINKS ===================
+    // =====================================================
+
+    /**
+     * Link/unlink a light to a motion sensor (MOTION_LIGHT).
+     */
+    public boolean linkMotionToLight(MotionSensor sensor, SmartLight light, boolean linked) {
+        updateLink(LinkKind.MOTION_LIGHT, sensor, light, linked);
+        ReentrantLock lock = light.getCommandLock();
+        lock.lock();
+        try {
+            boolean any = links.sources(LinkKind.MOTION_LIGHT, light).length > 0;
+            if (light.isLinkedToMotion() != any) {
+                light.toggleMotionLink();
+                publishState(light, "linkedToMotion", any);
+            }
+        } finally {
+            lock.unlock();
+        }
+        logDeviceActivity(sensor, "Motion sensor " + sensor.getDeviceID()
+                + (linked ? " linked to light " : " unlinked from light ") + light.getDeviceID());
         return true;
     }
 
+    /**
+     * Link/unlink an alarm to a motion sensor (MOTION_ALARM).
+     */
+    public boolean linkMotionToAlarm(MotionSensor sensor, Alarm alarm, boolean linked) {
+        updateLink(LinkKind.MOTION_ALARM, sensor, alarm, linked);
+        ReentrantLock lock = alarm.getCommandLock();
+        lock.lock();
+        try {
+            boolean any = links.sources(LinkKind.MOTION_ALARM, alarm).length > 0;
+            if (alarm.isLinkedToMotion() != any) {
+                alarm.toggleMotionLink();
+                publishState(alarm, "linkedToMotion", any);
+            }
+        } finally {
+            lock.unlock();
+        }
+        logDeviceActivity(sensor, "Motion sensor " + sensor.getDeviceID()
+                + (linked ? " linked to alarm " : " unlinked from alarm ") + alarm.getDeviceID());
+        return true;
+    }
+
+    private boolean updateLink(LinkKind kind, Device from, Device to, boolean linked) {
+        return linked ? links.link(kind, from, to) : links.unlink(kind, from, to);
+    }
+
+    public DeviceLinks getDeviceLinks() {
+        return links;
+    }
+
+    // =====================================================
+    // ====================== TIMERS =======================
+    // =====================================================
+
+    private static final long MILLIS_PER_MINUTE = 60_000;
+
+    // Timer thread: a light's timeout, a lock's relock duration or a motion
+    // sensor's hold ran out.
+    // Skipped if the device was re-armed or changed since the timer fired.
+    private void deviceTimerExpired(Device device) {
+        ReentrantLock lock = device.getCommandLock();
+        lock.lock();
+        try {
+            if (timers.isArmed(device)) return;
+            if (device instanceof SmartLight) {
+                SmartLight light = (SmartLight) device;
+                if (!light.isOn()) return;
+                light.turnOff();
+                publishState(light, "on", false);
+            } else if (device instanceof SmartLock) {
+                SmartLock smartLock = (SmartLock) device;
+                if (smartLock.isLocked()) return;
+                smartLock.lock();
+                publishState(smartLock, "locked", true);
+            } else if (device instanceof MotionSensor) {
+                if (!((MotionSensor) device).clear()) return;
+                publishState(device, "motionDetected", false);
+            } else {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (device instanceof MotionSensor) {
+            motionCleared((MotionSensor) device);
+        } else if (device instanceof SmartLight) {
+            logDeviceActivity(device, "Light " + device.getDeviceID() + " turned OFF after its "
+                    + ((SmartLight) device).getTimeoutMinutes() + " minute timeout");
+        } else {
+            logDeviceActivity(device, "Lock " + device.getDeviceID() + " relocked after "
+                    + ((SmartLock) device).getLockDurationMinutes() + " minutes unlocked");
+        }
+    }
+
+    /**
+     * Restore light timeouts and lock durations saved in file (after the
+     * devices are registered) and save them there every intervalSeconds,
+     * on a thread of their own, and on close(). Pending timers are not
+     * restored: devices start with lights off and locks locked.
+     */
+    public synchronized void enableTimerSnapshots(Path file, int intervalSeconds) {
+        timerSnapshot = file;
+        try {
+            restoreTimers(DeviceTimers.load(file));
+        } catch (IOException e) {
+            ServerLog.log("[TIMER] Cannot read timer snapshot " + file + ": " + e.getMessage());
+        }
+        if (timerSnapshotWriter != null) timerSnapshotWriter.shutdown();
+        timerSnapshotWriter = null;
+        if (intervalSeconds > 0) {
+            timerSnapshotWriter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "hg-timer-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            timerSnapshotWriter.scheduleWithFixedDelay(this::saveTimers,
+                    intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void restoreTimers(List<DeviceTimers.Entry> entries) {
+        for (DeviceTimers.Entry entry : entries) {
+            Device device = devices.get(entry.deviceId);
+            if (!(device instanceof SmartLight) && !(device instanceof SmartLock)) continue;
+
+            ReentrantLock lock = device.getCommandLock();
+            lock.lock();
+            try {
+                if (device instanceof SmartLight) {
+                    ((SmartLight) device).setTimeoutMinutes(entry.minutes);
+                } else {
+                    ((SmartLock) device).setLockDurationMinutes(entry.minutes);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (!entries.isEmpty()) {
+            logActivity("Restored " + entries.size() + " device timer setting(s).");
+        }
+    }
+
+    /**
+     * Write the timer snapshot now (no-op unless enableTimerSnapshots was called).
+     * Serialised on a lock of its own, so a slow disk never holds up close()
+     * callers waiting on this controller.
+     */
+    public void saveTimers() {
+        synchronized (timerSnapshotLock) {
+            writeTimerSnapshot();
+        }
+    }
+
+    private void writeTimerSnapshot() {
+        Path file = timerSnapshot;
+        if (file == null) return;
+
+        List<DeviceTimers.Entry> entries = new ArrayList<>();
+        for (Device device : devices.all()) {
+            int minutes;
+            if (device instanceof SmartLight) {
+                minutes = ((SmartLight) device).getTimeoutMinutes();
+            } else if (device instanceof SmartLock) {
+                minutes = ((SmartLock) device).getLockDurationMinutes();
+            } else {
+                continue;
+            }
+            if (minutes > 0) entries.add(new DeviceTimers.Entry(device.getDeviceID(), minutes));
+        }
+        try {
+            DeviceTimers.save(file, entries);
+        } catch (IOException e) {
+            ServerLog.log("[TIMER] Cannot save timer snapshot " + file + ": " + e.getMessage());
+        }
+    }
+
+    // Pending light/lock timers (for monitoring)
+    public int getPendingTimers() { return timers.size(); }
+
 //util helper
     private int clamp(int val, int min, int max) {
         return Math.max(min, Math.min(max, val));
@@ -74,6 +74,12 @@ public class HomeAdmin extends User {
         isPrimaryAdmin = primaryAdmin;
     }
 
+    // Admins can access every device
+    @Override
+    public DeviceAccess getDeviceAccess() {
+        return DeviceAccess.ALL;
+    }
+
     @Override
     public String getRole() {
         return "Admin";
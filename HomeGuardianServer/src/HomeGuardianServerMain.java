@@ -1,12 +1,70 @@
+import java.io.IOException;
+import java.nio.file.Paths;
 
 public class HomeGuardianServerMain {
 
     public static void main(String[] args) {
 
-        System.out.println("=== Home Guardian Server Starting ===");
+        //Server diagnostics go through an async, batched writer:
+        //-Dhg.serverLog=console|file|none, -Dhg.serverLogFile=PATH, -Dhg.serverLogQueue=N,
+        //-Dhg.serverLogOverflow=drop_newest|drop_oldest|block, -Dhg.serverLogBlockMs=N
+        //Per-command trace (off by default): -Dhg.traceCommands=true
+        //Commands are refused until LOGIN/RESUME; -Dhg.allowAnonymous=true restores anonymous access
+        LogSink logSink = LogSink.fromString(System.getProperty("hg.serverLog"));
+        String logFile = System.getProperty("hg.serverLogFile", "homeguardian-server.log");
+        try {
+            ServerLog.configure(logSink, Paths.get(logFile),
+                    Integer.getInteger("hg.serverLogQueue", ServerLog.DEFAULT_CAPACITY),
+                    LogOverflowPolicy.fromString(System.getProperty("hg.serverLogOverflow")),
+                    Long.getLong("hg.serverLogBlockMs", 50L));
+        } catch (IOException e) {
+            ServerLog.log("[SETUP] Cannot open server log " + logFile
+                    + " (" + e.getMessage() + "); logging to the console.");
+        }
+
+        ServerLog.log("=== Home Guardian Server Starting ===");
 
         //Create the controller
-        HGController controller = new HGController();
+        //In-memory activity log size: -Dhg.logCapacity=N
+        //Persisted log: -Dhg.logDir=DIR ("none" = memory only), -Dhg.logSegmentMB=N,
+        //               -Dhg.logSegments=N (kept on disk), -Dhg.logFsyncMs=N
+        int logCapacity = Integer.getInteger("hg.logCapacity", HGController.DEFAULT_LOG_CAPACITY);
+        String logDir = System.getProperty("hg.logDir", "activity-logs");
+        ActivityLogStore logStore;
+        if (logDir.isBlank() || logDir.equalsIgnoreCase("none")) {
+            logStore = new ActivityLogStore(logCapacity);
+        } else {
+            try {
+                logStore = new ActivityLogStore(logCapacity, Paths.get(logDir),
+                        Long.getLong("hg.logSegmentMB", 16L) * 1024 * 1024,
+                        Integer.getInteger("hg.logSegments", 64),
+                        Long.getLong("hg.logFsyncMs", 1000L));
+                ServerLog.log("[SETUP] Activity log persisted to " + logDir);
+            } catch (IOException e) {
+                ServerLog.log("[SETUP] Cannot open activity log in " + logDir
+                        + " (" + e.getMessage() + "); keeping logs in memory only.");
+                logStore = new ActivityLogStore(logCapacity);
+            }
+        }
+        HGController controller = new HGController(logStore);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            controller.close();
+            ServerLog.shutdown();
+        }, "hg-log-shutdown"));
+
+        //Notification delivery: -Dhg.notifyFile=PATH (default: server log),
+        //-Dhg.notifyThreads=N, -Dhg.notifyLingerMs=N (batching window)
+        String notifyFile = System.getProperty("hg.notifyFile");
+        NotificationTransport notifyTransport = (notifyFile == null || notifyFile.isBlank())
+                ? new LogNotificationTransport()
+                : new FileNotificationTransport(Paths.get(notifyFile));
+        controller.setNotificationDispatcher(new NotificationDispatcher(notifyTransport,
+                Integer.getInteger("hg.notifyThreads", NotificationDispatcher.DEFAULT_THREADS),
+                Long.getLong("hg.notifyLingerMs", NotificationDispatcher.DEFAULT_LINGER_MILLIS)));
+
+        //Login sessions (RESUME): -Dhg.sessionTtlMinutes=N idle minutes before a token expires
+        controller.getSessions().setTtlMillis(Long.getLong("hg.sessionTtlMinutes",
+                SessionTable.DEFAULT_TTL_MILLIS / 60_000) * 60_000);
 
         //Create and register devices
         //Match constructors
@@ -14,13 +72,27 @@ public class HomeGuardianServerMain {
         SmartLock doorLock     = new SmartLock(1, "Front Door Lock");
         Alarm alarm            = new Alarm(1, "Home Alarm");
         SecurityCamera camera  = new SecurityCamera(1, "Door Camera");
+        MotionSensor hallMotion = new MotionSensor(1, "Hallway Motion Sensor");
+
+        //MOTION_EVENT filtering: -Dhg.motionDebounceMs=N, -Dhg.motionHoldMs=N (no motion before it clears)
+        hallMotion.setWindows(Long.getLong("hg.motionDebounceMs", MotionSensor.DEFAULT_DEBOUNCE_MILLIS),
+                Long.getLong("hg.motionHoldMs", MotionSensor.DEFAULT_HOLD_MILLIS));
 
         controller.addDevice(livingLight);
         controller.addDevice(doorLock);
         controller.addDevice(alarm);
         controller.addDevice(camera);
+        controller.addDevice(hallMotion);
+        controller.linkMotionToLight(hallMotion, livingLight, true);
+
+        ServerLog.log("[SETUP] All devices registered.");
 
-        System.out.println("[SETUP] All devices registered.");
+        //Light timeouts / lock durations, restored on restart (pending timers are not):
+        //-Dhg.timerFile=PATH ("none" = not saved), -Dhg.timerSnapshotSec=N (save interval)
+        String timerFile = System.getProperty("hg.timerFile", "device-timers.txt");
+        if (!timerFile.isBlank() && !timerFile.equalsIgnoreCase("none")) {
+            controller.enableTimerSnapshots(Paths.get(timerFile), Integer.getInteger("hg.timerSnapshotSec", 30));
+        }
 
         //Create and register users
         HomeAdmin admin = new HomeAdmin(
@@ -32,15 +104,46 @@ public class HomeGuardianServerMain {
         admin.signup(controller);
         guest.signup(controller);
 
-        System.out.println("[SETUP] Users registered.");
+        ServerLog.log("[SETUP] Users registered.");
 
         //Start the server
         int PORT = 12345;
         Server server = new Server(PORT, controller);
 
-        System.out.println("[SERVER] Starting server on port " + PORT + "...");
+        //Pick the transport: -Dhg.transport=nio (default: blocking)
+        ServerTransport transport = ServerTransport.fromString(System.getProperty("hg.transport"));
+        server.setTransport(transport);
+        server.setEventLoopThreads(Integer.getInteger("hg.eventLoops", server.getEventLoopThreads()));
+        //NIO commands run on a worker pool, not the event loops: -Dhg.nioWorkers=N
+        server.setNioWorkerThreads(Integer.getInteger("hg.nioWorkers", server.getNioWorkerThreads()));
+
+        //Blocking transport: -Dhg.execution=thread|virtual|pool, -Dhg.poolSize=N (pool threads
+        //when hg.maxConnections is 0; otherwise the pool has hg.maxConnections threads)
+        server.setExecutionMode(ClientExecutionMode.fromString(System.getProperty("hg.execution")));
+        server.setClientPoolSize(Integer.getInteger("hg.poolSize", server.getClientPoolSize()));
+
+        //Connection cap with backpressure: -Dhg.maxConnections=N (0 = unlimited)
+        server.setMaxConnections(Integer.getInteger("hg.maxConnections", 0));
+
+        //Per-client outbound queue: -Dhg.outboundQueue=N, -Dhg.slowConsumer=drop_oldest|disconnect|block
+        server.setOutboundQueueCapacity(Integer.getInteger("hg.outboundQueue", server.getOutboundQueueCapacity()));
+        server.setSlowConsumerPolicy(SlowConsumerPolicy.fromString(System.getProperty("hg.slowConsumer")),
+                Long.getLong("hg.slowConsumerTimeoutMs", 2000L));
+
+        //Tagged (pipelined) requests on a command pool: -Dhg.commandThreads=N (0 = in order, on the reading thread)
+        server.setCommandThreads(Integer.getInteger("hg.commandThreads", 0));
+
+        //Priority lanes: alarm/lock/camera-recording commands run on reserved threads (tagged ones in order
+        //per device, untagged NIO ones ahead of the shared worker queue), -Dhg.criticalThreads=N
+        //(default Server.DEFAULT_CRITICAL_THREADS; 0 = no reservation), -Dhg.criticalTargetMs=N (latency target),
+        //-Dhg.latencyReportSec=N (periodic latency summary in the server log; 0 = only on close)
+        server.setCriticalThreads(Integer.getInteger("hg.criticalThreads", Server.DEFAULT_CRITICAL_THREADS));
+        server.setCriticalLatencyTarget(Long.getLong("hg.criticalTargetMs", Server.DEFAULT_CRITICAL_TARGET_MILLIS));
+        server.setLatencyReportSeconds(Integer.getInteger("hg.latencyReportSec", 0));
+
+        ServerLog.log("[SERVER] Starting server on port " + PORT + " (" + transport + " transport)...");
         server.startServer();
 
-        System.out.println("=== Home Guardian Server is now running ===");
+        ServerLog.log("=== Home Guardian Server is now running ===");
     }
 }
@@ -1,14 +1,15 @@
 
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class HomeGuest extends User {
 
     // -------------------------
     // ATTRIBUTES
     // -------------------------
-    private final List<Device> accessibleDevices; // Devices this guest can use
+    private final CopyOnWriteArrayList<Device> accessibleDevices; // Devices this guest can use
+    private final DeviceAccess access = new DeviceAccess();      // Same set as a bitset (checks)
     private String guestLockPasscode;            // Optional passcode for SmartLocks
 
     // -------------------------
@@ -16,7 +17,7 @@ public class HomeGuest extends User {
     // -------------------------
     public HomeGuest(String name, String username, String email, String passwordHash) {
         super(name, username, email, passwordHash);
-        this.accessibleDevices = new ArrayList<>();
+        this.accessibleDevices = new CopyOnWriteArrayList<>();
     }
 
     // -------------------------
@@ -32,14 +33,17 @@ public class HomeGuest extends User {
         }
     }
 
-    public void addAccessibleDevice(Device device) {
-        if (!accessibleDevices.contains(device)) {
-            accessibleDevices.add(device);
+    // The list and the bitset change together; each change flips one bit
+    public synchronized void addAccessibleDevice(Device device) {
+        if (device != null && accessibleDevices.addIfAbsent(device)) {
+            access.grant(device);
         }
     }
 
-    public void removeAccessibleDevice(Device device) {
-        accessibleDevices.remove(device);
+    public synchronized void removeAccessibleDevice(Device device) {
+        if (device != null && accessibleDevices.remove(device)) {
+            access.revoke(device);
+        }
     }
 
     public void setGuestLockPasscode(String passcode) {
@@ -57,6 +61,12 @@ public class HomeGuest extends User {
         return guestLockPasscode;
     }
 
+    // Guests only see devices an admin assigned to them
+    @Override
+    public DeviceAccess getDeviceAccess() {
+        return access;
+    }
+
     @Override
     public String getRole() {
         return "Guest";
@@ -0,0 +1,111 @@
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class: LatencyRecorder
+ *
+ * Description:
+ * Lock-free latency histogram for one class of operation (e.g. CRITICAL
+ * commands from receipt to reply). Buckets are powers of two of
+ * microseconds, so recording is a few atomic adds and percentiles are
+ * accurate to within a factor of two, enough to show whether a latency
+ * target is met under load.
+ *
+ * Samples above the target are also counted exactly.
+ */
+public final class LatencyRecorder {
+
+    private static final int BUCKETS = 40;            // 2^39 us is ~6 days
+
+    private final String name;
+    private final long targetNanos;                    // 0 = no target
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder overTarget = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param targetMillis Latency target to count misses against (0 = none)
+     */
+    public LatencyRecorder(String name, long targetMillis) {
+        this.name = name;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, targetMillis));
+    }
+
+    /**
+     * Record one operation that started at startNanos (System.nanoTime())
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long micros = nanos / 1000;
+        int bucket = (micros == 0) ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        if (targetNanos > 0 && nanos > targetNanos) overTarget.increment();
+
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // Retry until we store the new maximum or someone stores a larger one
+        }
+    }
+
+    public long count() { return count.sum(); }
+    public long overTargetCount() { return overTarget.sum(); }
+    public long maxNanos() { return maxNanos.get(); }
+
+    public long meanNanos() {
+        long n = count.sum();
+        return (n == 0) ? 0 : totalNanos.sum() / n;
+    }
+
+    /**
+     * @param fraction e.g. 0.99
+     * @return upper bound of the bucket holding that percentile, in nanoseconds
+     */
+    public long percentileNanos(double fraction) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return 0;
+
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min((1L << i) * 1000, maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    /**
+     * One-line summary, e.g. "CRITICAL commands: n=120 p50=0.06ms ..."
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder(name).append(": n=").append(count());
+        sb.append(" mean=").append(millis(meanNanos()))
+          .append(" p50=").append(millis(percentileNanos(0.50)))
+          .append(" p99=").append(millis(percentileNanos(0.99)))
+          .append(" p99.9=").append(millis(percentileNanos(0.999)))
+          .append(" max=").append(millis(maxNanos()));
+        if (targetNanos > 0) {
+            sb.append(" over ").append(millis(targetNanos)).append('=').append(overTargetCount());
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2fms", nanos / 1_000_000.0);
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Class: LinkKind
+ *
+ * Description:
+ * Kinds of edge in HGController's device link graph (DeviceLinks), each
+ * from a triggering device to the device it acts on.
+ *
+ *  - MOTION_LIGHT:  motion turns the light on (and holds its timeout)
+ *  - MOTION_ALARM:  motion arms the alarm
+ *  - ALARM_CAMERA:  a triggered alarm starts the camera recording
+ *  - ALARM_LOCK:    a triggered alarm engages the lock
+ */
+public enum LinkKind {
+    MOTION_LIGHT,
+    MOTION_ALARM,
+    ALARM_CAMERA,
+    ALARM_LOCK;
+
+    /**
+     * Parses a link kind name (case-insensitive).
+     * @return null if the name is unknown
+     */
+    public static LinkKind fromString(String value) {
+        if (value == null) return null;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.List;
+
+/**
+ * Class: ListCommandArgs
+ *
+ * Description:
+ * CommandArgs over the legacy ArrayList protocol. Values are cast the same
+ * way Server always has, so a wrongly typed argument still fails with a
+ * ClassCastException that the command handler reports as "ERROR".
+ */
+public class ListCommandArgs implements CommandArgs {
+
+    private final List<?> list;
+    private final String command;
+    private final int requestId;
+
+    public ListCommandArgs(List<?> list) {
+        this(list, ((String) list.get(0)).toUpperCase());
+    }
+
+    /**
+     * @param command The command name already resolved by CommandRegistry
+     */
+    public ListCommandArgs(List<?> list, String command) {
+        this(list, command, WireProtocol.NO_REQUEST_ID);
+    }
+
+    /**
+     * @param requestId Correlation id from a ["REQ", id, command] envelope
+     */
+    public ListCommandArgs(List<?> list, String command, int requestId) {
+        this.list = list;
+        this.command = command;
+        this.requestId = requestId;
+    }
+
+    @Override
+    public String command() { return command; }
+
+    @Override
+    public int size() { return list.size(); }
+
+    @Override
+    public int requestId() { return requestId; }
+
+    @Override
+    public int getInt(int index) { return (int) list.get(index); }
+
+    @Override
+    public long getLong(int index) { return ((Number) list.get(index)).longValue(); } // Integer or Long
+
+    @Override
+    public boolean getBoolean(int index) { return (boolean) list.get(index); }
+
+    @Override
+    public String getString(int index) { return String.valueOf(list.get(index)); }
+
+    @Override
+    public List<?> getList(int index) { return (List<?>) list.get(index); }
+
+    @Override
+    public String toString() { return String.valueOf(list); }
+}
@@ -0,0 +1,243 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class: LogIndex
+ *
+ * Description:
+ * Secondary indexes over the activity log, kept up to date by
+ * ActivityLogStore's tail thread as entries are spilled:
+ *
+ *  - byDevice: device ID -> ascending sequences of that device's entries
+ *  - byUser:   username  -> ascending sequences of entries attributed to it
+ *  - time:     minute bucket -> first sequence stamped in that minute
+ *
+ * Lists are append-only with a single writer and are read without locks,
+ * so "lock1 between 2am and 3am" is two binary searches on the time index
+ * plus one on lock1's list, then only the matching entries are fetched.
+ * Entries that have left the log (overwritten in memory or deleted from
+ * disk) are pruned from the front of every list.
+ */
+final class LogIndex {
+
+    /** Width of one time bucket */
+    static final long BUCKET_MILLIS = 60_000;
+
+    private final Map<String, SequenceList> byDevice = new ConcurrentHashMap<>();
+    private final Map<String, SequenceList> byUser = new ConcurrentHashMap<>();
+    private final SequenceList bucketKeys = new SequenceList();    // Minute numbers, ascending
+    private final SequenceList bucketStarts = new SequenceList();  // First sequence of each minute
+    private long lastBucket = Long.MIN_VALUE;                      // Writer only
+    private volatile long indexedUpTo;                             // Next sequence to index
+
+    LogIndex(long firstSequence) {
+        this.indexedUpTo = firstSequence;
+    }
+
+    // =====================================================
+    // ================ WRITER (tail thread) ===============
+    // =====================================================
+
+    /**
+     * Index one entry. Entries must arrive in ascending sequence order.
+     */
+    void add(ActivityLog log) {
+        long sequence = log.getSequence();
+        if (log.getDeviceId() != null) {
+            byDevice.computeIfAbsent(log.getDeviceId(), id -> new SequenceList()).add(sequence);
+        }
+        if (log.getUsername() != null) {
+            byUser.computeIfAbsent(log.getUsername(), name -> new SequenceList()).add(sequence);
+        }
+
+        long bucket = Math.floorDiv(log.getTimestamp(), BUCKET_MILLIS);
+        if (bucket > lastBucket) { // Timestamps may run slightly backwards; keep keys ascending
+            bucketKeys.add(bucket);
+            bucketStarts.add(sequence);
+            lastBucket = bucket;
+        }
+        indexedUpTo = sequence + 1;
+    }
+
+    /**
+     * Mark sequences up to (excluding) the given one as processed, e.g.
+     * entries that were lost before they could be indexed.
+     */
+    void skipTo(long sequence) {
+        if (sequence > indexedUpTo) indexedUpTo = sequence;
+    }
+
+    /**
+     * Drop every reference to sequences below the oldest retained one.
+     */
+    void pruneBelow(long oldestSequence) {
+        pruneMap(byDevice, oldestSequence);
+        pruneMap(byUser, oldestSequence);
+
+        // Keep the bucket that contains oldestSequence: it still starts a range
+        int keep = bucketStarts.lowerBound(oldestSequence + 1) - 1;
+        if (keep > bucketStarts.start()) {
+            long cutKey = bucketKeys.get(keep);
+            bucketStarts.pruneBelow(bucketStarts.get(keep));
+            bucketKeys.pruneBelow(cutKey);
+        }
+    }
+
+    private static void pruneMap(Map<String, SequenceList> map, long oldestSequence) {
+        Iterator<SequenceList> lists = map.values().iterator();
+        while (lists.hasNext()) {
+            SequenceList list = lists.next();
+            list.pruneBelow(oldestSequence);
+            if (list.isEmpty()) lists.remove(); // Re-created on the next entry
+        }
+    }
+
+    // =====================================================
+    // ====================== READERS ======================
+    // =====================================================
+
+    /**
+     * @return the first sequence not yet indexed; newer entries are only in
+     *         the ring and must be scanned
+     */
+    long indexedUpTo() {
+        return indexedUpTo;
+    }
+
+    /**
+     * @return the sequence list for a device ID (null if it has no entries)
+     */
+    SequenceList forDevice(String deviceId) {
+        return byDevice.get(deviceId);
+    }
+
+    /**
+     * @return the sequence list for a username (null if it has no entries)
+     */
+    SequenceList forUser(String username) {
+        return byUser.get(username);
+    }
+
+    /**
+     * @return a sequence at or before the first entry stamped at or after
+     *         the given time (allowing for skewMillis of disorder)
+     */
+    long firstSequenceFrom(long fromMillis, long skewMillis) {
+        long bucket = Math.floorDiv(fromMillis - skewMillis, BUCKET_MILLIS);
+        int i = bucketKeys.lowerBound(bucket + 1) - 1; // Last bucket <= target
+        return (i >= bucketKeys.start() && i < bucketStarts.end()) ? bucketStarts.get(i) : 0;
+    }
+
+    /**
+     * @return a sequence after the last entry stamped at or before the
+     *         given time (allowing for skewMillis of disorder)
+     */
+    long endSequenceAfter(long toMillis, long skewMillis) {
+        long bucket = Math.floorDiv(toMillis + skewMillis, BUCKET_MILLIS);
+        int i = bucketKeys.lowerBound(bucket + 1);     // First bucket > target
+        return (i < Math.min(bucketKeys.end(), bucketStarts.end())) ? bucketStarts.get(i) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Append-only ascending list of longs with a single writer. Readers see
+     * a consistent prefix without locking: the block is published before
+     * the end index that covers it, and pruning swaps in a new block whose
+     * base is the first logical index it still holds.
+     */
+    static final class SequenceList {
+
+        private static final class Block {
+            final long[] values;
+            final int base;   // Logical index of values[0]
+
+            Block(long[] values, int base) {
+                this.values = values;
+                this.base = base;
+            }
+        }
+
+        private volatile Block block = new Block(new long[8], 0);
+        private volatile int end;   // Logical index after the last value
+
+        // ---- WRITER ----
+
+        void add(long value) {
+            Block b = block;
+            int n = end;
+            int slot = n - b.base;
+            if (slot == b.values.length) {
+                b = new Block(Arrays.copyOf(b.values, slot * 2), b.base);
+                block = b;
+            }
+            b.values[slot] = value;
+            end = n + 1;
+        }
+
+        void pruneBelow(long value) {
+            Block b = block;
+            int n = end;
+            int cut = lowerBound(b, n, value);
+            if (cut == b.base) return;
+            int live = n - cut;
+            long[] kept = new long[Math.max(8, Integer.highestOneBit(Math.max(1, live)) * 2)];
+            System.arraycopy(b.values, cut - b.base, kept, 0, live);
+            block = new Block(kept, cut);
+        }
+
+        // ---- READERS ----
+
+        boolean isEmpty() {
+            return end == block.base;
+        }
+
+        int start() {
+            return block.base;
+        }
+
+        int end() {
+            return end;
+        }
+
+        long get(int index) {
+            Block b = block;
+            return b.values[Math.max(index, b.base) - b.base];
+        }
+
+        /**
+         * @return the first logical index whose value is >= the given one
+         */
+        int lowerBound(long value) {
+            int n = end;
+            return lowerBound(block, n, value);
+        }
+
+        private static int lowerBound(Block b, int end, long value) {
+            int lo = b.base, hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (b.values[mid - b.base] < value) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * @return up to limit values in [from, to): the lowest ones
+         *         ascending, or the highest ones descending if newestFirst
+         */
+        long[] select(long from, long to, int limit, boolean newestFirst) {
+            int n = end;
+            Block b = block;
+            int lo = lowerBound(b, n, from);
+            int hi = lowerBound(b, n, to);
+            int count = Math.max(0, Math.min(limit, hi - lo));
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = b.values[(newestFirst ? hi - 1 - i : lo + i) - b.base];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+import java.util.List;
+
+/**
+ * Class: LogNotificationTransport
+ *
+ * Description:
+ * Default NotificationTransport: writes each batch to ServerLog as one
+ * "--- ALERT SENT ---" entry, like Notification.sendAlert() does for a
+ * single alert. Never fails, so nothing is retried.
+ */
+public class LogNotificationTransport implements NotificationTransport {
+
+    @Override
+    public void deliver(String recipient, List<Notification> batch) {
+        String nl = System.lineSeparator();
+        StringBuilder sb = new StringBuilder(128 * batch.size());
+        sb.append("--- ALERT SENT (").append(batch.size()).append(") ---").append(nl);
+        sb.append("To: ").append(recipient)
+          .append(" | Email: ").append(batch.get(0).getEmail()).append(nl);
+        for (Notification n : batch) {
+            sb.append(n.getTimestampFormatted()).append("  ").append(n.getMessage());
+            if (n.getRepeatCount() > 1) sb.append("  (x").append(n.getRepeatCount()).append(')');
+            sb.append(nl);
+        }
+        sb.append("------------------");
+        ServerLog.log(sb.toString());
+    }
+}
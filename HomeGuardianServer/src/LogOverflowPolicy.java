@@ -0,0 +1,31 @@
+/**
+ * Class: LogOverflowPolicy
+ *
+ * Description:
+ * What ServerLog does when its queue is full because the sink cannot keep
+ * up (e.g. a console piped into a slow terminal).
+ *
+ *  - DROP_NEWEST: discard the line being logged (the caller never waits).
+ *  - DROP_OLDEST: discard the oldest queued line to make room.
+ *  - BLOCK:       make the caller wait up to the configured timeout for
+ *                 room, then discard the line.
+ *
+ * Dropped lines are counted, and the count is reported by the writer.
+ */
+public enum LogOverflowPolicy {
+    DROP_NEWEST,
+    DROP_OLDEST,
+    BLOCK;
+
+    /**
+     * Parses a policy name (case-insensitive), falling back to DROP_NEWEST.
+     */
+    public static LogOverflowPolicy fromString(String value) {
+        if (value == null) return DROP_NEWEST;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return DROP_NEWEST;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.function.Predicate;
+
+/**
+ * Class: LogQuery
+ *
+ * Description:
+ * Filter for paged activity log reads (GET_LOGS_PAGE): a time range plus
+ * an optional device ID and username. Unset bounds and blank filters
+ * match everything. visibleOnly() adds what the reader may see, so the
+ * index narrows the scan and entries outside the caller's access are
+ * never returned.
+ */
+public final class LogQuery implements Predicate<ActivityLog> {
+
+    /**
+     * How far timestamps may run out of sequence order (an entry is stamped
+     * before it is appended), used when bounding a range by the time index.
+     */
+    static final long CLOCK_SKEW_MILLIS = 1000;
+
+    private final long fromMillis;
+    private final long toMillis;
+    private final String deviceId;
+    private final String username;
+    private final Predicate<ActivityLog> visible; // null = every entry
+
+    /**
+     * @param fromMillis Earliest timestamp, inclusive (0 = no lower bound)
+     * @param toMillis   Latest timestamp, inclusive (0 = no upper bound)
+     * @param deviceId   Only entries from this device (null/blank = any)
+     * @param username   Only entries attributed to this user (null/blank = any)
+     */
+    public LogQuery(long fromMillis, long toMillis, String deviceId, String username) {
+        this.fromMillis = Math.max(0, fromMillis);
+        this.toMillis = (toMillis > 0) ? toMillis : Long.MAX_VALUE;
+        this.deviceId = blankToNull(deviceId);
+        this.username = blankToNull(username);
+        this.visible = null;
+    }
+
+    private LogQuery(LogQuery query, Predicate<ActivityLog> visible) {
+        this.fromMillis = query.fromMillis;
+        this.toMillis = query.toMillis;
+        this.deviceId = query.deviceId;
+        this.username = query.username;
+        this.visible = visible;
+    }
+
+    /**
+     * @param visible Entries the reader may see (null = all)
+     * @return this query, further limited to visible entries
+     */
+    public LogQuery visibleOnly(Predicate<ActivityLog> visible) {
+        return (visible == null) ? this : new LogQuery(this, (this.visible == null) ? visible : this.visible.and(visible));
+    }
+
+    public long fromMillis() { return fromMillis; }
+    public long toMillis() { return toMillis; }
+    public String deviceId() { return deviceId; }
+    public String username() { return username; }
+
+    /**
+     * @return true if the query names a device or user, so candidates can
+     *         be taken from that key's index list
+     */
+    public boolean isKeyed() {
+        return deviceId != null || username != null;
+    }
+
+    /**
+     * @return the time after which a forward read can stop: no later entry
+     *         can still fall inside the range
+     */
+    public long stopAfterMillis() {
+        return (toMillis == Long.MAX_VALUE) ? Long.MAX_VALUE : toMillis + CLOCK_SKEW_MILLIS;
+    }
+
+    @Override
+    public boolean test(ActivityLog log) {
+        long time = log.getTimestamp();
+        if (time < fromMillis || time > toMillis) return false;
+        if (deviceId != null && !deviceId.equals(log.getDeviceId())) return false;
+        if (username != null && !username.equals(log.getUsername())) return false;
+        return visible == null || visible.test(log);
+    }
+
+    private static String blankToNull(String value) {
+        return (value == null || value.isBlank()) ? null : value;
+    }
+}
@@ -0,0 +1,467 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Class: LogSegments
+ *
+ * Description:
+ * Append-only activity log on disk, split into segment files named after
+ * the sequence of their first entry (segment-<20 digit sequence>.log).
+ *
+ *   File:    [int32 MAGIC "HGL1"] record*
+ *   Record:  [int32 payload length][int32 CRC32 of payload][payload]
+ *   Payload: [int64 sequence][int64 timestamp millis]
+ *            [str deviceId][str device][str activity][str username]
+ *   str:     [int32 UTF-8 length, -1 for null][bytes]
+ *
+ * Fields after activity are optional: a reader stops at the payload
+ * length, so records written before a field existed still decode. A
+ * string longer than MAX_FIELD_BYTES is cut at a character boundary, so
+ * every entry fits in one record and a batch is never cut short; only the
+ * copy on disk is shortened.
+ *
+ *  - Written by a single thread (ActivityLogStore's spill thread) through
+ *    a FileChannel and a reusable direct buffer. force() is separate from
+ *    append() so the caller decides how often to fsync.
+ *  - A segment is sealed and a new one started once it reaches the
+ *    configured size; the oldest segments are deleted beyond maxSegments.
+ *  - Each segment keeps an offset per record, so read(sequence) is a
+ *    floor lookup plus one decode from a read-only mapping (sealed
+ *    segments are mapped once, the active one as it grows). History is
+ *    read off-heap instead of being loaded into memory.
+ *  - On open, the newest segment is scanned and truncated after its last
+ *    complete record, discarding a torn write from a crash.
+ */
+final class LogSegments {
+
+    static final int MAGIC = 0x48474C31;         // "HGL1"
+    private static final int FILE_HEADER = 4;
+    private static final int RECORD_HEADER = 8;
+    private static final int MIN_PAYLOAD = 8 + 8 + 4 + 4 + 4;
+    private static final int MAX_PAYLOAD = 1 << 20;
+    private static final int MAX_FIELD_BYTES = (MAX_PAYLOAD - MIN_PAYLOAD - 4) / 4; // Four strings always fit
+
+    private static final class Segment {
+        final long firstSequence;
+        final Path path;
+        volatile long committedBytes;            // Length covered by complete records
+        volatile boolean sealed;
+        final OffsetTable offsets = new OffsetTable();
+        private MappedByteBuffer mapped;         // Cached read mapping; guarded by this
+
+        Segment(long firstSequence, Path path) {
+            this.firstSequence = firstSequence;
+            this.path = path;
+        }
+    }
+
+    /**
+     * File offset of each record, indexed by (sequence - firstSequence);
+     * -1 marks a sequence that was never written. Single writer, lock-free
+     * readers: the array is published before the size that covers it.
+     */
+    private static final class OffsetTable {
+        private volatile int[] offsets = new int[256];
+        private volatile int size;
+
+        void set(long index, int offset) {
+            int i = (int) index;
+            int[] a = offsets;
+            if (i >= a.length) {
+                a = Arrays.copyOf(a, Math.max(i + 1, a.length * 2));
+                offsets = a;
+            }
+            for (int gap = size; gap < i; gap++) a[gap] = -1;
+            a[i] = offset;
+            size = i + 1;
+        }
+
+        int get(long index) {
+            int n = size;
+            return (index >= 0 && index < n) ? offsets[(int) index] : -1;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // ---- WRITER STATE (spill thread only) ----
+    private Segment active;
+    private FileChannel activeChannel;
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private long nextSequence;
+    private boolean dirty;
+
+    /**
+     * Opens (or creates) the log in the given directory, recovers the
+     * newest segment and replays every entry on disk, oldest first.
+     * @param segmentBytes Size at which a segment is sealed
+     * @param maxSegments  Segments kept on disk; older ones are deleted
+     * @param replay       Receives each existing entry (e.g. to rebuild indexes)
+     */
+    LogSegments(Path directory, long segmentBytes, int maxSegments,
+                Consumer<ActivityLog> replay) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = Math.min(1L << 30,
+                Math.max(FILE_HEADER + RECORD_HEADER + MIN_PAYLOAD, segmentBytes));
+        this.maxSegments = Math.max(2, maxSegments);
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path file : files) {
+                long first = parseFirstSequence(file);
+                if (first < 0) continue;
+                Segment segment = new Segment(first, file);
+                segment.committedBytes = Files.size(file);
+                segment.sealed = true;
+                segments.put(first, segment);
+            }
+        }
+
+        Map.Entry<Long, Segment> newest = segments.lastEntry();
+        if (newest != null) {
+            nextSequence = recover(newest.getValue());
+        }
+        for (Segment segment : segments.values()) {
+            load(segment, replay);
+        }
+    }
+
+    /**
+     * @return the sequence following the last entry on disk (0 if empty)
+     */
+    long nextSequence() {
+        return nextSequence;
+    }
+
+    // =====================================================
+    // ======================= WRITE =======================
+    // =====================================================
+
+    /**
+     * Append entries in sequence order. Not forced to disk until force().
+     */
+    void append(List<ActivityLog> batch) throws IOException {
+        for (ActivityLog log : batch) {
+            if (active == null
+                    || active.committedBytes + writeBuffer.position() >= segmentBytes) {
+                roll(log.getSequence());
+            }
+            writeRecord(log);
+            nextSequence = log.getSequence() + 1;
+        }
+        flushBuffer();
+    }
+
+    /**
+     * fsync the active segment if anything was written since the last call
+     */
+    void force() throws IOException {
+        if (dirty && activeChannel != null) {
+            activeChannel.force(false);
+            dirty = false;
+        }
+    }
+
+    void close() throws IOException {
+        if (activeChannel != null) {
+            flushBuffer();
+            force();
+            activeChannel.close();
+            activeChannel = null;
+            active.sealed = true;
+        }
+    }
+
+    private void writeRecord(ActivityLog log) throws IOException {
+        byte[] deviceId = capped(utf8(log.getDeviceId()));
+        byte[] device = capped(utf8(log.getDevice()));
+        byte[] activity = capped(utf8(log.getActivity()));
+        byte[] username = capped(utf8(log.getUsername()));
+        int payload = MIN_PAYLOAD + 4
+                + length(deviceId) + length(device) + length(activity) + length(username);
+
+        int needed = RECORD_HEADER + payload;
+        if (writeBuffer.remaining() < needed) {
+            flushBuffer();
+            if (writeBuffer.capacity() < needed) {
+                writeBuffer = ByteBuffer.allocateDirect(needed);
+            }
+        }
+
+        int start = writeBuffer.position();
+        active.offsets.set(log.getSequence() - active.firstSequence,
+                (int) (active.committedBytes + start)); // Readable once committed
+        writeBuffer.putInt(payload).putInt(0); // CRC patched below
+        writeBuffer.putLong(log.getSequence()).putLong(log.getTimestamp());
+        putString(deviceId);
+        putString(device);
+        putString(activity);
+        putString(username);
+
+        ByteBuffer body = writeBuffer.duplicate();
+        body.position(start + RECORD_HEADER).limit(start + needed);
+        crc.reset();
+        crc.update(body);
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void putString(byte[] bytes) {
+        if (bytes == null) {
+            writeBuffer.putInt(-1);
+        } else {
+            writeBuffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writeBuffer.position() == 0) return;
+        writeBuffer.flip();
+        long written = 0;
+        while (writeBuffer.hasRemaining()) {
+            written += activeChannel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+        // Records are only ever appended, so committing the new length is
+        // what makes their offsets readable
+        active.committedBytes += written;
+        dirty = true;
+    }
+
+    private void roll(long firstSequence) throws IOException {
+        if (active != null) {
+            close();
+        }
+
+        Path file = directory.resolve(String.format("segment-%020d.log", firstSequence));
+        activeChannel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(MAGIC);
+        header.flip();
+        while (header.hasRemaining()) activeChannel.write(header);
+
+        active = new Segment(firstSequence, file);
+        active.committedBytes = FILE_HEADER;
+        dirty = true;
+        segments.put(firstSequence, active);
+
+        while (segments.size() > maxSegments) {
+            Map.Entry<Long, Segment> oldest = segments.pollFirstEntry();
+            Files.deleteIfExists(oldest.getValue().path);
+        }
+    }
+
+    /**
+     * Truncate the newest segment after its last valid record and reopen it
+     * for appending.
+     * @return the sequence following the last recovered entry
+     */
+    private long recover(Segment segment) throws IOException {
+        FileChannel channel = FileChannel.open(segment.path,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long valid = 0;
+        long next = segment.firstSequence;
+
+        if (size >= FILE_HEADER) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) == MAGIC) {
+                int pos = FILE_HEADER;
+                while (true) {
+                    int end = validRecordEnd(buffer, pos);
+                    if (end < 0) break;
+                    next = buffer.getLong(pos + RECORD_HEADER) + 1;
+                    pos = end;
+                }
+                valid = pos;
+            }
+        }
+
+        if (valid == 0) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(MAGIC);
+            header.flip();
+            while (header.hasRemaining()) channel.write(header, FILE_HEADER - header.remaining());
+            valid = FILE_HEADER;
+        } else if (valid < size) {
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+
+        segment.committedBytes = valid;
+        segment.sealed = false;
+        active = segment;
+        activeChannel = channel;
+        return next;
+    }
+
+    // =====================================================
+    // ======================= READ ========================
+    // =====================================================
+
+    /**
+     * @return the sequence of the oldest entry still on disk, or -1 if none
+     */
+    long oldestSequence() {
+        Map.Entry<Long, Segment> oldest = segments.firstEntry();
+        return (oldest != null) ? oldest.getKey() : -1;
+    }
+
+    /**
+     * @return the entry with this sequence, or null if it is not on disk
+     *         (not yet spilled, lost, or deleted by retention)
+     */
+    ActivityLog read(long sequence) {
+        Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+        if (entry == null) return null;
+        Segment segment = entry.getValue();
+
+        int offset = segment.offsets.get(sequence - segment.firstSequence);
+        if (offset < 0 || offset + RECORD_HEADER > segment.committedBytes) return null;
+
+        ByteBuffer buffer = map(segment, offset + RECORD_HEADER);
+        if (buffer == null) return null;
+        int end = offset + RECORD_HEADER + buffer.getInt(offset);
+        if (end > buffer.limit()) {
+            buffer = map(segment, end);
+            if (buffer == null) return null;
+        }
+        end = recordEnd(buffer, offset);
+        return (end < 0) ? null : decode(buffer, offset + RECORD_HEADER, end);
+    }
+
+    /**
+     * @return a read-only mapping covering at least minLength bytes, or
+     *         null if the segment is gone. Sealed segments are mapped once;
+     *         the active one is remapped as it grows.
+     */
+    private ByteBuffer map(Segment segment, long minLength) {
+        synchronized (segment) {
+            if (segment.mapped == null || segment.mapped.limit() < minLength) {
+                if (segment.committedBytes < minLength) return null;
+                try {
+                    segment.mapped = mapReadOnly(segment.path, segment.committedBytes);
+                } catch (IOException e) {
+                    return null; // Deleted by retention while we were reading
+                }
+            }
+            return segment.mapped;
+        }
+    }
+
+    private static MappedByteBuffer mapReadOnly(Path path, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, channel.size()));
+        }
+    }
+
+    /**
+     * Rebuild the offset table of a segment and hand every entry to the
+     * replay consumer (used once, on open).
+     */
+    private void load(Segment segment, Consumer<ActivityLog> replay) throws IOException {
+        if (segment.committedBytes <= FILE_HEADER) return;
+        ByteBuffer buffer = mapReadOnly(segment.path, segment.committedBytes);
+        if (buffer.getInt(0) != MAGIC) return;
+
+        int pos = FILE_HEADER;
+        while (true) {
+            int end = recordEnd(buffer, pos);
+            if (end < 0) break;
+            ActivityLog log = decode(buffer, pos + RECORD_HEADER, end);
+            segment.offsets.set(log.getSequence() - segment.firstSequence, pos);
+            if (replay != null) replay.accept(log);
+            pos = end;
+        }
+    }
+
+    /**
+     * @return the offset after the record at pos, or -1 if none is there.
+     *         Bounds only; checksums are verified once, on recovery.
+     */
+    private static int recordEnd(ByteBuffer buffer, int pos) {
+        if (pos + RECORD_HEADER > buffer.limit()) return -1;
+        int payload = buffer.getInt(pos);
+        if (payload < MIN_PAYLOAD || payload > MAX_PAYLOAD) return -1;
+        int end = pos + RECORD_HEADER + payload;
+        return (end > buffer.limit() || end < 0) ? -1 : end;
+    }
+
+    /**
+     * @return the offset after the record at pos, or -1 if it is incomplete
+     *         or fails its checksum
+     */
+    private static int validRecordEnd(ByteBuffer buffer, int pos) {
+        int end = recordEnd(buffer, pos);
+        if (end < 0) return -1;
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(pos + RECORD_HEADER).limit(end);
+        CRC32 check = new CRC32();
+        check.update(body);
+        return ((int) check.getValue() == buffer.getInt(pos + 4)) ? end : -1;
+    }
+
+    private static ActivityLog decode(ByteBuffer buffer, int pos, int end) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(pos).limit(end);
+        long sequence = in.getLong();
+        long timestamp = in.getLong();
+        String deviceId = getString(in);
+        String device = getString(in);
+        String activity = getString(in);
+        String username = in.hasRemaining() ? getString(in) : null;
+        return new ActivityLog(sequence, timestamp, deviceId, username, device, activity);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ---- HELPERS ----
+
+    private static byte[] utf8(String value) {
+        return (value != null) ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    // Cut to MAX_FIELD_BYTES without splitting a UTF-8 sequence
+    private static byte[] capped(byte[] bytes) {
+        if (bytes == null || bytes.length <= MAX_FIELD_BYTES) return bytes;
+        int end = MAX_FIELD_BYTES;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) end--; // Continuation byte
+        return Arrays.copyOf(bytes, end);
+    }
+
+    private static int length(byte[] bytes) {
+        return (bytes != null) ? bytes.length : 0;
+    }
+
+    private static long parseFirstSequence(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring("segment-".length(), name.length() - ".log".length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Class: LogSink
+ *
+ * Description:
+ * Where ServerLog's writer thread sends diagnostic output.
+ *
+ *  - CONSOLE: System.out (the original behavior), one write per batch.
+ *  - FILE:    appended to a file, flushed once per batch.
+ *  - NONE:    discarded before it is queued.
+ */
+public enum LogSink {
+    CONSOLE,
+    FILE,
+    NONE;
+
+    /**
+     * Parses a sink name (case-insensitive), falling back to CONSOLE.
+     */
+    public static LogSink fromString(String value) {
+        if (value == null) return CONSOLE;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return CONSOLE;
+        }
+    }
+}
@@ -1,59 +1,130 @@
-import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Motion sensor with an ingestion path for raw readings (MOTION_EVENT).
+ *
+ * PIR sensors report dozens of times a second while someone walks past,
+ * so readings are reduced to edges before anything linked is touched:
+ *  - threshold: a reading counts as motion when its intensity (0-100) is
+ *    at least 100 - sensitivity; HGController passes the most sensitive
+ *    linked light's motionSensitivity (DEFAULT_SENSITIVITY with no lights)
+ *  - hysteresis: once motion is detected, readings down to
+ *    HYSTERESIS_BAND below the threshold keep it detected, and it only
+ *    clears after holdMillis without such a reading (HGController runs
+ *    that hold on its timing wheel)
+ *  - debounce: while motion is detected, readings within debounceMillis
+ *    of the last accepted one are dropped after one timestamp compare
+ *
+ * debounce() and ingest() are called under the sensor's command lock;
+ * ingest() reports RISING / HELD / NONE and clear() the falling edge.
+ * Readings enter through HGController.motionEvent(). Links to lights and
+ * alarms live in HGController's DeviceLinks graph (linkMotionToLight,
+ * linkMotionToAlarm), and only edges switch them.
+ */
 public class MotionSensor extends Device {
 
-    private boolean motionDetected;
-    private ArrayList<SmartLight> linkedLights;
-    private ArrayList<Alarm> linkedAlarms;
+    // ---- Reading classes (ingest(); DEBOUNCED when debounce() drops it) ----
+    public static final int NONE = 0;        // Below threshold, no motion
+    public static final int RISING = 1;      // Motion started
+    public static final int HELD = 2;        // Motion continues: restart the hold
+    public static final int DEBOUNCED = 3;   // Dropped: too soon after the last reading
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 250;
+    public static final long DEFAULT_HOLD_MILLIS = 10_000;
+    public static final int DEFAULT_SENSITIVITY = 50;
+    public static final int HYSTERESIS_BAND = 10;
+
+    private final int id;
+    private volatile boolean motionDetected;
+
+    private volatile long debounceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEBOUNCE_MILLIS);
+    private volatile long holdMillis = DEFAULT_HOLD_MILLIS;
+    private long lastAcceptedNanos;                          // Guarded by the command lock
+    private long eventsReceived;                             // Guarded by the command lock
+    private long eventsDebounced;                            // Guarded by the command lock
 
     public MotionSensor(int id, String name) {
         // FIX: Device requires (deviceID, deviceName)
         super("motion" + id, name);
+        this.id = id;
 
         this.motionDetected = false;
-        this.linkedLights = new ArrayList<>();
-        this.linkedAlarms = new ArrayList<>();
     }
 
+    @Override
+    public int getId() { return id; }
+
     public boolean isMotionDetected() { 
         return motionDetected; 
     }
 
-    public void detectMotion() {
-        motionDetected = true;
-
-        // Trigger linked lights
-        for (SmartLight light : linkedLights) {
-            light.turnOn();
-        }
+    public long getHoldMillis() { return holdMillis; }
+    public long getDebounceMillis() { return TimeUnit.NANOSECONDS.toMillis(debounceNanos); }
+    public long getEventsReceived() { return eventsReceived; }
+    public long getEventsDebounced() { return eventsDebounced; }
 
-        // Trigger linked alarms
-        for (Alarm alarm : linkedAlarms) {
-            alarm.arm();
-        }
+    public void setWindows(long debounceMillis, long holdMillis) {
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, debounceMillis));
+        this.holdMillis = Math.max(1, holdMillis);
     }
 
-    public void clearMotion() {
-        motionDetected = false;
-    }
+    // =====================================================
+    // ===================== INGESTION =====================
+    // =====================================================
 
-    public void linkLight(SmartLight light) {
-        if (!linkedLights.contains(light)) {
-            linkedLights.add(light);
+    /**
+     * Count one raw reading and drop it if motion is already detected and
+     * the last accepted reading was within the debounce window (caller
+     * holds the command lock).
+     * @param nowNanos System.nanoTime() of arrival
+     * @return true if the reading should be ignored
+     */
+    public boolean debounce(long nowNanos) {
+        eventsReceived++;
+        if (motionDetected && nowNanos - lastAcceptedNanos < debounceNanos) {
+            eventsDebounced++;
+            return true;
         }
+        lastAcceptedNanos = nowNanos;
+        return false;
     }
 
-    public void linkAlarm(Alarm alarm) {
-        if (!linkedAlarms.contains(alarm)) {
-            linkedAlarms.add(alarm);
-        }
+    /**
+     * Classify a reading that passed debounce() (caller holds the command lock).
+     * @param intensity   Reading strength, 0-100
+     * @param sensitivity Motion sensitivity, 0-100
+     */
+    public int ingest(int intensity, int sensitivity) {
+        int threshold = threshold(sensitivity);
+        if (motionDetected) threshold -= HYSTERESIS_BAND;
+        if (intensity < threshold) return NONE;
+        if (motionDetected) return HELD;
+        motionDetected = true;
+        return RISING;
+    }
+
+    /**
+     * The hold ran out without motion (caller holds the command lock).
+     * @return true if this is a falling edge
+     */
+    public boolean clear() {
+        if (!motionDetected) return false;
+        motionDetected = false;
+        return true;
     }
 
-    public void unlinkLight(SmartLight light) {
-        linkedLights.remove(light);
+    /**
+     * @return the intensity a reading needs to start motion at this sensitivity
+     */
+    public static int threshold(int sensitivity) {
+        return 100 - Math.max(0, Math.min(100, sensitivity));
     }
 
-    public void unlinkAlarm(Alarm alarm) {
-        linkedAlarms.remove(alarm);
+    @Override
+    public Map<String, Object> getState() {
+        Map<String, Object> state = super.getState();
+        state.put("motionDetected", motionDetected);
+        return state;
     }
 }
@@ -0,0 +1,412 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class: NioConnectionToClient
+ *
+ * Description:
+ * A client connection serviced by a NioTransport event loop instead of its
+ * own thread. Server sees it as an ordinary ConnectionToClient.
+ *
+ * Wire format: every message in either direction is a frame of
+ *   [int32 length][length bytes of one serialized object]
+ * where each object is written with a fresh ObjectOutputStream. A
+ * continuous serialization stream cannot be split into messages without
+ * blocking, which is why legacy stream clients use the BLOCKING transport.
+ *
+ * A client that opens with WireProtocol.MAGIC instead gets binary frames
+ * (same length prefix, opcode payload) decoded straight from the read buffer.
+ *
+ * The event loop only decodes. Decoded commands wait in a per-connection
+ * queue that one task at a time on the server's NIO worker pool drains, so
+ * a client's commands still run in the order they arrived while a command
+ * that waits on a lock or reads log segments never holds up the loop's
+ * other clients. When the command at the head of the queue is urgent
+ * (AbstractServer.isUrgent, e.g. a lock or alarm command) the task runs on
+ * the server's urgentExecutor() instead, so it never waits behind other
+ * clients' work, and hands back to the worker pool at the first command
+ * that is not. Once MAX_QUEUED_COMMANDS are waiting the loop stops
+ * reading from this client until the queue is half drained.
+ *
+ * Outgoing frames are encoded on the sender's thread, queued in a bounded
+ * OutboundQueue and written by the event loop with gathering writes.
+ * Broadcasts queue a duplicate of the BroadcastFrame's shared direct buffer.
+ */
+class NioConnectionToClient extends ConnectionToClient {
+
+    /** Largest inbound frame accepted before the connection is dropped */
+    static final int MAX_FRAME_BYTES = WireProtocol.MAX_FRAME_BYTES;
+
+    private static final int INITIAL_READ_BUFFER = 8 * 1024;
+
+    /** Most frames handed to one gathering write */
+    private static final int MAX_WRITE_BATCH = 64;
+
+    /** Decoded commands waiting for a worker before reads pause */
+    static final int MAX_QUEUED_COMMANDS = 256;
+
+    /** Commands one worker task runs before yielding to other connections */
+    private static final int MAX_COMMANDS_PER_TASK = 64;
+
+    // ---- CONNECTION PROPERTIES ----
+    private final SocketChannel channel;
+    private final NioTransport.EventLoop loop;
+    private SelectionKey key;                       // Set once registered with the loop
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final OutboundQueue<ByteBuffer> outbound;    // Encoded frames waiting for the loop
+    private final ByteBuffer[] inFlight = new ByteBuffer[MAX_WRITE_BATCH]; // Event loop only
+    private int inFlightStart;
+    private int inFlightCount;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private boolean negotiated;                     // First bytes inspected (event loop only)
+    private volatile boolean binary;                // Client chose binary frames
+    private final Object encoderLock = new Object();
+    private BinaryEncoder encoder;                  // Guarded by encoderLock
+
+    private final Queue<Object> inbound = new ConcurrentLinkedQueue<>(); // Decoded, not yet handled
+    private final AtomicInteger inboundCount = new AtomicInteger();
+    private final AtomicBoolean handling = new AtomicBoolean(); // A worker task owns the queue
+    private boolean readPaused;                     // Event loop only
+
+    NioConnectionToClient(SocketChannel channel, AbstractServer server, NioTransport.EventLoop loop) {
+        super(server);
+        this.channel = channel;
+        this.loop = loop;
+        this.outbound = server.newOutboundQueue();
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    void attachKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    protected OutboundQueue<?> outboundQueue() {
+        return outbound;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Not used: the event loop drives this connection
+     */
+    @Override
+    public void run() {
+    }
+
+    // ---- READ PATH (event loop thread) ----
+
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        if (!negotiated && readBuffer.remaining() >= 4) {
+            negotiated = true;
+            if (readBuffer.getInt(readBuffer.position()) == WireProtocol.MAGIC) {
+                readBuffer.position(readBuffer.position() + 4);
+                switchToBinary();
+            }
+        }
+
+        int needed = 0;
+        while (negotiated && readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < 0 || length > MAX_FRAME_BYTES) {
+                fail(new IOException("Invalid frame length from client: " + length));
+                return;
+            }
+            if (readBuffer.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+
+            readBuffer.position(readBuffer.position() + 4);
+            Object msg;
+            try {
+                if (binary) {
+                    CommandFrame frame = new CommandFrame(); // Handled later, on a worker
+                    BinaryDecoder.decodeCommand(readBuffer, length, frame);
+                    msg = frame;
+                } else {
+                    msg = decode(readBuffer, length);
+                }
+            } catch (IOException | ClassNotFoundException e) {
+                fail(e);
+                return;
+            }
+
+            inbound.add(msg);
+            if (inboundCount.incrementAndGet() >= MAX_QUEUED_COMMANDS && !readPaused) {
+                readPaused = true; // Frames already buffered are still decoded
+                updateInterest();
+            }
+        }
+        scheduleHandling();
+
+        readBuffer.compact();
+        if (needed > readBuffer.capacity()) {
+            ByteBuffer larger = ByteBuffer.allocate(needed);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    // ---- COMMAND HANDLING (worker threads) ----
+
+    /**
+     * Start a task for the queued commands unless one is running: on the
+     * urgent executor if the first command is urgent, else on the workers
+     */
+    private void scheduleHandling() {
+        if (inbound.isEmpty() || !handling.compareAndSet(false, true)) return;
+        AbstractServer server = getServer();
+        Object head = inbound.peek(); // Only the task owner removes, so this stays the head
+        Executor urgent = (head != null && server.isUrgent(head)) ? server.urgentExecutor() : null;
+        try {
+            if (urgent != null) {
+                try {
+                    urgent.execute(() -> handleQueued(true));
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Reserved threads gone (e.g. reconfigured): use the workers
+                }
+            }
+            Executor workers = server.getNioWorkers();
+            if (workers == null) throw new RejectedExecutionException("Server closed");
+            workers.execute(() -> handleQueued(false));
+        } catch (RejectedExecutionException e) {
+            handling.set(false);
+            inbound.clear(); // Server shutting down: nobody left to run them
+        }
+    }
+
+    /**
+     * Run queued commands in arrival order. Only one task runs per connection
+     * at a time; after MAX_COMMANDS_PER_TASK it requeues itself so a busy
+     * client cannot keep a worker from other connections. A task on the
+     * urgent executor stops at the first command that is not urgent.
+     */
+    private void handleQueued(boolean urgent) {
+        int handled = 0;
+        Object msg;
+        while (handled < MAX_COMMANDS_PER_TASK && (msg = inbound.peek()) != null) {
+            if (urgent && !getServer().isUrgent(msg)) break; // Back to the worker pool
+            inbound.poll();
+            handled++;
+            if (inboundCount.decrementAndGet() == MAX_QUEUED_COMMANDS / 2) {
+                loop.execute(this::resumeReading);
+            }
+            if (closed.get()) continue; // Drain without running
+
+            try {
+                getServer().handleMessageFromClient(msg, this); // Pass message to server
+            } catch (RuntimeException e) {
+                getServer().clientException(this, e);
+            }
+        }
+        handling.set(false);
+        scheduleHandling(); // Commands queued while this task was finishing
+    }
+
+    private void resumeReading() {
+        if (!readPaused) return;
+        readPaused = false;
+        updateInterest();
+    }
+
+    private static Object decode(ByteBuffer buffer, int length) throws IOException, ClassNotFoundException {
+        int start = buffer.arrayOffset() + buffer.position();
+        buffer.position(buffer.position() + length);
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(buffer.array(), start, length))) {
+            return in.readObject();
+        }
+    }
+
+    private void switchToBinary() {
+        synchronized (encoderLock) {
+            encoder = new BinaryEncoder();
+            binary = true;
+        }
+        ByteBuffer ack = ByteBuffer.allocate(4).putInt(0, WireProtocol.MAGIC);
+        enqueue(ack, true, false);
+    }
+
+    // ---- WRITE PATH ----
+
+    /**
+     * Encode and queue a message for the client; the event loop writes it out
+     * @param msg The message object to send
+     */
+    @Override
+    public void sendToClient(Object msg) {
+        if (closed.get()) return;
+
+        ByteBuffer frame;
+        try {
+            if (binary) {
+                synchronized (encoderLock) {
+                    frame = copyOf(encoder.encodeReply(msg));
+                }
+            } else {
+                frame = BroadcastFrame.serializeFramed(msg);
+            }
+        } catch (IOException e) {
+            getServer().clientException(this, e); // Callback: client exception
+            return;
+        }
+        enqueue(frame, true, false);
+    }
+
+    /**
+     * Queue a broadcast: the shared, already-encoded frame is written as is
+     */
+    @Override
+    void sendShared(BroadcastFrame shared) {
+        sendShared(shared, true);
+    }
+
+    @Override
+    void sendEvent(BroadcastFrame shared) {
+        sendShared(shared, false);
+    }
+
+    private void sendShared(BroadcastFrame shared, boolean mayBlock) {
+        if (closed.get()) return;
+
+        ByteBuffer frame;
+        try {
+            frame = binary ? shared.binaryFrame() : shared.serializedFrame();
+        } catch (IOException e) {
+            getServer().clientException(this, e); // Callback: client exception
+            return;
+        }
+        enqueue(frame, mayBlock, true);
+    }
+
+    private void enqueue(ByteBuffer frame, boolean mayBlock, boolean canDrop) {
+        boolean onLoop = loop.inEventLoop();
+        if (!outbound.offer(frame, mayBlock && !onLoop, canDrop)) {
+            // Slow consumer: policy says this client must go
+            if (onLoop) {
+                fail(new IOException("Outbound queue full, disconnecting slow client"));
+            } else {
+                getServer().clientException(this, new IOException("Outbound queue full, disconnecting slow client"));
+                loop.execute(this::close);
+            }
+            return;
+        }
+
+        if (onLoop) {
+            flushWrites();
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                flushScheduled.set(false);
+                flushWrites();
+            });
+        }
+    }
+
+    void onWritable() {
+        flushWrites();
+    }
+
+    /**
+     * Write queued frames with gathering writes (event loop thread only).
+     * A new batch is taken from the queue only once the previous one is
+     * fully written, so a stalled client backs up into the bounded queue.
+     */
+    private void flushWrites() {
+        if (key == null || !key.isValid()) return;
+        try {
+            while (true) {
+                if (inFlightCount == 0) {
+                    inFlightStart = 0;
+                    inFlightCount = outbound.drainTo(inFlight);
+                    if (inFlightCount == 0) break;
+                }
+
+                channel.write(inFlight, inFlightStart, inFlightCount);
+                while (inFlightCount > 0 && !inFlight[inFlightStart].hasRemaining()) {
+                    inFlight[inFlightStart++] = null;
+                    inFlightCount--;
+                }
+                if (inFlightCount > 0) break; // Socket buffer full, wait for OP_WRITE
+            }
+            updateInterest();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Read unless paused; write while a batch is still in flight (event loop only)
+     */
+    private void updateInterest() {
+        if (key == null || !key.isValid()) return;
+        key.interestOps((readPaused ? 0 : SelectionKey.OP_READ)
+                | (inFlightCount > 0 ? SelectionKey.OP_WRITE : 0));
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer scratch) {
+        ByteBuffer frame = ByteBuffer.allocate(scratch.remaining());
+        frame.put(scratch).flip();
+        return frame;
+    }
+
+    // ---- CLOSE ----
+
+    private void fail(Exception e) {
+        getServer().clientException(this, e); // Callback: client exception
+        close();
+    }
+
+    /**
+     * Close this client connection and notify the server once
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        markClosed();
+        outbound.close();
+        inbound.clear();
+
+        if (key != null) key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignore) {}
+
+        getServer().removeClient(this);
+        getServer().clientDisconnected(this); // Callback: client disconnected
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class: NioTransport
+ *
+ * Description:
+ * Selector-based transport for AbstractServer. A fixed pool of event-loop
+ * threads services every client, so the number of connected hubs and phone
+ * apps is no longer bounded by the number of platform threads.
+ *
+ * Loop 0 also owns the ServerSocketChannel and accepts new connections,
+ * handing each one to the next loop in round-robin order. Work for a loop
+ * coming from other threads (registration, pending writes) is queued with
+ * execute() and picked up after the selector wakes.
+ *
+ * The loops only do I/O and decode frames; the commands themselves run on
+ * the server's NIO worker pool (see NioConnectionToClient).
+ *
+ * When the server's connection cap is reached, OP_ACCEPT is switched off
+ * until a client disconnects, leaving new clients in the OS backlog.
+ */
+final class NioTransport {
+
+    // ---- TRANSPORT PROPERTIES ----
+    private final AbstractServer server;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private SelectionKey acceptKey;
+    private volatile boolean acceptPaused; // True while the connection cap is reached
+
+    NioTransport(AbstractServer server, int threads) {
+        this.server = server;
+        this.loops = new EventLoop[Math.max(1, threads)];
+    }
+
+    // ---- LIFECYCLE ----
+
+    /**
+     * Bind the server channel and start all event loops
+     */
+    void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        acceptKey = serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Stop accepting new clients; existing connections stay open
+     */
+    void stopAccepting() {
+        loops[0].execute(() -> {
+            if (acceptKey != null) acceptKey.cancel();
+            try { serverChannel.close(); } catch (IOException ignore) {}
+        });
+    }
+
+    /**
+     * Stop all event loops (connections must already be closed)
+     */
+    void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.running = false;
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            if (loop.thread != Thread.currentThread()) {
+                try { loop.thread.join(1000); } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    // ---- ACCEPT ----
+
+    private void acceptPending() throws IOException {
+        while (true) {
+            if (!server.tryAcquireConnectionSlot()) {
+                // Server full: stop accepting until a slot is released
+                acceptPaused = true;
+                acceptKey.interestOps(0);
+                return;
+            }
+
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                server.releaseConnectionSlot();
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                server.releaseConnectionSlot();
+                try { channel.close(); } catch (IOException ignore) {}
+                throw e;
+            }
+
+            EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            NioConnectionToClient client = new NioConnectionToClient(channel, server, loop);
+            server.addClient(client);
+            loop.execute(() -> loop.register(client));
+        }
+    }
+
+    /**
+     * Called when a connection slot is released; resumes a paused accept
+     */
+    void connectionSlotFreed() {
+        if (!acceptPaused) return;
+        loops[0].execute(() -> {
+            if (acceptPaused && acceptKey.isValid()) {
+                acceptPaused = false;
+                acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        });
+    }
+
+    // ---- EVENT LOOP ----
+
+    /**
+     * One selector thread. All reads, writes and interest changes for the
+     * connections registered here happen on this thread.
+     */
+    final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "hg-nio-loop-" + index);
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * Run a task on this loop's thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (!inEventLoop()) selector.wakeup();
+        }
+
+        private void register(NioConnectionToClient client) {
+            try {
+                SelectionKey key = client.channel().register(selector, SelectionKey.OP_READ, client);
+                client.attachKey(key);
+                server.clientConnected(client); // Callback: client connected
+            } catch (IOException e) {
+                server.clientException(client, e);
+                client.close();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        dispatch(key);
+                    }
+
+                    // Includes tasks queued by the keys just dispatched
+                    runTasks();
+                }
+                runTasks();
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) server.listeningException(e);
+            } finally {
+                try { selector.close(); } catch (IOException ignore) {}
+            }
+        }
+
+        private void dispatch(SelectionKey key) {
+            try {
+                if (!key.isValid()) return;
+                if (key.isAcceptable()) {
+                    acceptPending();
+                    return;
+                }
+
+                NioConnectionToClient client = (NioConnectionToClient) key.attachment();
+                if (key.isReadable()) client.onReadable();
+                if (key.isValid() && key.isWritable()) client.onWritable();
+            } catch (CancelledKeyException ignore) {
+                // Connection closed while its events were being processed
+            } catch (IOException e) {
+                server.listeningException(e);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    server.listeningException(e);
+                }
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.util.UUID;
  * userEmail: String
  * recipient: User
  * message: String
+ * repeatCount: int (identical alerts merged by NotificationDispatcher)
  *
  * --METHODS
  * Notification(recipient, message, isEnabled, userEmail)
@@ -38,6 +39,7 @@ import java.util.UUID;
  * setEmail()
  * getRecipient()
  * getMessage()
+ * getRepeatCount()
  */
 
 public class Notification implements Serializable {
@@ -57,6 +59,8 @@ public class Notification implements Serializable {
     private final User recipient;   // Can be null (SYSTEM/global alert)
     private final String message;
 
+    private int repeatCount = 1;    // Guarded by the dispatcher's per-recipient queue
+
     // -------------------------
     // FULL CONSTRUCTOR
     // -------------------------
@@ -101,19 +105,21 @@ public class Notification implements Serializable {
      */
     public boolean sendAlert() {
         if (!isEnabled) {
-            System.out.println("[" + getTimestampFormatted() + "] ALERT DISABLED for User "
+            ServerLog.log("[" + getTimestampFormatted() + "] ALERT DISABLED for User "
                     + userID + ": " + message);
             return false;
         }
 
         String recipientInfo = (recipient != null) ? recipient.getName() : "System/Global";
 
-        System.out.println("--- ALERT SENT ---");
-        System.out.println("ID: " + notificationID);
-        System.out.println("To: " + recipientInfo + " | Email: " + userEmail);
-        System.out.println("Time: " + getTimestampFormatted());
-        System.out.println("Message: " + message);
-        System.out.println("------------------");
+        // One log call so concurrent alerts never interleave their lines
+        String nl = System.lineSeparator();
+        ServerLog.log("--- ALERT SENT ---" + nl
+                + "ID: " + notificationID + nl
+                + "To: " + recipientInfo + " | Email: " + userEmail + nl
+                + "Time: " + getTimestampFormatted() + nl
+                + "Message: " + message + nl
+                + "------------------");
 
         return true;
     }
@@ -127,7 +133,7 @@ public class Notification implements Serializable {
     public void setEmail(String email) {
         if (email != null && !email.trim().isEmpty()) {
             this.userEmail = email;
-            System.out.println("Notification email updated to: " + email);
+            ServerLog.log("Notification email updated to: " + email);
         }
     }
 
@@ -159,4 +165,14 @@ public class Notification implements Serializable {
     public String getMessage() {
         return message;
     }
+
+    /** How many identical alerts this one stands for (1 unless merged) */
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    // Another identical alert arrived before this one was delivered
+    void merge() {
+        repeatCount++;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class: NotificationDispatcher
+ *
+ * Description:
+ * Delivers HGController's notifications off the caller's thread.
+ *
+ *  - Per-recipient queues: each user (and "SYSTEM" for emergencies) has
+ *    its own bounded queue, and at most one delivery in flight, so one
+ *    slow or failing recipient never delays another and each recipient
+ *    sees its alerts in order.
+ *  - Batching: the first alert for an idle recipient starts a short
+ *    linger; everything queued by then goes to the transport as one batch
+ *    (up to MAX_BATCH). BULK alerts linger longer.
+ *  - Priority lanes: CRITICAL alerts (emergencies) have their own queue
+ *    per recipient and a reserved worker ("hg-notify-critical") with no
+ *    linger, so they never wait behind ordinary alerts or their retries.
+ *    Order is kept within a lane, not across lanes.
+ *  - Coalescing: an alert identical to one still queued for the same
+ *    recipient (e.g. a burst of motion alerts) is merged into it and only
+ *    raises its repeat count.
+ *  - Retry: a failed batch goes back to the front of the queue and is
+ *    retried with exponential backoff, up to MAX_ATTEMPTS.
+ *
+ * Other work runs on a small scheduled pool ("hg-notify-N"); the
+ * transport is pluggable and may be replaced at runtime. Submit-to-delivery
+ * latency is recorded per Priority.
+ */
+public class NotificationDispatcher {
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final long DEFAULT_LINGER_MILLIS = 250;
+    /** BULK alerts wait this many lingers for company */
+    public static final int BULK_LINGER_FACTOR = 4;
+    /** Delivery target for CRITICAL alerts, counted in their latency summary */
+    public static final long CRITICAL_TARGET_MILLIS = 100;
+
+    /** Most alerts handed to the transport at once */
+    public static final int MAX_BATCH = 32;
+    /** Queued alerts per recipient before the oldest are dropped */
+    public static final int MAX_PENDING = 1000;
+    /** Delivery attempts per batch before it is given up */
+    public static final int MAX_ATTEMPTS = 5;
+    /** Recent notifications kept for getRecent() */
+    public static final int HISTORY_LIMIT = 1000;
+
+    private static final long RETRY_BASE_MILLIS = 500;
+    private static final long RETRY_MAX_MILLIS = 30_000;
+
+    /**
+     * A queued alert and when it was submitted
+     */
+    private static final class Pending {
+        final Notification notification;
+        final Priority priority;
+        final long queuedNanos;
+
+        Pending(Notification notification, Priority priority) {
+            this.notification = notification;
+            this.priority = priority;
+            this.queuedNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Queue and delivery state of one recipient in one lane
+     */
+    private static final class Recipient {
+        final String id;
+        final boolean critical;                                      // CRITICAL lane
+        final ArrayDeque<Pending> pending = new ArrayDeque<>();      // Guarded by this
+        final Map<String, Pending> byMessage = new HashMap<>();      // Queued alerts, for merging
+        boolean scheduled;                                           // Delivery scheduled or running
+        int attempts;                                                // Failures of the current batch
+
+        Recipient(String id, boolean critical) {
+            this.id = id;
+            this.critical = critical;
+        }
+    }
+
+    private final ScheduledThreadPoolExecutor workers;
+    private final ScheduledThreadPoolExecutor criticalWorker; // Reserved for CRITICAL alerts
+    private final long lingerMillis;
+    private volatile NotificationTransport transport;
+    private volatile boolean closed;
+
+    private final Map<String, Recipient> recipients = new ConcurrentHashMap<>();
+    private final Map<String, Recipient> criticalRecipients = new ConcurrentHashMap<>();
+    private final LatencyRecorder[] latency = new LatencyRecorder[Priority.values().length];
+    private final Queue<Notification> history = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger historySize = new AtomicInteger();
+
+    // ---- COUNTERS ----
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public NotificationDispatcher(NotificationTransport transport) {
+        this(transport, DEFAULT_THREADS, DEFAULT_LINGER_MILLIS);
+    }
+
+    /**
+     * @param threads      Worker threads delivering batches
+     * @param lingerMillis How long a first alert waits for more to batch with
+     */
+    public NotificationDispatcher(NotificationTransport transport, int threads, long lingerMillis) {
+        this.transport = transport;
+        this.lingerMillis = Math.max(0, lingerMillis);
+
+        AtomicInteger count = new AtomicInteger();
+        this.workers = new ScheduledThreadPoolExecutor(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "hg-notify-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.workers.setRemoveOnCancelPolicy(true);
+        this.criticalWorker = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "hg-notify-critical");
+            t.setDaemon(true);
+            return t;
+        });
+        this.criticalWorker.setRemoveOnCancelPolicy(true);
+
+        for (Priority priority : Priority.values()) {
+            latency[priority.ordinal()] = new LatencyRecorder(priority + " notifications",
+                    (priority == Priority.CRITICAL) ? CRITICAL_TARGET_MILLIS : 0);
+        }
+    }
+
+    public void setTransport(NotificationTransport transport) {
+        this.transport = transport;
+    }
+
+    // =====================================================
+    // ===================== SUBMIT ========================
+    // =====================================================
+
+    /**
+     * Queue a notification for delivery. Never blocks on the transport.
+     * @param priority CRITICAL goes out at once on the reserved worker;
+     *                 BULK waits longer to be batched
+     */
+    public void submit(Notification notification, Priority priority) {
+        remember(notification);
+        submitted.increment();
+
+        if (!notification.isEnabled()) {
+            ServerLog.log("[" + notification.getTimestampFormatted() + "] ALERT DISABLED for User "
+                    + notification.getUserID() + ": " + notification.getMessage());
+            return;
+        }
+        if (closed) {
+            List<Pending> single = new ArrayList<>(1);
+            single.add(new Pending(notification, priority));
+            send(notification.getUserID(), single); // Shutting down: best effort, inline
+            return;
+        }
+
+        boolean critical = (priority == Priority.CRITICAL);
+        Recipient r = (critical ? criticalRecipients : recipients)
+                .computeIfAbsent(notification.getUserID(), id -> new Recipient(id, critical));
+        synchronized (r) {
+            Pending same = r.byMessage.get(notification.getMessage());
+            if (same != null) {
+                same.notification.merge();
+                merged.increment();
+                return;
+            }
+            if (r.pending.size() >= MAX_PENDING) {
+                Pending oldest = r.pending.pollFirst();
+                r.byMessage.remove(oldest.notification.getMessage(), oldest);
+                dropped.increment();
+            }
+            Pending entry = new Pending(notification, priority);
+            r.pending.addLast(entry);
+            r.byMessage.put(notification.getMessage(), entry);
+
+            if (!r.scheduled) {
+                r.scheduled = true;
+                schedule(r, critical ? 0 : (priority == Priority.BULK) ? lingerMillis * BULK_LINGER_FACTOR
+                                                                      : lingerMillis);
+            }
+        }
+    }
+
+    // =====================================================
+    // ==================== DELIVERY =======================
+    // =====================================================
+
+    private void schedule(Recipient r, long delayMillis) {
+        try {
+            (r.critical ? criticalWorker : workers).schedule(() -> deliver(r), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Pool shut down: deliver what is queued here rather than lose it
+            List<Pending> batch = take(r, Integer.MAX_VALUE);
+            r.scheduled = false;
+            if (!batch.isEmpty()) send(r.id, batch);
+        }
+    }
+
+    // Worker: send one batch, then retry it or move on to the next
+    private void deliver(Recipient r) {
+        List<Pending> batch;
+        synchronized (r) {
+            batch = take(r, MAX_BATCH);
+            if (batch.isEmpty()) {
+                r.scheduled = false;
+                return;
+            }
+        }
+
+        Exception error = null;
+        try {
+            transport.deliver(r.id, notifications(batch));
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        }
+
+        synchronized (r) {
+            if (error == null) {
+                delivered.add(batch.size());
+                recordLatency(batch);
+                r.attempts = 0;
+            } else if (++r.attempts < MAX_ATTEMPTS) {
+                // Back to the front, in order; alerts queued meanwhile stay behind it
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    r.pending.addFirst(batch.get(i));
+                    r.byMessage.putIfAbsent(batch.get(i).notification.getMessage(), batch.get(i));
+                }
+                retried.add(batch.size());
+                schedule(r, backoff(r.attempts));
+                return;
+            } else {
+                failed.add(batch.size());
+                r.attempts = 0;
+                ServerLog.log("[NOTIFY] Giving up on " + batch.size() + " alert(s) for "
+                        + r.id + " after " + MAX_ATTEMPTS + " attempts: " + error);
+            }
+
+            if (r.pending.isEmpty()) {
+                r.scheduled = false;
+            } else {
+                schedule(r, 0); // More arrived while sending: already batched, no linger
+            }
+        }
+    }
+
+    // Remove up to max alerts from the front of the queue (caller holds r)
+    private static List<Pending> take(Recipient r, int max) {
+        List<Pending> batch = new ArrayList<>(Math.min(max, r.pending.size()));
+        while (batch.size() < max && !r.pending.isEmpty()) {
+            Pending p = r.pending.pollFirst();
+            r.byMessage.remove(p.notification.getMessage(), p);
+            batch.add(p);
+        }
+        return batch;
+    }
+
+    private static List<Notification> notifications(List<Pending> batch) {
+        List<Notification> list = new ArrayList<>(batch.size());
+        for (Pending p : batch) list.add(p.notification);
+        return list;
+    }
+
+    private void recordLatency(List<Pending> batch) {
+        for (Pending p : batch) latency[p.priority.ordinal()].recordSince(p.queuedNanos);
+    }
+
+    private void send(String recipient, List<Pending> batch) {
+        try {
+            transport.deliver(recipient, notifications(batch));
+            delivered.add(batch.size());
+            recordLatency(batch);
+        } catch (IOException | RuntimeException e) {
+            failed.add(batch.size());
+            ServerLog.log("[NOTIFY] Failed to deliver " + batch.size() + " alert(s) for " + recipient + ": " + e);
+        }
+    }
+
+    private static long backoff(int attempts) {
+        return Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempts - 1, 16));
+    }
+
+    // =====================================================
+    // ================= HISTORY / LIFECYCLE ===============
+    // =====================================================
+
+    private void remember(Notification notification) {
+        history.add(notification);
+        if (historySize.incrementAndGet() > HISTORY_LIMIT && history.poll() != null) {
+            historySize.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the most recent notifications submitted (at most HISTORY_LIMIT)
+     */
+    public List<Notification> getRecent() {
+        return new ArrayList<>(history);
+    }
+
+    /**
+     * Deliver what is queued (lingering batches go out now, retries get
+     * one more attempt) and stop the workers, waiting up to timeoutMillis.
+     */
+    public void close(long timeoutMillis) {
+        closed = true;
+        criticalWorker.shutdown(); // Already scheduled deliveries still run
+        workers.shutdown();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            if (!criticalWorker.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                criticalWorker.shutdownNow();
+            }
+            if (!workers.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(criticalRecipients);
+        flush(recipients);
+    }
+
+    private void flush(Map<String, Recipient> lane) {
+        for (Recipient r : lane.values()) {
+            List<Pending> rest;
+            synchronized (r) {
+                rest = take(r, Integer.MAX_VALUE);
+            }
+            if (!rest.isEmpty()) send(r.id, rest);
+        }
+    }
+
+    /**
+     * @return submit-to-delivery latency of alerts of this priority
+     */
+    public LatencyRecorder getLatency(Priority priority) {
+        return latency[priority.ordinal()];
+    }
+
+    public long submittedCount() { return submitted.sum(); }
+    public long mergedCount() { return merged.sum(); }
+    public long deliveredCount() { return delivered.sum(); }
+    public long retriedCount() { return retried.sum(); }
+    public long failedCount() { return failed.sum(); }
+    public long droppedCount() { return dropped.sum(); }
+}
@@ -0,0 +1,27 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Class: NotificationTransport
+ *
+ * Description:
+ * Delivers notifications for NotificationDispatcher. Called from the
+ * dispatcher's worker threads with every pending alert for one recipient
+ * at once, so a transport can send them as a single message (one email,
+ * one push, one file append).
+ *
+ * Throwing IOException makes the dispatcher retry the whole batch later
+ * with backoff. Implementations: LogNotificationTransport (ServerLog) and
+ * FileNotificationTransport (append-only file, a stand-in for a real
+ * gateway).
+ */
+public interface NotificationTransport {
+
+    /**
+     * @param recipient Username, or "SYSTEM" for emergency/global alerts
+     * @param batch     Alerts for that recipient, oldest first; merged
+     *                  duplicates carry a repeat count
+     * @throws IOException if delivery failed and should be retried
+     */
+    void deliver(String recipient, List<Notification> batch) throws IOException;
+}
@@ -0,0 +1,232 @@
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class: OutboundQueue
+ *
+ * Description:
+ * Bounded queue of messages waiting to be written to one client. Senders
+ * only enqueue; the connection's writer drains the queue in batches so a
+ * slow socket never stalls the thread that produced the message.
+ *
+ * When full, the configured SlowConsumerPolicy decides whether the oldest
+ * message is dropped, the sender waits, or the connection must be closed.
+ * Only messages offered as droppable (events and broadcasts) are ever
+ * dropped: a direct reply or log page is never lost silently, so under
+ * DROP_OLDEST a reply that finds no droppable message to evict waits as
+ * under BLOCK.
+ * Depth, high watermark and drop counters are kept for monitoring.
+ */
+final class OutboundQueue<T> {
+
+    private final ArrayDeque<T> items;
+    private final ArrayDeque<Boolean> droppable; // Parallel to items
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final long blockTimeoutNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed;
+
+    // ---- METRICS (guarded by lock) ----
+    private long enqueued;
+    private long dropped;
+    private int highWatermark;
+
+    OutboundQueue(int capacity, SlowConsumerPolicy policy, long blockTimeoutMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = (policy != null) ? policy : SlowConsumerPolicy.DROP_OLDEST;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutMillis));
+        this.items = new ArrayDeque<>(Math.min(this.capacity, 64));
+        this.droppable = new ArrayDeque<>(Math.min(this.capacity, 64));
+    }
+
+    /**
+     * Enqueue a message, applying the slow-consumer policy if full.
+     * @param item      The message
+     * @param mayBlock  False on threads that must never wait (event loops)
+     * @param canDrop   True for events and broadcasts, which DROP_OLDEST may discard
+     * @return false if the message was refused and the connection should close
+     */
+    boolean offer(T item, boolean mayBlock, boolean canDrop) {
+        lock.lock();
+        try {
+            if (closed) return false;
+
+            if (items.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        if (dropOldestDroppable()) {
+                            dropped++;
+                            break;
+                        }
+                        if (canDrop) {
+                            dropped++; // Nothing older to evict: drop this one
+                            return true;
+                        }
+                        // A reply: wait for room as under BLOCK
+                        if (!mayBlock || !awaitSpace()) {
+                            dropped++;
+                            return false;
+                        }
+                        break;
+                    case BLOCK:
+                        if (!mayBlock || !awaitSpace()) {
+                            dropped++;
+                            return false;
+                        }
+                        break;
+                    default:
+                        dropped++;
+                        return false;
+                }
+            }
+
+            items.addLast(item);
+            droppable.addLast(canDrop);
+            enqueued++;
+            if (items.size() > highWatermark) highWatermark = items.size();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean dropOldestDroppable() {
+        Iterator<T> item = items.iterator();
+        Iterator<Boolean> canDrop = droppable.iterator();
+        while (item.hasNext()) {
+            item.next();
+            if (canDrop.next()) {
+                item.remove();
+                canDrop.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean awaitSpace() {
+        long remaining = blockTimeoutNanos;
+        try {
+            while (items.size() >= capacity && !closed) {
+                if (remaining <= 0) return false;
+                remaining = notFull.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !closed;
+    }
+
+    /**
+     * Move up to max queued messages into the given collection
+     * @return the number of messages moved
+     */
+    int drainTo(Collection<? super T> into, int max) {
+        lock.lock();
+        try {
+            int moved = 0;
+            while (moved < max && !items.isEmpty()) {
+                into.add(items.pollFirst());
+                droppable.pollFirst();
+                moved++;
+            }
+            if (moved > 0) notFull.signalAll();
+            return moved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move queued messages into the array starting at index 0
+     * @return the number of messages moved
+     */
+    int drainTo(T[] into) {
+        lock.lock();
+        try {
+            int moved = 0;
+            while (moved < into.length && !items.isEmpty()) {
+                into[moved++] = items.pollFirst();
+                droppable.pollFirst();
+            }
+            if (moved > 0) notFull.signalAll();
+            return moved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        lock.lock();
+        try {
+            return items.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Refuse further messages and release any blocked senders
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            items.clear();
+            droppable.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---- METRICS ----
+
+    int depth() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int highWatermark() {
+        lock.lock();
+        try {
+            return highWatermark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long enqueuedCount() {
+        lock.lock();
+        try {
+            return enqueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long droppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
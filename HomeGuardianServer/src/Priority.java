@@ -0,0 +1,29 @@
+/**
+ * Class: Priority
+ *
+ * Description:
+ * Traffic class of a command or notification.
+ *
+ *  - CRITICAL: alarms, locks, camera recording and emergency alerts. Run
+ *              on reserved threads that other work never occupies.
+ *  - NORMAL:   ordinary device commands.
+ *  - BULK:     log reads and high-rate adjustments (brightness/colour
+ *              sliders); yield to NORMAL work when the pool is busy.
+ */
+public enum Priority {
+    CRITICAL,
+    NORMAL,
+    BULK;
+
+    /**
+     * Parses a priority name (case-insensitive), falling back to NORMAL.
+     */
+    public static Priority fromString(String value) {
+        if (value == null) return NORMAL;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return NORMAL;
+        }
+    }
+}
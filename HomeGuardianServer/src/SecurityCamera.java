@@ -1,9 +1,11 @@
+import java.util.Map;
+
 public class SecurityCamera extends Device {
 
     private int id;                 // 1, 2, 3
-    private boolean isOn;
-    private boolean isRecording;
-    private boolean motionTriggered;
+    private volatile boolean isOn;
+    private volatile boolean isRecording;
+    private volatile boolean motionTriggered;
 
     public SecurityCamera(int id, String name) {
         // FIX: Device requires (deviceID, deviceName)
@@ -15,6 +17,7 @@ public class SecurityCamera extends Device {
         this.motionTriggered = false;
     }
 
+    @Override
     public int getId() { return id; }
     public boolean isOn() { return isOn; }
     public boolean isRecording() { return isRecording; }
@@ -29,4 +32,13 @@ public class SecurityCamera extends Device {
     public void toggleMotionTrigger() {
         motionTriggered = !motionTriggered;
     }
+
+    @Override
+    public Map<String, Object> getState() {
+        Map<String, Object> state = super.getState();
+        state.put("on", isOn);
+        state.put("recording", isRecording);
+        state.put("motionTriggered", motionTriggered);
+        return state;
+    }
 }
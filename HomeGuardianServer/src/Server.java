@@ -1,26 +1,183 @@
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 
 public class Server extends AbstractServer {
 
     private HGController controller; // Reference to the controller managing devices
+    private final DeviceSubscriptions subscriptions = new DeviceSubscriptions();
+    private final CommandRegistry commands;          // Name/opcode -> handler
+    private volatile ExecutorService commandExecutor;  // Tagged NORMAL/BULK requests; null = run on the reading thread
+    private volatile ExecutorService criticalExecutor; // CRITICAL commands: reserved threads
+    private volatile DeviceLanes criticalLanes;        // Tagged CRITICAL commands, in order per device
+    private final AtomicLong laneSequence = new AtomicLong(); // FIFO order within a priority
+
+    /** Threads reserved for CRITICAL commands unless configured otherwise */
+    public static final int DEFAULT_CRITICAL_THREADS = 2;
+    /** Receipt-to-reply target for CRITICAL commands unless configured otherwise */
+    public static final long DEFAULT_CRITICAL_TARGET_MILLIS = 50;
+
+    // Receipt-to-reply latency per Priority (indexed by ordinal)
+    private final LatencyRecorder[] latency = new LatencyRecorder[Priority.values().length];
+    private ScheduledExecutorService latencyReporter;
 
     public Server(int port, HGController controller) {
         super(port);
         this.controller = controller;
+        this.commands = createCommandTable();
+        setCriticalThreads(DEFAULT_CRITICAL_THREADS); // Threads start on first use
+        controller.addStateListener(subscriptions::deliver); // SUBSCRIBE fan-out
+        for (Priority priority : Priority.values()) {
+            latency[priority.ordinal()] = new LatencyRecorder(priority + " commands",
+                    (priority == Priority.CRITICAL) ? DEFAULT_CRITICAL_TARGET_MILLIS : 0);
+        }
     }
 
     public void startServer() {
         try {
             listen();
         } catch (Exception e) {
-            System.out.println("Error starting server: " + e.getMessage());
+            ServerLog.log("Error starting server: " + e.getMessage());
         }
     }
 
     public void stopServer() {
         close();
     }
+
+    /**
+     * Run requests that carry a correlation id on a pool of this many
+     * threads, so one slow command does not hold up the rest of the
+     * connection and replies may complete out of order. Queued NORMAL
+     * commands run before BULK ones. 0 (the default) runs every non-critical
+     * command on the thread that read it, in order.
+     */
+    public void setCommandThreads(int threads) {
+        ExecutorService previous = commandExecutor;
+        commandExecutor = (threads > 0)
+                ? new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new PriorityBlockingQueue<>(), namedDaemons("hg-command-"))
+                : null;
+        if (previous != null) previous.shutdown();
+    }
+
+    /**
+     * Threads reserved for CRITICAL commands (alarms, locks, camera
+     * recording), DEFAULT_CRITICAL_THREADS unless set. Other traffic never
+     * runs on them, so a backlog of log reads or slider updates cannot
+     * delay the alarm path:
+     *
+     *  - tagged CRITICAL commands run here one device at a time, in the
+     *    order received (DeviceLanes), so two commands for the same lock
+     *    never overtake each other
+     *  - untagged ones arriving over NIO skip the shared worker queue
+     *    (isUrgent) and run here in their connection's order; over the
+     *    BLOCKING transport each client already has its own thread
+     *
+     * 0 runs critical commands on the reading thread like everything else.
+     */
+    public void setCriticalThreads(int threads) {
+        ExecutorService previous = criticalExecutor;
+        ExecutorService next = (threads > 0)
+                ? Executors.newFixedThreadPool(threads, namedDaemons("hg-critical-"))
+                : null;
+        criticalLanes = (next != null) ? new DeviceLanes(next) : null;
+        criticalExecutor = next;
+        if (previous != null) previous.shutdown();
+    }
+
+    /**
+     * Latency target for CRITICAL commands; replies slower than this are
+     * counted in the latency report. Call before the server starts.
+     */
+    public void setCriticalLatencyTarget(long targetMillis) {
+        latency[Priority.CRITICAL.ordinal()] = new LatencyRecorder("CRITICAL commands", targetMillis);
+    }
+
+    /**
+     * @return receipt-to-reply latency of commands of this priority
+     */
+    public LatencyRecorder getLatency(Priority priority) {
+        return latency[priority.ordinal()];
+    }
+
+    /**
+     * Log command and notification latency every few seconds (0 = never;
+     * the final figures are always logged when the server closes).
+     */
+    public synchronized void setLatencyReportSeconds(int seconds) {
+        if (latencyReporter != null) {
+            latencyReporter.shutdown();
+            latencyReporter = null;
+        }
+        if (seconds > 0) {
+            latencyReporter = Executors.newSingleThreadScheduledExecutor(namedDaemons("hg-latency-"));
+            latencyReporter.scheduleAtFixedRate(this::logLatency, seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void logLatency() {
+        StringBuilder sb = new StringBuilder("[LATENCY]");
+        for (LatencyRecorder recorder : latency) {
+            if (recorder.count() > 0) sb.append(System.lineSeparator()).append("  ").append(recorder.summary());
+        }
+        NotificationDispatcher notifications = controller.getNotificationDispatcher();
+        for (Priority priority : Priority.values()) {
+            LatencyRecorder recorder = notifications.getLatency(priority);
+            if (recorder.count() > 0) sb.append(System.lineSeparator()).append("  ").append(recorder.summary());
+        }
+        ServerLog.logCritical(sb.toString());
+    }
+
+    private static ThreadFactory namedDaemons(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * A queued command; the command pool runs higher priorities first,
+     * and each priority in arrival order
+     */
+    private static final class LaneTask implements Runnable, Comparable<LaneTask> {
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable work;
+
+        LaneTask(Priority priority, long sequence, Runnable work) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            work.run();
+        }
+
+        @Override
+        public int compareTo(LaneTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return (byPriority != 0) ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
 //test commit
     @Override
     protected void handleMessageFromClient(Object msg, ConnectionToClient client) {
@@ -35,11 +192,17 @@ public class Server extends AbstractServer {
                 return;
             }
 
-            System.out.println("Received unsupported message type from client: " + msg);
-            controller.logActivity("Unsupported message type received from client: " + msg);
+            // Binary protocol: frames are decoded straight into CommandArgs
+            if (msg instanceof CommandFrame) {
+                handleFrameCommand((CommandFrame) msg, client);
+                return;
+            }
+
+            ServerLog.log("Received unsupported message type from client: " + HGController.forLog(msg));
+            controller.logActivity("Unsupported message type received from client: " + HGController.forLog(msg));
 
         } catch (Exception e) {
-            e.printStackTrace();
+            ServerLog.log("Error while handling message from client", e);
             controller.logActivity("Error while handling message from client: " + e.getMessage());
         }
     }
@@ -48,75 +211,126 @@ public class Server extends AbstractServer {
     //                               NEW LOGIN + SIGNUP HANDLING
     // ===========================================================================================
 
-    @SuppressWarnings("rawtypes")
-    private void handleLoginCommand(ArrayList list, ConnectionToClient client) {
+    private void handleLoginCommand(CommandArgs args, ConnectionToClient client) {
 
-        if (list.size() < 3) {
-            sendLoginResult(client, "error", "Invalid login message.");
+        if (args.size() < 3) {
+            sendLoginResult(args, client, "error", "Invalid login message.");
             return;
         }
 
-        String username = String.valueOf(list.get(1));
-        String password = String.valueOf(list.get(2));
+        String username = args.getString(1);
+        String password = args.getString(2);
 
         User user = controller.authenticateUser(username, password);
 
         if (user != null) {
-            sendLoginResult(client, "success",
-                    "Login successful. Welcome, " + user.getUserName() + "!");
+            String token = bindSession(client, user, controller.startSession(user));
+            sendLoginResult(args, client, "success",
+                    "Login successful. Welcome, " + user.getUserName() + "!", token);
+        } else {
+            sendLoginResult(args, client, "error", "Invalid username or password.");
+        }
+    }
+
+    /**
+     * RESUME [token]: bind this connection to the session a previous LOGIN
+     * returned, without authenticating again. Replies
+     * ["resumeResult", "success"|"error", message].
+     */
+    private void handleResumeCommand(CommandArgs args, ConnectionToClient client) {
+        User user = controller.resumeSession(args.getString(1));
+        ArrayList<Object> reply = new ArrayList<>(3);
+        reply.add("resumeResult");
+        if (user != null) {
+            bindSession(client, user, args.getString(1));
+            reply.add("success");
+            reply.add("Session resumed. Welcome back, " + user.getUserName() + "!");
         } else {
-            sendLoginResult(client, "error", "Invalid username or password.");
+            reply.add("error");
+            reply.add("Session expired. Please log in again.");
         }
+        reply(args, client, reply);
     }
 
+    /**
+     * LOGOUT: end this connection's session and unbind its user
+     */
+    private boolean handleLogoutCommand(ConnectionToClient client) {
+        User user = client.getUser();
+        if (user == null) return false;
+        controller.endSession(client.getSessionToken());
+        client.setSessionToken(null);
+        client.setUser(null);
+        subscriptions.unsubscribe(client, null);
+        user.logout();
+        return true;
+    }
+
+    // Bind a user to the connection (commands and broadcasts use it),
+    // ending any other session this connection was bound through
+    private String bindSession(ConnectionToClient client, User user, String token) {
+        String previous = client.getSessionToken();
+        if (previous != null && !previous.equals(token)) controller.endSession(previous);
+        client.setSessionToken(token);
+        client.setUser(user);
+        return token;
+    }
 
-    private void sendLoginResult(ConnectionToClient client, String status, String message) {
+    private void sendLoginResult(CommandArgs args, ConnectionToClient client, String status, String message) {
+        sendLoginResult(args, client, status, message, null);
+    }
+
+    /**
+     * ["loginResult", status, message] plus the session token on success
+     */
+    private void sendLoginResult(CommandArgs args, ConnectionToClient client, String status,
+                                 String message, String token) {
         try {
-            ArrayList<Object> reply = new ArrayList<>();
+            ArrayList<Object> reply = new ArrayList<>(4);
             reply.add("loginResult");
             reply.add(status);
             reply.add(message);
-            client.sendToClient(reply);
+            if (token != null) reply.add(token);
+            reply(args, client, reply);
         } catch (Exception e) {
-            e.printStackTrace();
+            ServerLog.log("Cannot send login reply", e);
         }
     }
 
-    @SuppressWarnings("rawtypes")
-    private void handleSignupCommand(ArrayList list, ConnectionToClient client) {
+    private void handleSignupCommand(CommandArgs args, ConnectionToClient client) {
 
-        if (list.size() < 5) {
-            sendSignupResult(client, "error", "Invalid signup message.");
+        if (args.size() < 5) {
+            sendSignupResult(args, client, "error", "Invalid signup message.");
             return;
         }
 
-        String name     = String.valueOf(list.get(1));
-        String email    = String.valueOf(list.get(2));
-        String username = String.valueOf(list.get(3));
-        String password = String.valueOf(list.get(4));
+        String name     = args.getString(1);
+        String email    = args.getString(2);
+        String username = args.getString(3);
+        String password = args.getString(4);
 
         try {
             HomeGuest guest = controller.registerGuest(name, email, username, password);
-            sendSignupResult(client, "success",
+            sendSignupResult(args, client, "success",
                     "Signup successful. Welcome, " + guest.getUserName() + "!");
         } catch (IllegalArgumentException ex) {
-            sendSignupResult(client, "error", ex.getMessage());
+            sendSignupResult(args, client, "error", ex.getMessage());
         } catch (Exception e) {
-            e.printStackTrace();
-            sendSignupResult(client, "error", "Signup failed on server.");
+            ServerLog.log("Signup failed", e);
+            sendSignupResult(args, client, "error", "Signup failed on server.");
         }
     }
 
 
-    private void sendSignupResult(ConnectionToClient client, String status, String message) {
+    private void sendSignupResult(CommandArgs args, ConnectionToClient client, String status, String message) {
         try {
             ArrayList<Object> reply = new ArrayList<>();
             reply.add("signupResult");
             reply.add(status);
             reply.add(message);
-            client.sendToClient(reply);
+            reply(args, client, reply);
         } catch (Exception e) {
-            e.printStackTrace();
+            ServerLog.log("Cannot send signup result", e);
         }
     }
 
@@ -124,8 +338,18 @@ public class Server extends AbstractServer {
     //                               DEVICE COMMAND HANDLING
     // ===========================================================================================
 
-    @SuppressWarnings("rawtypes")
-    private void handleListCommand(ArrayList list, ConnectionToClient client) {
+    /** Log every command with its arguments: -Dhg.traceCommands=true */
+    private static final boolean TRACE_COMMANDS = Boolean.getBoolean("hg.traceCommands");
+
+    private void handleListCommand(List<?> list, ConnectionToClient client) {
+        handleListCommand(list, WireProtocol.NO_REQUEST_ID, client);
+    }
+
+    /**
+     * @param requestId Correlation id when the command came in a
+     *                  ["REQ", id, command] envelope
+     */
+    private void handleListCommand(List<?> list, int requestId, ConnectionToClient client) {
 
         if (list.isEmpty()) {
             controller.logActivity("Empty command list received from client.");
@@ -134,205 +358,684 @@ public class Server extends AbstractServer {
 
         Object cmdObj = list.get(0);
         if (!(cmdObj instanceof String)) {
-            controller.logActivity("First element of command list is not a String: " + cmdObj);
+            controller.logActivity("First element of command list is not a String: " + HGController.forLog(cmdObj));
+            return;
+        }
+
+        if (WireProtocol.REQUEST_TAG.equals(cmdObj) && requestId == WireProtocol.NO_REQUEST_ID) {
+            if (list.size() != 3 || !(list.get(1) instanceof Integer) || !(list.get(2) instanceof List)) {
+                controller.logActivity("Malformed request envelope from client: " + HGController.forLog(list));
+                client.sendToClient("ERROR");
+                return;
+            }
+            handleListCommand((List<?>) list.get(2), (Integer) list.get(1), client);
             return;
         }
 
-        String command = ((String) cmdObj).toUpperCase();
-        System.out.println("Command from client: " + command + "  | full: " + list);
+        CommandRegistry.Command command = commands.forName((String) cmdObj);
+        if (command == null) {
+            controller.logActivity("Unknown command from client: " + HGController.forLog(cmdObj));
+            reply(requestId, client, "ERROR");
+            return;
+        }
+        if (!command.accepts(list)) {
+            controller.logActivity("Malformed " + command.name + " command from client: " + HGController.forLog(list));
+            reply(requestId, client, "ERROR");
+            return;
+        }
 
-        boolean success = false;
-        Object response = null;
+        dispatch(command, new ListCommandArgs(list, command.name, requestId), client);
+    }
 
+    private void handleFrameCommand(CommandFrame frame, ConnectionToClient client) {
+        CommandRegistry.Command command = commands.forOpcode(frame.opcode());
+        if (command == null) {
+            controller.logActivity("Unknown command from client: " + HGController.forLog(frame.command()));
+            reply(frame, client, "ERROR");
+            return;
+        }
+        dispatch(command, frame, client);
+    }
+
+    /**
+     * Run a command now, or on its priority's pool if it is tagged (its
+     * reply carries the id, so it may finish after later requests) and
+     * does not need to stay in order: CRITICAL commands go to the reserved
+     * critical threads in order per device, the rest to the command pool.
+     * Frames are copied first: a blocking connection refills its
+     * CommandFrame with the next request.
+     */
+    private void dispatch(CommandRegistry.Command command, CommandArgs args, ConnectionToClient client) {
+        long received = System.nanoTime();
+        boolean critical = command.priority() == Priority.CRITICAL;
+        ExecutorService executor = critical ? criticalExecutor : commandExecutor;
+        DeviceLanes lanes = criticalLanes;
+        if (executor == null || args.requestId() == WireProtocol.NO_REQUEST_ID || command.isOrdered()
+                || (critical && lanes == null)) {
+            execute(command, args, client, received);
+            return;
+        }
+
+        CommandArgs task = (args instanceof CommandFrame) ? ((CommandFrame) args).copy() : args;
         try {
-            switch (command) {
-
-                // ---------------- AUTH ----------------
-                case "LOGIN":
-                    handleLoginCommand(list, client);
-                    return;
-
-                case "SIGNUP":
-                    handleSignupCommand(list, client);
-                    return;
-
-                // ---------------- LIGHTS ----------------
-                case "TOGGLE_LIGHT": {
-                    int id = (int) list.get(1);
-                    boolean on = (boolean) list.get(2);
-                    success = controller.toggleLight("light" + id, on);
-                    break;
-                }
+            if (critical) {
+                lanes.execute(command.firstDevice(task), () -> execute(command, task, client, received));
+            } else {
+                executor.execute(new LaneTask(command.priority(), laneSequence.getAndIncrement(),
+                        () -> execute(command, task, client, received)));
+            }
+        } catch (RejectedExecutionException e) {
+            execute(command, task, client, received); // Pool shut down: run it here
+        }
+    }
 
-                case "SET_LIGHT_BRIGHTNESS": {
-                    int id = (int) list.get(1);
-                    int value = (int) list.get(2);
-                    success = controller.setLightBrightness("light" + id, value);
-                    break;
-                }
+    /**
+     * CRITICAL commands the NIO transport should run on the reserved
+     * threads instead of queueing them behind other clients' commands
+     * (see setCriticalThreads). Connection-state (ordered) commands stay
+     * in the shared queue.
+     */
+    @Override
+    protected boolean isUrgent(Object msg) {
+        CommandRegistry.Command command = null;
+        if (msg instanceof CommandFrame) {
+            command = commands.forOpcode(((CommandFrame) msg).opcode());
+        } else if (msg instanceof ArrayList<?>) {
+            List<?> list = (List<?>) msg;
+            if (list.size() == 3 && WireProtocol.REQUEST_TAG.equals(list.get(0)) && list.get(2) instanceof List<?>) {
+                list = (List<?>) list.get(2); // ["REQ", id, command] envelope
+            }
+            if (!list.isEmpty() && list.get(0) instanceof String) command = commands.forName((String) list.get(0));
+        }
+        return command != null && command.priority() == Priority.CRITICAL && !command.isOrdered();
+    }
 
-                case "SET_LIGHT_COLOR": {
-                    int id = (int) list.get(1);
-                    int r = (int) list.get(2);
-                    int g = (int) list.get(3);
-                    int b = (int) list.get(4);
-                    success = controller.setLightColor("light" + id, r, g, b);
-                    break;
-                }
+    @Override
+    protected Executor urgentExecutor() {
+        return criticalExecutor;
+    }
 
-                case "SET_LIGHT_TIMEOUT": {
-                    int id = (int) list.get(1);
-                    int minutes = (int) list.get(2);
-                    success = controller.setLightTimeout("light" + id, minutes);
-                    break;
-                }
+    /**
+     * Runs one resolved command regardless of wire format (ArrayList or
+     * binary frame), sends its reply and records the time since receipt.
+     */
+    private void execute(CommandRegistry.Command command, CommandArgs args, ConnectionToClient client,
+                         long receivedNanos) {
+        try {
+            execute(command, args, client);
+        } finally {
+            latency[command.priority().ordinal()].recordSince(receivedNanos);
+        }
+    }
 
-                case "SET_LIGHT_MOTION_LINK": {
-                    int id = (int) list.get(1);
-                    boolean link = (boolean) list.get(2);
-                    success = controller.toggleLightMotionLink("light" + id, link);
-                    break;
-                }
+    private void execute(CommandRegistry.Command command, CommandArgs args, ConnectionToClient client) {
+        if (TRACE_COMMANDS) {
+            ServerLog.log("Command from client: " + command.name + "  | full: " + HGController.forLog(args));
+        }
+        if (!authorized(command, args, client)) {
+            reply(args, client, "ERROR");
+            return;
+        }
 
-                // ---------------- LOCKS ----------------
-                case "TOGGLE_LOCK": {
-                    int id = (int) list.get(1);
-                    boolean locked = (boolean) list.get(2);
-                    success = controller.toggleLock("lock" + id, locked);
-                    break;
-                }
+        Object reply;
+        try {
+            reply = command.handler.handle(args, client);
+        } catch (Exception e) {
+            ServerLog.log("Exception in " + command.name + " command", e);
+            controller.logActivity("Exception in " + command.name + " command: " + e);
+            reply = Boolean.FALSE;
+        }
 
-                case "SET_LOCK_DURATION": {
-                    int id = (int) list.get(1);
-                    int minutes = (int) list.get(2);
-                    success = controller.setLockDuration("lock" + id, minutes);
-                    break;
-                }
+        if (reply == CommandRegistry.REPLIED) return;
+        if (reply instanceof Boolean) {
+            reply(args, client, ((Boolean) reply) ? "OK" : "ERROR");
+        } else {
+            reply(args, client, reply);
+        }
+    }
 
-                case "LINK_LOCK_TO_ALARM": {
-                    int lockId = (int) list.get(1);
-                    int alarmId = (int) list.get(2);
-                    boolean link = (boolean) list.get(3);
-                    success = controller.linkLockToAlarm("lock" + lockId, "alarm" + alarmId, link);
-                    break;
-                }
+    /** Let connections without a logged-in user run commands: -Dhg.allowAnonymous=true */
+    private static final boolean ALLOW_ANONYMOUS = Boolean.getBoolean("hg.allowAnonymous");
 
-                // ---------------- CAMERAS ----------------
-                case "TOGGLE_CAMERA": {
-                    int id = (int) list.get(1);
-                    boolean on = (boolean) list.get(2);
-                    success = controller.toggleCamera("camera" + id, on);
-                    break;
-                }
+    /**
+     * Commands run as the connection's user: a user must be bound (LOGIN or
+     * RESUME) unless the command is anonymous, and every device the command
+     * names must be accessible to that user.
+     */
+    private boolean authorized(CommandRegistry.Command command, CommandArgs args, ConnectionToClient client) {
+        if (command.isAnonymous()) return true;
+        User user = client.getUser();
+        if (user == null) {
+            if (ALLOW_ANONYMOUS) return true;
+            controller.logActivity(command.name + " refused – not logged in");
+            return false;
+        }
+        if (!command.allowsDevices(args, client.getDeviceAccess())) {
+            controller.logActivity(command.name + " refused – " + user.getUsername() + " may not use that device");
+            return false;
+        }
+        return true;
+    }
 
-                case "TOGGLE_CAMERA_RECORDING": {
-                    int id = (int) list.get(1);
-                    boolean on = (boolean) list.get(2);
-                    success = controller.toggleCameraRecording("camera" + id, on);
-                    break;
-                }
+    /**
+     * Send one reply to a command, tagged with its correlation id if it had one
+     */
+    private static void reply(CommandArgs args, ConnectionToClient client, Object msg) {
+        reply(args.requestId(), client, msg);
+    }
 
-                case "TOGGLE_CAMERA_MOTION": {
-                    int id = (int) list.get(1);
-                    boolean on = (boolean) list.get(2);
-                    success = controller.toggleCameraMotion("camera" + id, on);
-                    break;
-                }
+    private static void reply(int requestId, ConnectionToClient client, Object msg) {
+        if (requestId == WireProtocol.NO_REQUEST_ID) {
+            client.sendToClient(msg);
+        } else if (client.isBinary()) {
+            client.sendToClient(new TaggedReply(requestId, msg));
+        } else {
+            ArrayList<Object> tagged = new ArrayList<>(3);
+            tagged.add(WireProtocol.RESPONSE_TAG);
+            tagged.add(requestId);
+            tagged.add(msg);
+            client.sendToClient(tagged);
+        }
+    }
 
-                case "REQUEST_CAMERA_FOOTAGE": {
-                    int id = (int) list.get(1);
-                    String range = (String) list.get(2);
-                    controller.requestCameraFootage("camera" + id, range);
-                    success = true;
-                    break;
-                }
+    /**
+     * Build the dispatch table. Device numbers are resolved through the
+     * registry's per-type tables, so no device ID string is built per call.
+     */
+    private CommandRegistry createCommandTable() {
+        CommandRegistry table = new CommandRegistry();
+        DeviceRegistry registry = controller.getDeviceRegistry();
+        DeviceRegistry.Numbered<SmartLight> lights = registry.numbered(SmartLight.class);
+        DeviceRegistry.Numbered<SmartLock> locks = registry.numbered(SmartLock.class);
+        DeviceRegistry.Numbered<SecurityCamera> cameras = registry.numbered(SecurityCamera.class);
+        DeviceRegistry.Numbered<Alarm> alarms = registry.numbered(Alarm.class);
+        DeviceRegistry.Numbered<MotionSensor> sensors = registry.numbered(MotionSensor.class);
 
-                // ---------------- ALARMS ----------------
-                case "TOGGLE_ALARM": {
-                    int id = (int) list.get(1);
-                    boolean on = (boolean) list.get(2);
-                    success = controller.toggleAlarmWithString("alarm" + id, on);
-                    break;
-                }
+        // ---------------- AUTH (handlers validate and reply themselves) ----------------
+        table.register(WireProtocol.OP_LOGIN, 0, (args, client) -> {
+            handleLoginCommand(args, client);
+            return CommandRegistry.REPLIED;
+        }).ordered().anonymous();
+        table.register(WireProtocol.OP_SIGNUP, 0, (args, client) -> {
+            handleSignupCommand(args, client);
+            return CommandRegistry.REPLIED;
+        }).ordered().anonymous();
+        table.register(WireProtocol.OP_RESUME, (args, client) -> {
+            handleResumeCommand(args, client);
+            return CommandRegistry.REPLIED;
+        }).ordered().anonymous();
+        table.register(WireProtocol.OP_LOGOUT, (args, client) -> handleLogoutCommand(client)).ordered();
 
-                case "TOGGLE_ALARM_MOTION": {
-                    int id = (int) list.get(1);
-                    boolean on = (boolean) list.get(2);
-                    success = controller.toggleAlarmMotion("alarm" + id, on);
-                    break;
-                }
+        // ---------------- BATCH (device commands only) ----------------
+        table.register(WireProtocol.OP_BATCH, 1, (args, client) -> handleBatchCommand(args, client));
 
-                case "TOGGLE_ALARM_RECORD_ON_CAM": {
-                    int aId = (int) list.get(1);
-                    int cId = (int) list.get(2);
-                    boolean on = (boolean) list.get(3);
-                    success = controller.toggleAlarmRecordOnCam("alarm" + aId, "camera" + cId, on);
-                    break;
-                }
+        // ---------------- LIGHTS ----------------
+        table.register(WireProtocol.OP_TOGGLE_LIGHT, (args, client) -> {
+            SmartLight light = lights.get(args.getInt(1));
+            return (light != null) ? controller.toggleLight(light, args.getBoolean(2))
+                                   : missingDevice(args, "light", 1);
+        }).device(1, lights);
+        table.register(WireProtocol.OP_SET_LIGHT_BRIGHTNESS, (args, client) -> {
+            SmartLight light = lights.get(args.getInt(1));
+            return (light != null) ? controller.setLightBrightness(light, args.getInt(2))
+                                   : missingDevice(args, "light", 1);
+        }).device(1, lights).priority(Priority.BULK);
+        table.register(WireProtocol.OP_SET_LIGHT_COLOR, (args, client) -> {
+            SmartLight light = lights.get(args.getInt(1));
+            return (light != null) ? controller.setLightColor(light, args.getInt(2), args.getInt(3), args.getInt(4))
+                                   : missingDevice(args, "light", 1);
+        }).device(1, lights).priority(Priority.BULK);
+        table.register(WireProtocol.OP_SET_LIGHT_TIMEOUT, (args, client) -> {
+            SmartLight light = lights.get(args.getInt(1));
+            return (light != null) ? controller.setLightTimeout(light, args.getInt(2))
+                                   : missingDevice(args, "light", 1);
+        }).device(1, lights);
+        table.register(WireProtocol.OP_SET_LIGHT_MOTION_LINK, (args, client) -> {
+            SmartLight light = lights.get(args.getInt(1));
+            return (light != null) ? controller.toggleLightMotionLink(light, args.getBoolean(2))
+                                   : missingDevice(args, "light", 1);
+        }).device(1, lights);
+
+        // ---------------- LOCKS ----------------
+        table.register(WireProtocol.OP_TOGGLE_LOCK, (args, client) -> {
+            SmartLock lock = locks.get(args.getInt(1));
+            return (lock != null) ? controller.toggleLock(lock, args.getBoolean(2))
+                                  : missingDevice(args, "lock", 1);
+        }).device(1, locks).priority(Priority.CRITICAL);
+        table.register(WireProtocol.OP_SET_LOCK_DURATION, (args, client) -> {
+            SmartLock lock = locks.get(args.getInt(1));
+            return (lock != null) ? controller.setLockDuration(lock, args.getInt(2))
+                                  : missingDevice(args, "lock", 1);
+        }).device(1, locks).priority(Priority.CRITICAL);
+        table.register(WireProtocol.OP_LINK_LOCK_TO_ALARM, (args, client) -> {
+            SmartLock lock = locks.get(args.getInt(1));
+            Alarm alarm = alarms.get(args.getInt(2));
+            if (lock == null) return missingDevice(args, "lock", 1);
+            if (alarm == null) return missingDevice(args, "alarm", 2);
+            return controller.linkLockToAlarm(lock, alarm, args.getBoolean(3));
+        }).device(1, locks).device(2, alarms).priority(Priority.CRITICAL);
+
+        // ---------------- CAMERAS ----------------
+        table.register(WireProtocol.OP_TOGGLE_CAMERA, (args, client) -> {
+            SecurityCamera cam = cameras.get(args.getInt(1));
+            return (cam != null) ? controller.toggleCamera(cam, args.getBoolean(2))
+                                 : missingDevice(args, "camera", 1);
+        }).device(1, cameras);
+        table.register(WireProtocol.OP_TOGGLE_CAMERA_RECORDING, (args, client) -> {
+            SecurityCamera cam = cameras.get(args.getInt(1));
+            return (cam != null) ? controller.toggleCameraRecording(cam, args.getBoolean(2))
+                                 : missingDevice(args, "camera", 1);
+        }).device(1, cameras).priority(Priority.CRITICAL);
+        table.register(WireProtocol.OP_TOGGLE_CAMERA_MOTION, (args, client) -> {
+            SecurityCamera cam = cameras.get(args.getInt(1));
+            return (cam != null) ? controller.toggleCameraMotion(cam, args.getBoolean(2))
+                                 : missingDevice(args, "camera", 1);
+        }).device(1, cameras);
+        table.register(WireProtocol.OP_REQUEST_CAMERA_FOOTAGE, (args, client) -> {
+            SecurityCamera cam = cameras.get(args.getInt(1));
+            if (cam == null) return missingDevice(args, "camera", 1);
+            controller.requestCameraFootage(cam, args.getString(2));
+            return true;
+        }).device(1, cameras);
 
-                // ---------------- MOTION SENSOR ----------------
-                case "SET_MOTION_SENSITIVITY": {
-                    int value = (int) list.get(1);
-                    success = controller.setMotionSensitivity(value);
-                    break;
+        // ---------------- ALARMS ----------------
+        table.register(WireProtocol.OP_TOGGLE_ALARM, (args, client) -> {
+            Alarm alarm = alarms.get(args.getInt(1));
+            return (alarm != null) ? controller.toggleAlarm(alarm, args.getBoolean(2))
+                                   : missingDevice(args, "alarm", 1);
+        }).device(1, alarms).priority(Priority.CRITICAL);
+        table.register(WireProtocol.OP_TOGGLE_ALARM_MOTION, (args, client) -> {
+            Alarm alarm = alarms.get(args.getInt(1));
+            return (alarm != null) ? controller.toggleAlarmMotion(alarm, args.getBoolean(2))
+                                   : missingDevice(args, "alarm", 1);
+        }).device(1, alarms).priority(Priority.CRITICAL);
+        table.register(WireProtocol.OP_TOGGLE_ALARM_RECORD_ON_CAM, (args, client) -> {
+            Alarm alarm = alarms.get(args.getInt(1));
+            SecurityCamera cam = cameras.get(args.getInt(2));
+            if (alarm == null) return missingDevice(args, "alarm", 1);
+            if (cam == null) return missingDevice(args, "camera", 2);
+            return controller.toggleAlarmRecordOnCam(alarm, cam, args.getBoolean(3));
+        }).device(1, alarms).device(2, cameras).priority(Priority.CRITICAL);
+        // Starts the linked cameras recording and engages the linked locks
+        table.register(WireProtocol.OP_TRIGGER_ALARM, (args, client) -> {
+            Alarm alarm = alarms.get(args.getInt(1));
+            return (alarm != null) ? controller.triggerAlarm(alarm)
+                                   : missingDevice(args, "alarm", 1);
+        }).device(1, alarms).cascades().priority(Priority.CRITICAL);
+
+        // ---------------- MOTION SENSOR ----------------
+        // Names no device: only the lights the session may use are changed
+        table.register(WireProtocol.OP_SET_MOTION_SENSITIVITY, (args, client) -> controller.setMotionSensitivity(
+                args.getInt(1), (client.getUser() != null) ? client.getDeviceAccess() : DeviceAccess.ALL));
+        table.register(WireProtocol.OP_MOTION_EVENT, (args, client) -> {
+            MotionSensor sensor = sensors.get(args.getInt(1));
+            return (sensor != null) ? controller.motionEvent(sensor, args.getInt(2))
+                                    : missingDevice(args, "motion", 1);
+        }).device(1, sensors).cascades();
+
+        // ---------------- ACTIVITY LOGS ----------------
+        table.register(WireProtocol.OP_GET_LOGS, (args, client) -> controller.getLogs(logVisibility(client)))
+                .priority(Priority.BULK);
+        table.register(WireProtocol.OP_GET_LOGS_PAGE, 0, (args, client) -> {
+            handleLogPageCommand(args, client);
+            return CommandRegistry.REPLIED;
+        }).priority(Priority.BULK);
+
+        // ---------------- STATE SUBSCRIPTIONS ----------------
+        table.register(WireProtocol.OP_SUBSCRIBE, 0, (args, client) -> {
+            handleSubscribeCommand(args, client);
+            return CommandRegistry.REPLIED;
+        }).ordered();
+        table.register(WireProtocol.OP_UNSUBSCRIBE, 0, (args, client) -> {
+            subscriptions.unsubscribe(client, subscriptionTarget(args));
+            return true;
+        }).ordered();
+
+        return table;
+    }
+
+    // Unknown device number: log it (only this path builds the ID string)
+    private boolean missingDevice(CommandArgs args, String type, int index) {
+        controller.logActivity(args.command() + " failed – no device " + type + args.getInt(index));
+        return false;
+    }
+
+    // ===========================================================================================
+    //                               BATCH
+    // ===========================================================================================
+
+    /**
+     * BATCH [[sub-command...], validateFirst]
+     *
+     * Runs device commands in order in one round trip. Sub-commands are
+     * ArrayLists (["TOGGLE_LIGHT", 1, true]) in the list protocol and nested
+     * frames in the binary one. Replies ["batchResult", okCount, [code...]]
+     * with one WireProtocol.BATCH_* code per sub-command.
+     *
+     * Each sub-command's devices are checked against the logged-in user.
+     * With validateFirst every sub-command is validated first and none runs
+     * if any is invalid or denied. Otherwise the command locks of all devices
+     * involved are held for the whole batch, so no other command interleaves,
+     * and the batch stops at the first failure. This is validate-then-stop,
+     * not a transaction: sub-commands that already ran are not undone (their
+     * events and log entries are already out), and the reply's codes say
+     * which ones ran. Commands that cascade to linked devices (MOTION_EVENT,
+     * TRIGGER_ALARM) would take locks outside that set, so they are invalid
+     * in such a batch.
+     */
+    private Object handleBatchCommand(CommandArgs args, ConnectionToClient client) {
+        List<?> items = args.getList(1);
+        boolean validateFirst = (args.size() > 2) && args.getBoolean(2);
+        if (items.size() > WireProtocol.MAX_BATCH_ITEMS) {
+            controller.logActivity("BATCH refused – " + items.size() + " commands (max "
+                    + WireProtocol.MAX_BATCH_ITEMS + ")");
+            return false;
+        }
+
+        int count = items.size();
+        CommandRegistry.Command[] batch = new CommandRegistry.Command[count];
+        CommandArgs[] batchArgs = new CommandArgs[count];
+        int[] codes = new int[count];
+        List<Device> devices = new ArrayList<>();
+        boolean invalid = false;
+
+        // ---- Resolve and validate everything before running anything ----
+        for (int i = 0; i < count; i++) {
+            Object item = items.get(i);
+            CommandRegistry.Command command = null;
+            CommandArgs itemArgs = null;
+            if (item instanceof CommandFrame) {
+                itemArgs = (CommandFrame) item;
+                command = commands.forOpcode(((CommandFrame) item).opcode());
+            } else if (item instanceof List && !((List<?>) item).isEmpty()
+                    && ((List<?>) item).get(0) instanceof String) {
+                List<?> list = (List<?>) item;
+                command = commands.forName((String) list.get(0));
+                if (command != null && command.accepts(list)) {
+                    itemArgs = new ListCommandArgs(list, command.name);
+                } else {
+                    command = null;
                 }
+            }
+
+            int resolved = devices.size();
+            if (command == null || !command.isDeviceCommand() || (validateFirst && command.isCascading())
+                    || !command.resolveDevices(itemArgs, devices)) {
+                devices.subList(resolved, devices.size()).clear();
+                controller.logActivity("BATCH item " + i + " invalid: " + HGController.forLog(item));
+                codes[i] = WireProtocol.BATCH_INVALID;
+                invalid = true;
+                continue;
+            }
+            User user = client.getUser();
+            if (user != null && !command.allowsDevices(itemArgs, client.getDeviceAccess())) {
+                devices.subList(resolved, devices.size()).clear();
+                controller.logActivity("BATCH item " + i + " refused for " + user.getUsername() + ": " + HGController.forLog(item));
+                codes[i] = WireProtocol.BATCH_DENIED;
+                invalid = true;
+                continue;
+            }
+            batch[i] = command;
+            batchArgs[i] = itemArgs;
+        }
 
-                // ---------------- ACTIVITY LOGS ----------------
-                case "GET_LOGS": {
-                    response = controller.getAllLogs();
-                    success = true;
-                    break;
+        if (!validateFirst) {
+            runBatch(batch, batchArgs, codes, false, client);
+        } else if (invalid) {
+            for (int i = 0; i < count; i++) {
+                if (batch[i] != null) codes[i] = WireProtocol.BATCH_NOT_RUN;
+            }
+        } else {
+            // One consistent order (device ID) so concurrent batches cannot deadlock;
+            // the locks are reentrant, so each command still takes its own as usual
+            devices.sort(Comparator.comparing(Device::getDeviceID));
+            int locked = 0;
+            try {
+                for (Device device : devices) {
+                    device.getCommandLock().lock();
+                    locked++;
+                }
+                runBatch(batch, batchArgs, codes, true, client);
+            } finally {
+                for (int i = locked - 1; i >= 0; i--) {
+                    devices.get(i).getCommandLock().unlock();
                 }
+            }
+        }
+
+        ArrayList<Integer> results = new ArrayList<>(count);
+        int ok = 0;
+        for (int code : codes) {
+            if (code == WireProtocol.BATCH_OK) ok++;
+            results.add(code);
+        }
+        ArrayList<Object> reply = new ArrayList<>(3);
+        reply.add("batchResult");
+        reply.add(ok);
+        reply.add(results);
+        return reply;
+    }
 
-                default:
-                    controller.logActivity("Unknown command from client: " + command);
-                    success = false;
+    /**
+     * Run the valid sub-commands in order, recording a code for each.
+     * @param stopOnFailure Mark everything after the first failure NOT_RUN
+     */
+    private void runBatch(CommandRegistry.Command[] batch, CommandArgs[] batchArgs, int[] codes,
+                          boolean stopOnFailure, ConnectionToClient client) {
+        boolean stopped = false;
+        for (int i = 0; i < batch.length; i++) {
+            if (batch[i] == null) continue;
+            if (stopped) {
+                codes[i] = WireProtocol.BATCH_NOT_RUN;
+                continue;
+            }
+            if (TRACE_COMMANDS) {
+                ServerLog.log("Command from client: BATCH[" + i + "] " + batch[i].name + "  | full: " + HGController.forLog(batchArgs[i]));
             }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            controller.logActivity("Exception in handleListCommand for command " + command + ": " + e);
-            success = false;
+            boolean ok;
+            try {
+                ok = Boolean.TRUE.equals(batch[i].handler.handle(batchArgs[i], client));
+            } catch (Exception e) {
+                ServerLog.log("Exception in BATCH " + batch[i].name + " command", e);
+                controller.logActivity("Exception in BATCH " + batch[i].name + " command: " + e);
+                ok = false;
+            }
+            codes[i] = ok ? WireProtocol.BATCH_OK : WireProtocol.BATCH_FAILED;
+            stopped = stopOnFailure && !ok;
         }
+    }
 
-        try {
-            if (response != null)
-                client.sendToClient(response);
-            else
-                client.sendToClient(success ? "OK" : "ERROR");
-        } catch (Exception e) {
-            e.printStackTrace();
+    // ===========================================================================================
+    //                               PAGED ACTIVITY LOGS
+    // ===========================================================================================
+
+    /** Page size when the client does not give one */
+    private static final int DEFAULT_LOG_PAGE = 100;
+    /** Largest page a client may request */
+    private static final int MAX_LOG_PAGE = 1000;
+    /** Entries per streamed chunk message */
+    private static final int LOG_CHUNK = 100;
+
+    /**
+     * GET_LOGS_PAGE [cursor, pageSize, fromMillis, toMillis, deviceId, username]
+     * (trailing arguments are optional in the ArrayList protocol; 0 / "" = no filter)
+     *
+     *  - cursor >= 0: matching entries with sequence >= cursor, oldest first
+     *  - cursor < 0:  the newest pageSize matching entries
+     *
+     * The page is streamed as ["logChunk", [ActivityLog...]] messages of at
+     * most LOG_CHUNK entries, read from the log store as they are sent, and
+     * ends with ["logPage", nextCursor, count, more]. Sending nextCursor
+     * back continues the listing (or polls for newer entries).
+     */
+    private void handleLogPageCommand(CommandArgs args, ConnectionToClient client) {
+        long cursor     = (args.size() > 1) ? args.getLong(1) : -1;
+        int pageSize    = (args.size() > 2) ? args.getInt(2) : DEFAULT_LOG_PAGE;
+        long fromMillis = (args.size() > 3) ? args.getLong(3) : 0;
+        long toMillis   = (args.size() > 4) ? args.getLong(4) : 0;
+        String deviceId = (args.size() > 5) ? args.getString(5) : null;
+        String username = (args.size() > 6) ? args.getString(6) : null;
+        pageSize = Math.max(1, Math.min(pageSize, MAX_LOG_PAGE));
+
+        LogQuery query = new LogQuery(fromMillis, toMillis, deviceId, username).visibleOnly(logVisibility(client));
+        ActivityLogStore logs = controller.getLogStore();
+        int count = 0;
+        long nextCursor;
+
+        if (cursor < 0) {
+            nextCursor = logs.nextSequence();
+            List<ActivityLog> latest = logs.readLatest(nextCursor, query, pageSize);
+            for (int i = 0; i < latest.size(); i += LOG_CHUNK) {
+                sendLogChunk(args, client, new ArrayList<>(latest.subList(i, Math.min(i + LOG_CHUNK, latest.size()))));
+            }
+            count = latest.size();
+        } else {
+            ActivityLogStore.LogReader reader = logs.openReader(cursor, query);
+            boolean more = true;
+            while (more && count < pageSize) {
+                ArrayList<ActivityLog> chunk = new ArrayList<>(Math.min(LOG_CHUNK, pageSize - count));
+                more = reader.read(chunk, Math.min(LOG_CHUNK, pageSize - count));
+                if (!chunk.isEmpty()) {
+                    sendLogChunk(args, client, chunk);
+                    count += chunk.size();
+                }
+            }
+            nextCursor = reader.nextSequence();
+        }
+
+        ArrayList<Object> end = new ArrayList<>(4);
+        end.add("logPage");
+        end.add(nextCursor);
+        end.add(count);
+        end.add(count == pageSize); // Page full: there may be more
+        reply(args, client, end);
+    }
+
+    /**
+     * Activity log entries the connection's user may read: admins see every
+     * entry; anyone else only entries for devices they can use and entries
+     * attributed to themselves (null = no restriction)
+     */
+    private Predicate<ActivityLog> logVisibility(ConnectionToClient client) {
+        User user = client.getUser();
+        DeviceAccess access = client.getDeviceAccess();
+        if (user == null || access == DeviceAccess.ALL) return null; // Admin, or anonymous access allowed
+        String self = user.getUsername();
+        DeviceRegistry registry = controller.getDeviceRegistry();
+        return log -> self.equals(log.getUsername())
+                || (log.getDeviceId() != null && access.allows(registry.get(log.getDeviceId())));
+    }
+
+    private static void sendLogChunk(CommandArgs args, ConnectionToClient client, ArrayList<ActivityLog> entries) {
+        ArrayList<Object> chunk = new ArrayList<>(2);
+        chunk.add("logChunk");
+        chunk.add(entries);
+        reply(args, client, chunk);
+    }
+
+    // ===========================================================================================
+    //                               DEVICE STATE SUBSCRIPTIONS
+    // ===========================================================================================
+
+    /**
+     * SUBSCRIBE [deviceId]   ("" / "*" / omitted = every device)
+     *
+     * Requires a logged-in user. Replies with one
+     * ["deviceSnapshot", deviceId, [property, value, ...]] per subscribed
+     * device the user may access, then "OK". From then on each change is
+     * pushed as ["deviceState", deviceId, property, value, timestamp] until
+     * UNSUBSCRIBE or disconnect. Access is re-checked for every event.
+     */
+    private void handleSubscribeCommand(CommandArgs args, ConnectionToClient client) {
+        String deviceId = subscriptionTarget(args);
+        List<Device> targets;
+        if (deviceId == null) {
+            targets = controller.getAllDevices();
+        } else {
+            Device device = controller.getDeviceRegistry().get(deviceId);
+            targets = (device != null) ? List.of(device) : List.of();
+        }
+
+        if (client.getUser() == null || (deviceId != null && targets.isEmpty())) {
+            reply(args, client, "ERROR");
+            return;
+        }
+
+        // Subscribe before taking snapshots: a change made in between is
+        // either in the snapshot or queued after it, never lost
+        subscriptions.subscribe(client, deviceId);
+        for (Device device : targets) {
+            if (!client.canAccessDevice(device)) continue;
+            controller.withDeviceState(device, state -> reply(args, client, snapshotMessage(device, state)));
         }
+        reply(args, client, "OK");
+    }
+
+    // Device ID argument of SUBSCRIBE / UNSUBSCRIBE, or null for all devices
+    private static String subscriptionTarget(CommandArgs args) {
+        String deviceId = (args.size() > 1) ? args.getString(1) : null;
+        return (deviceId == null || deviceId.isBlank() || "*".equals(deviceId)) ? null : deviceId;
+    }
+
+    private static ArrayList<Object> snapshotMessage(Device device, Map<String, Object> state) {
+        ArrayList<Object> properties = new ArrayList<>(state.size() * 2);
+        for (Map.Entry<String, Object> e : state.entrySet()) {
+            properties.add(e.getKey());
+            properties.add(e.getValue());
+        }
+        ArrayList<Object> msg = new ArrayList<>(3);
+        msg.add("deviceSnapshot");
+        msg.add(device.getDeviceID());
+        msg.add(properties);
+        return msg;
     }
 
     // ===========================================================================================
 
     private void handleLegacyStringMessage(String msg, ConnectionToClient client) {
-        System.out.println("Legacy message from client: " + msg);
+        ServerLog.log("Legacy message from client: " + HGController.forLog(msg));
         String[] parts = msg.trim().split("\\s+");
         if (parts.length < 2) {
-            controller.logActivity("Invalid legacy command: " + msg);
+            controller.logActivity("Invalid legacy command: " + HGController.forLog(msg));
             return;
         }
 
         String deviceId = parts[0];
         String command = parts[1];
 
-        boolean success = controller.controlDevice(deviceId, command);
+        // Same rule as list/binary commands: run as the bound user
+        Device device = controller.getDeviceRegistry().get(deviceId);
+        boolean allowed = (client.getUser() == null) ? ALLOW_ANONYMOUS
+                                                     : device == null || client.canAccessDevice(device);
+        boolean success = allowed && controller.controlDevice(deviceId, command);
         try {
             client.sendToClient(success ? "OK" : "ERROR");
         } catch (Exception e) {
-            e.printStackTrace();
+            ServerLog.log("Cannot send device command reply", e);
         }
     }
 
+    @Override
+    protected void clientDisconnected(ConnectionToClient client) {
+        subscriptions.unsubscribe(client, null);
+    }
+
     @Override
     protected void serverStarted() {
-        System.out.println("Server started on port " + getPort());
+        ServerLog.log("Server started on port " + getPort());
     }
 
     @Override
     protected void serverStopped() {
-        System.out.println("Server stopped.");
+        ServerLog.log("Server stopped.");
+    }
+
+    @Override
+    protected void serverClosed() {
+        setCommandThreads(0);
+        setCriticalThreads(0);
+        setLatencyReportSeconds(0);
+        logLatency();
     }
 }
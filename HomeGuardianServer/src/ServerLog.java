@@ -0,0 +1,277 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class: ServerLog
+ *
+ * Description:
+ * Diagnostic output for the server ("[ACTIVITY] ...", "Command from
+ * client: ...") without console I/O on the threads that produce it.
+ *
+ * log() only puts the line in a bounded queue. A single writer thread
+ * drains the queue in batches and hands each batch to the LogSink in one
+ * write, so the PrintStream lock and the underlying syscall are paid once
+ * per batch instead of once per line, and never by a command thread.
+ * When the queue is full the LogOverflowPolicy decides what is dropped.
+ * logCritical() lines (alarms, emergency notifications) use a separate
+ * queue that the writer empties first and that no policy drops from.
+ *
+ * Starts as an unconfigured CONSOLE log; HomeGuardianServerMain calls
+ * configure() with the -Dhg.serverLog* settings and shutdown() on exit.
+ * This is not the activity log: ActivityLogStore keeps that.
+ */
+public final class ServerLog {
+
+    /** Lines queued before the overflow policy applies */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /** Most lines written per batch */
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_POLL_MILLIS = 100;
+    /** Critical lines queued before logCritical() falls back to a direct write */
+    private static final int URGENT_CAPACITY = 1024;
+    // Queued after a critical line so an idle writer wakes up; never written
+    private static final String WAKE = new String("wake");
+    private static final String NEWLINE = System.lineSeparator();
+
+    private static volatile ServerLog current =
+            new ServerLog(LogSink.CONSOLE, null, DEFAULT_CAPACITY, LogOverflowPolicy.DROP_NEWEST, 0);
+
+    private final LogSink sink;
+    private final Writer file;                     // FILE sink only
+    private final ArrayBlockingQueue<String> queue;
+    private final ArrayBlockingQueue<String> urgent = new ArrayBlockingQueue<>(URGENT_CAPACITY);
+    private final LogOverflowPolicy policy;
+    private final long blockTimeoutNanos;
+    private final Thread writer;                   // null for NONE
+    private volatile boolean closed;
+
+    // ---- COUNTERS ----
+    private final LongAdder dropped = new LongAdder();
+    private volatile long written;                 // Writer thread only
+
+    private ServerLog(LogSink sink, Writer file, int capacity,
+                      LogOverflowPolicy policy, long blockTimeoutMillis) {
+        this.sink = sink;
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.policy = (policy != null) ? policy : LogOverflowPolicy.DROP_NEWEST;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutMillis));
+
+        if (sink == LogSink.NONE) {
+            this.writer = null;
+        } else {
+            this.writer = new Thread(this::writeLoop, "hg-server-log");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+    }
+
+    // =====================================================
+    // ===================== STATIC API ====================
+    // =====================================================
+
+    /**
+     * Queue one line for output. Never waits unless the policy is BLOCK.
+     */
+    public static void log(String line) {
+        current.offer(line);
+    }
+
+    /**
+     * Queue a line followed by the error's stack trace, as one entry so the
+     * trace is never interleaved with other threads' lines.
+     */
+    public static void log(String line, Throwable error) {
+        if (!isEnabled()) return;
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        current.offer(line + NEWLINE + trace.toString().stripTrailing());
+    }
+
+    /**
+     * Queue one line ahead of everything logged with log(). Never waits and
+     * is never dropped by the overflow policy; if even the critical queue
+     * is full the line is printed directly.
+     */
+    public static void logCritical(String line) {
+        current.offerCritical(line);
+    }
+
+    /**
+     * @return false when output is discarded, so callers can skip building
+     *         expensive lines
+     */
+    public static boolean isEnabled() {
+        return current.sink != LogSink.NONE;
+    }
+
+    /**
+     * Replace the current log. Lines already queued on the old one are
+     * still written before its writer exits.
+     * @param file Output file for the FILE sink (ignored otherwise)
+     * @throws IOException if the FILE sink cannot be opened; the current
+     *                     log is kept
+     */
+    public static void configure(LogSink sink, Path file, int capacity,
+                                 LogOverflowPolicy policy, long blockTimeoutMillis) throws IOException {
+        Writer out = null;
+        if (sink == LogSink.FILE) {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        ServerLog previous = current;
+        current = new ServerLog(sink, out, capacity, policy, blockTimeoutMillis);
+        previous.close();
+    }
+
+    /**
+     * Write out everything queued so far and stop (called on shutdown).
+     * Later lines go straight to the console.
+     */
+    public static void shutdown() {
+        current.close();
+    }
+
+    /**
+     * @return lines discarded by the overflow policy
+     */
+    public static long droppedCount() {
+        return current.dropped.sum();
+    }
+
+    /**
+     * @return lines handed to the sink
+     */
+    public static long writtenCount() {
+        return current.written;
+    }
+
+    // =====================================================
+    // ===================== PRODUCERS =====================
+    // =====================================================
+
+    private void offer(String line) {
+        if (writer == null) return;
+        if (closed) {
+            System.out.println(line); // Shutting down: nothing left to hand off to
+            return;
+        }
+        if (queue.offer(line)) return;
+
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!queue.offer(line)) {
+                    if (queue.poll() != null) dropped.increment();
+                }
+                break;
+            case BLOCK:
+                try {
+                    if (!queue.offer(line, blockTimeoutNanos, TimeUnit.NANOSECONDS)) dropped.increment();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                }
+                break;
+            default:
+                dropped.increment();
+        }
+    }
+
+    private void offerCritical(String line) {
+        if (writer == null) return;
+        if (closed || !urgent.offer(line)) {
+            System.out.println(line);
+            return;
+        }
+        queue.offer(WAKE); // If the queue is full the writer is busy and will see it anyway
+    }
+
+    private void close() {
+        closed = true;
+        if (writer == null) return;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // =====================================================
+    // ====================== WRITER =======================
+    // =====================================================
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        StringBuilder text = new StringBuilder(8192);
+        long reportedDrops = 0;
+
+        while (true) {
+            String first = null;
+            try {
+                first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+            urgent.drainTo(batch, MAX_BATCH); // Critical lines go out first
+            if (first == null && batch.isEmpty()) {
+                if (closed && queue.isEmpty() && urgent.isEmpty()) break;
+                continue;
+            }
+
+            if (first != null) batch.add(first);
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+            batch.removeIf(line -> line == WAKE);
+            if (batch.isEmpty()) continue;
+
+            text.setLength(0);
+            long drops = dropped.sum();
+            if (drops != reportedDrops) {
+                text.append("[LOG] ").append(drops - reportedDrops)
+                    .append(" log line(s) dropped, queue full").append(NEWLINE);
+                reportedDrops = drops;
+            }
+            for (String line : batch) {
+                text.append(line).append(NEWLINE);
+            }
+            write(text);
+            written += batch.size();
+            batch.clear();
+        }
+
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                System.err.println("[LOG] Failed to close server log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void write(CharSequence text) {
+        if (sink == LogSink.FILE) {
+            try {
+                file.append(text);
+                file.flush();
+            } catch (IOException e) {
+                System.err.println("[LOG] Failed to write server log: " + e.getMessage());
+            }
+        } else {
+            PrintStream out = System.out; // Read per batch so System.setOut() is honoured
+            out.print(text);
+            out.flush();
+        }
+    }
+}
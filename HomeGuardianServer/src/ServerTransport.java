@@ -0,0 +1,31 @@
+/**
+ * Class: ServerTransport
+ *
+ * Description:
+ * Selects how AbstractServer accepts and services client connections.
+ *
+ *  - BLOCKING: one thread per client, each blocking on ObjectInputStream.
+ *              Speaks the plain Java serialization stream used by the
+ *              original desktop/mobile clients.
+ *  - NIO:      a small pool of Selector event loops services every client.
+ *              Each message is sent as a length-prefixed frame holding one
+ *              independently serialized object (see NioConnectionToClient).
+ *              Commands run on a separate worker pool, not the loops.
+ */
+public enum ServerTransport {
+    BLOCKING,
+    NIO;
+
+    /**
+     * Parses a transport name (case-insensitive), falling back to BLOCKING
+     * when the value is missing or unknown.
+     */
+    public static ServerTransport fromString(String value) {
+        if (value == null) return BLOCKING;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return BLOCKING;
+        }
+    }
+}
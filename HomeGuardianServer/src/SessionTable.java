@@ -0,0 +1,129 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class: SessionTable
+ *
+ * Description:
+ * Server-side login sessions. LOGIN issues an opaque token (128 random
+ * bits, URL-safe base64); RESUME presents it on a new connection and gets
+ * the same user bound again without re-authenticating.
+ *
+ * Tokens are hashed, so issue, resume and end are O(1). A session expires
+ * after ttlMillis without use (each resume extends it). Expired sessions
+ * are dropped when looked up, and by a sweep every SWEEP_INTERVAL issues,
+ * so the table does not need its own thread.
+ */
+public class SessionTable {
+
+    /** Idle time after which a session can no longer be resumed */
+    public static final long DEFAULT_TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    /** Sessions issued between two sweeps of expired entries */
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private static final int TOKEN_BYTES = 16;
+
+    /**
+     * One issued session
+     */
+    static final class Session {
+        final String token;
+        final User user;
+        volatile long expiresAt;
+
+        Session(String token, User user, long expiresAt) {
+            this.token = token;
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicInteger issuedSinceSweep = new AtomicInteger();
+    private volatile long ttlMillis;
+
+    public SessionTable() {
+        this(DEFAULT_TTL_MILLIS);
+    }
+
+    public SessionTable(long ttlMillis) {
+        setTtlMillis(ttlMillis);
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = Math.max(1, ttlMillis);
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Start a session for an authenticated user.
+     * @return the session token to hand to the client
+     */
+    public String issue(User user) {
+        long now = System.currentTimeMillis();
+        if (issuedSinceSweep.incrementAndGet() >= SWEEP_INTERVAL) {
+            issuedSinceSweep.set(0);
+            sweep(now);
+        }
+
+        byte[] bytes = new byte[TOKEN_BYTES];
+        String token;
+        do {
+            random.nextBytes(bytes);
+            token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        } while (sessions.putIfAbsent(token, new Session(token, user, now + ttlMillis)) != null);
+        return token;
+    }
+
+    /**
+     * Look up a live session and extend its expiry.
+     * @return the session's user, or null if the token is unknown or expired
+     */
+    public User resume(String token) {
+        if (token == null) return null;
+        Session session = sessions.get(token);
+        if (session == null) return null;
+
+        long now = System.currentTimeMillis();
+        if (session.expiresAt <= now) {
+            sessions.remove(token, session);
+            return null;
+        }
+        session.expiresAt = now + ttlMillis;
+        return session.user;
+    }
+
+    /**
+     * End a session (logout)
+     * @return false if the token was not a live session
+     */
+    public boolean end(String token) {
+        return token != null && sessions.remove(token) != null;
+    }
+
+    /**
+     * End every session of a user (e.g. when the account is removed)
+     */
+    public void endAll(User user) {
+        sessions.values().removeIf(session -> session.user == user);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void sweep(long now) {
+        for (Iterator<Session> it = sessions.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiresAt <= now) it.remove();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Class: SlowConsumerPolicy
+ *
+ * Description:
+ * What a connection does when its outbound queue is full because the
+ * client is not reading fast enough (e.g. a phone on a weak 3G link).
+ *
+ *  - DROP_OLDEST: discard the oldest queued event or broadcast to make
+ *                 room. Command replies and log pages are never dropped:
+ *                 with no event left to discard, a reply is handled as
+ *                 under BLOCK.
+ *  - DISCONNECT:  close the connection.
+ *  - BLOCK:       make the sender wait up to the configured timeout for
+ *                 room, then disconnect. Never waits on an NIO event-loop
+ *                 thread or for SUBSCRIBE state events (published under a
+ *                 device lock); a full queue there is handled as DISCONNECT.
+ */
+public enum SlowConsumerPolicy {
+    DROP_OLDEST,
+    DISCONNECT,
+    BLOCK;
+
+    /**
+     * Parses a policy name (case-insensitive), falling back to DROP_OLDEST.
+     */
+    public static SlowConsumerPolicy fromString(String value) {
+        if (value == null) return DROP_OLDEST;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return DROP_OLDEST;
+        }
+    }
+}
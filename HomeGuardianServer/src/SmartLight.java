@@ -1,14 +1,16 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class SmartLight extends Device {
 
     private int id;             // 1, 2, 3
-    private boolean isOn;
-    private int brightness;     // 0–100
-    private int red, green, blue;
-    private boolean linkedToMotion;
-    private int motionSensitivity = 50; 
+    private volatile boolean isOn;
+    private volatile int brightness;     // 0–100
+    private volatile int red, green, blue;
+    private volatile boolean linkedToMotion;
+    private volatile int motionSensitivity = 50; 
+    private volatile int timeoutMinutes;  // Auto-off after this long on; 0 = never
 
     public SmartLight(int id, String name) {
         // FIX: Device requires TWO STRINGS: (deviceID, deviceName)
@@ -23,6 +25,7 @@ public class SmartLight extends Device {
         this.linkedToMotion = false;
     }
 
+    @Override
     public int getId() { return id; }
     public boolean isOn() { return isOn; }
     public int getBrightness() { return brightness; }
@@ -33,6 +36,7 @@ public class SmartLight extends Device {
     public int getMotionSensitivity() {
         return motionSensitivity;
     }
+    public int getTimeoutMinutes() { return timeoutMinutes; }
 
     public void turnOn() { isOn = true; }
     public void turnOff() { isOn = false; }
@@ -55,4 +59,20 @@ public class SmartLight extends Device {
         this.motionSensitivity = motionSensitivity;
     }
 
+    public void setTimeoutMinutes(int minutes) {
+        this.timeoutMinutes = Math.max(0, minutes);
+    }
+
+    @Override
+    public Map<String, Object> getState() {
+        Map<String, Object> state = super.getState();
+        state.put("on", isOn);
+        state.put("brightness", brightness);
+        state.put("color", List.of(red, green, blue));
+        state.put("linkedToMotion", linkedToMotion);
+        state.put("motionSensitivity", motionSensitivity);
+        state.put("timeoutMinutes", timeoutMinutes);
+        return state;
+    }
+
 }
@@ -1,9 +1,12 @@
+import java.util.Map;
+
 public class SmartLock extends Device {
 
     private int id;                 // 1,2
-    private boolean isLocked;
-    private boolean linkedToAlarm;
-    private boolean linkedToMotion;
+    private volatile boolean isLocked;
+    private volatile boolean linkedToAlarm;
+    private volatile boolean linkedToMotion;
+    private volatile int lockDurationMinutes;  // Relock after this long unlocked; 0 = never
 
     public SmartLock(int id, String name) {
         super("lock" + id, name);   // ✅ matches Device(String deviceID, String deviceName)
@@ -11,10 +14,12 @@ public class SmartLock extends Device {
         this.isLocked = true;
     }
 
+    @Override
     public int getId() { return id; }
     public boolean isLocked() { return isLocked; }
     public boolean isLinkedToAlarm() { return linkedToAlarm; }
     public boolean isLinkedToMotion() { return linkedToMotion; }
+    public int getLockDurationMinutes() { return lockDurationMinutes; }
 
     public void lock()  { isLocked = true; }
     public void unlock(){ isLocked = false; }
@@ -26,4 +31,18 @@ public class SmartLock extends Device {
     public void toggleMotionLink() {
         linkedToMotion = !linkedToMotion;
     }
+
+    public void setLockDurationMinutes(int minutes) {
+        this.lockDurationMinutes = Math.max(0, minutes);
+    }
+
+    @Override
+    public Map<String, Object> getState() {
+        Map<String, Object> state = super.getState();
+        state.put("locked", isLocked);
+        state.put("linkedToAlarm", linkedToAlarm);
+        state.put("linkedToMotion", linkedToMotion);
+        state.put("lockDurationMinutes", lockDurationMinutes);
+        return state;
+    }
 }
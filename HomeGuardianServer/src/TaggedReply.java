@@ -0,0 +1,25 @@
+/**
+ * Class: TaggedReply
+ *
+ * Description:
+ * A reply to a request that carried a correlation id, queued for a binary
+ * client. BinaryEncoder writes it as [OP_RESPONSE][int32 id] followed by
+ * the usual reply frame body. List-protocol clients get
+ * ["RESP", id, reply] instead (built by Server), so this never reaches
+ * Java serialization.
+ */
+final class TaggedReply {
+
+    final int requestId;
+    final Object reply;
+
+    TaggedReply(int requestId, Object reply) {
+        this.requestId = requestId;
+        this.reply = reply;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + requestId + " " + reply;
+    }
+}
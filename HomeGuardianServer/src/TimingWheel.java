@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class: TimingWheel
+ *
+ * Description:
+ * Hashed timing wheel for large numbers of coarse timers (light
+ * auto-off, lock relock) that are re-armed far more often than they fire.
+ *
+ * The wheel is an array of wheelSize slots, each a doubly linked list of
+ * timeouts; a timer tickMillis * k ahead goes into slot (tick + k) mod
+ * wheelSize with k / wheelSize remaining rounds. schedule() and cancel()
+ * are O(1) (a link and an unlink under one short lock), and each tick
+ * only walks the slot it lands on.
+ *
+ * One daemon thread ("hg-timer") advances the wheel and runs expired
+ * tasks outside the lock. Tasks should be short; a timer fires at most
+ * one tick late.
+ */
+public final class TimingWheel {
+
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * A scheduled task; cancel() it to stop it firing
+     */
+    public final class Timeout {
+        private final Runnable task;
+        private final long deadlineNanos;          // System.nanoTime() base
+        private long remainingRounds;              // Guarded by the wheel
+        private int slot = -1;                     // -1 once fired or cancelled
+        private Timeout prev, next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * @return false if the task already fired (or is firing) or was cancelled
+         */
+        public boolean cancel() {
+            synchronized (TimingWheel.this) {
+                if (slot < 0) return false;
+                unlink(this);
+                return true;
+            }
+        }
+
+        /**
+         * @return when the task is due, as System.currentTimeMillis()
+         */
+        public long deadlineMillis() {
+            return System.currentTimeMillis()
+                    + TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final Timeout[] slots;                 // Head of each slot's list
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+
+    private long tick;                             // Next tick to process; guarded by this
+    private int size;                              // Pending timeouts; guarded by this
+    private volatile boolean closed;
+
+    public TimingWheel() {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tickMillis Resolution of the wheel
+     * @param wheelSize  Slots per round (rounded up to a power of two)
+     */
+    public TimingWheel(long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int n = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.slots = new Timeout[n];
+        this.mask = n - 1;
+
+        this.worker = new Thread(this::run, "hg-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // =====================================================
+    // ================= SCHEDULE / CANCEL =================
+    // =====================================================
+
+    /**
+     * Run task once, delay from now.
+     * @throws IllegalStateException if the wheel has been closed
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(task, deadline);
+
+        // Tick k fires what is due by the end of it: (k + 1) * tickNanos after start
+        long due = Math.max(0, ceilDiv(deadline - startNanos, tickNanos) - 1);
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Timing wheel closed");
+            long target = Math.max(due, tick);
+            timeout.remainingRounds = (target - tick) / slots.length;
+            link(timeout, (int) (target & mask));
+        }
+        return timeout;
+    }
+
+    // Caller holds this
+    private void link(Timeout t, int slot) {
+        t.slot = slot;
+        t.prev = null;
+        t.next = slots[slot];
+        if (t.next != null) t.next.prev = t;
+        slots[slot] = t;
+        size++;
+    }
+
+    // Caller holds this
+    private void unlink(Timeout t) {
+        if (t.prev != null) {
+            t.prev.next = t.next;
+        } else {
+            slots[t.slot] = t.next;
+        }
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.slot = -1;
+        size--;
+    }
+
+    /**
+     * @return timeouts scheduled and not yet fired or cancelled
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Stop the worker; pending timeouts never fire.
+     */
+    public void close() {
+        closed = true;
+        worker.interrupt();
+        try {
+            worker.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // =====================================================
+    // ====================== WORKER =======================
+    // =====================================================
+
+    private void run() {
+        List<Timeout> expired = new ArrayList<>();
+        while (!closed) {
+            long wait;
+            synchronized (this) {
+                wait = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    continue; // close() or a spurious interrupt: re-check
+                }
+            }
+
+            synchronized (this) {
+                int slot = (int) (tick & mask);
+                Timeout t = slots[slot];
+                while (t != null) {
+                    Timeout next = t.next;
+                    if (t.remainingRounds <= 0) {
+                        unlink(t);
+                        expired.add(t);
+                    } else {
+                        t.remainingRounds--;
+                    }
+                    t = next;
+                }
+                tick++;
+            }
+
+            for (Timeout t : expired) {
+                try {
+                    t.task.run();
+                } catch (RuntimeException e) {
+                    ServerLog.log("[TIMER] Timer task failed: " + e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+}
@@ -5,6 +5,8 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Author: Rawan Genina
@@ -35,8 +37,12 @@ public abstract class User {
     protected String email;
     protected String passwordHash;
 
-    // Each user has a personal activity log list
-    protected List<ActivityLog> userLogs;
+    // Entries logged before the user is added to a controller (lock-free appends)
+    protected Queue<ActivityLog> userLogs;
+    private volatile ActivityLogStore logStore;        // Set by HGController.addUser
+
+    /** Entries returned by getUserLogs() */
+    public static final int USER_LOG_LIMIT = 1000;
 
     // -------------------------
        // CONSTRUCTOR
@@ -46,7 +52,7 @@ public abstract class User {
         this.username = username;
         this.email = email;
         this.passwordHash = passwordHash;
-        this.userLogs = new ArrayList<>();
+        this.userLogs = new ConcurrentLinkedQueue<>();
     }
 
     // -------------------------
@@ -69,11 +75,27 @@ public abstract class User {
     }
 
     public boolean signup(HGController controller) {
-        controller.addUser(this);
+        if (!controller.addUser(this)) return false; // Username or email taken
         addUserLog("User signed up.");
         return true;
     }
 
+    /**
+     * Whether this user may see/control the given device.
+     * Roles decide through getDeviceAccess().
+     */
+    public boolean canAccessDevice(Device device) {
+        return getDeviceAccess().allows(device);
+    }
+
+    /**
+     * Devices this user may use, as a bitset connections cache per session.
+     * The base account has no device access.
+     */
+    public DeviceAccess getDeviceAccess() {
+        return DeviceAccess.NONE;
+    }
+
     public boolean verifyUser(String email) {
         return this.email.equals(email);
     }
@@ -90,12 +112,32 @@ public abstract class User {
     // LOGGING SUPPORT
     // -------------------------
     public void addUserLog(String message) {
-        ActivityLog log = new ActivityLog(message);
-        userLogs.add(log);
+        ActivityLog log = ActivityLog.forUser(username, message);
+        ActivityLogStore store = logStore;
+        if (store != null) {
+            store.append(log);
+        } else {
+            userLogs.add(log);
+        }
     }
 
+    // Recent log history (newest USER_LOG_LIMIT entries), oldest first
     public List<ActivityLog> getUserLogs() {
-        return userLogs;
+        ActivityLogStore store = logStore;
+        if (store == null) {
+            return new ArrayList<>(userLogs);
+        }
+        return store.readLatest(new LogQuery(0, 0, null, username), USER_LOG_LIMIT);
+    }
+
+    // Route this user's logs into the controller's store, moving any
+    // entries logged before registration
+    void attachLogStore(ActivityLogStore store) {
+        logStore = store;
+        ActivityLog log;
+        while ((log = userLogs.poll()) != null) {
+            store.append(log);
+        }
     }
 
     // -------------------------
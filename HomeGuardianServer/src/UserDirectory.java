@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class: UserDirectory
+ *
+ * Description:
+ * Concurrent index of the accounts registered with HGController.
+ *
+ *  - byUsername: login username -> User (case-sensitive, as logins are)
+ *  - byEmail:    email (lower-cased) -> User
+ *
+ * Login, signup and email lookups are one hash lookup each, whatever the
+ * number of accounts. add() reserves the username and then the email with
+ * putIfAbsent, so of two simultaneous signups for the same username or
+ * email exactly one succeeds, without a directory-wide lock.
+ */
+public class UserDirectory {
+
+    private final Map<String, User> byUsername = new ConcurrentHashMap<>();
+    private final Map<String, User> byEmail = new ConcurrentHashMap<>();
+
+    /**
+     * Register a user under its username and email.
+     * @return false if the user is null, has no username, or the username
+     *         or email is already registered (nothing is reserved then)
+     */
+    public boolean add(User user) {
+        if (user == null || user.getUsername() == null) return false;
+        if (byUsername.putIfAbsent(user.getUsername(), user) != null) return false;
+
+        String email = emailKey(user.getEmail());
+        if (email != null && byEmail.putIfAbsent(email, user) != null) {
+            byUsername.remove(user.getUsername(), user); // Release the username again
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if this user was not registered
+     */
+    public boolean remove(User user) {
+        if (user == null || user.getUsername() == null) return false;
+        if (!byUsername.remove(user.getUsername(), user)) return false;
+
+        String email = emailKey(user.getEmail());
+        if (email != null) byEmail.remove(email, user);
+        return true;
+    }
+
+    /**
+     * @return the user with this login username, or null
+     */
+    public User byUsername(String username) {
+        return (username != null) ? byUsername.get(username) : null;
+    }
+
+    /**
+     * @return the user registered with this email (any case), or null
+     */
+    public User byEmail(String email) {
+        String key = emailKey(email);
+        return (key != null) ? byEmail.get(key) : null;
+    }
+
+    public boolean containsUsername(String username) {
+        return username != null && byUsername.containsKey(username);
+    }
+
+    public boolean containsEmail(String email) {
+        String key = emailKey(email);
+        return key != null && byEmail.containsKey(key);
+    }
+
+    public int size() {
+        return byUsername.size();
+    }
+
+    /**
+     * @return a snapshot of all registered users
+     */
+    public List<User> all() {
+        return new ArrayList<>(byUsername.values());
+    }
+
+    // Emails compare case-insensitively; blank emails are not indexed
+    private static String emailKey(String email) {
+        if (email == null) return null;
+        String key = email.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Class: WireProtocol
+ *
+ * Description:
+ * Constants for the compact binary protocol, an alternative to sending
+ * ArrayList commands through Java serialization.
+ *
+ * NEGOTIATION (per connection)
+ *  - BLOCKING transport: the server greets every client with the 4-byte
+ *    Java stream header (AC ED 00 05). A binary client discards it and
+ *    sends MAGIC; the server answers with MAGIC and both sides switch to
+ *    binary frames. Anything else is read as a normal serialization stream.
+ *  - NIO transport: a client whose first 4 bytes are MAGIC is switched to
+ *    binary frames (MAGIC is echoed back); otherwise serialized frames are used.
+ *
+ * FRAMES
+ *   [int32 length][u8 opcode][payload]   (length counts opcode + payload)
+ *
+ * Request payloads follow the per-opcode schema in argumentTypes():
+ *   'i' = int32, 'l' = int64, 'b' = u8 boolean, 's' = u16 byte length + UTF-8,
+ *   'n' = u16 count + that many nested request frames (BATCH; not nestable).
+ *
+ * Replies use OP_OK / OP_ERROR (no payload) for plain status, or OP_VALUE
+ * followed by one tagged value (TAG_*) for anything else. Strings inside
+ * values are int32 byte length + UTF-8.
+ *
+ * CORRELATION IDS (optional, both protocols)
+ *   binary: [OP_REQUEST][int32 id][opcode][payload]
+ *        -> every reply to it is [OP_RESPONSE][int32 id][reply opcode][payload]
+ *   list:   ["REQ", id, [command...]]  ->  ["RESP", id, reply]
+ * Replies to tagged requests may arrive out of order; pushed messages
+ * (broadcasts, deviceState) are never tagged. Id 0 means untagged.
+ */
+public final class WireProtocol {
+
+    private WireProtocol() {}
+
+    /** "HGB1": selects the binary protocol on a new connection */
+    public static final int MAGIC = 0x48474231;
+
+    /** Largest frame either side may send */
+    public static final int MAX_FRAME_BYTES = 1 << 20;
+
+    // ---- REQUEST OPCODES ----
+    public static final int OP_LOGIN                      = 0x01;
+    public static final int OP_SIGNUP                     = 0x02;
+    public static final int OP_RESUME                     = 0x03;
+    public static final int OP_LOGOUT                     = 0x04;
+
+    public static final int OP_BATCH                      = 0x08;
+
+    public static final int OP_TOGGLE_LIGHT               = 0x10;
+    public static final int OP_SET_LIGHT_BRIGHTNESS       = 0x11;
+    public static final int OP_SET_LIGHT_COLOR            = 0x12;
+    public static final int OP_SET_LIGHT_TIMEOUT          = 0x13;
+    public static final int OP_SET_LIGHT_MOTION_LINK      = 0x14;
+
+    public static final int OP_TOGGLE_LOCK                = 0x20;
+    public static final int OP_SET_LOCK_DURATION          = 0x21;
+    public static final int OP_LINK_LOCK_TO_ALARM         = 0x22;
+
+    public static final int OP_TOGGLE_CAMERA              = 0x30;
+    public static final int OP_TOGGLE_CAMERA_RECORDING    = 0x31;
+    public static final int OP_TOGGLE_CAMERA_MOTION       = 0x32;
+    public static final int OP_REQUEST_CAMERA_FOOTAGE     = 0x33;
+
+    public static final int OP_TOGGLE_ALARM               = 0x40;
+    public static final int OP_TOGGLE_ALARM_MOTION        = 0x41;
+    public static final int OP_TOGGLE_ALARM_RECORD_ON_CAM = 0x42;
+    public static final int OP_TRIGGER_ALARM              = 0x43;
+
+    public static final int OP_SET_MOTION_SENSITIVITY     = 0x50;
+    public static final int OP_MOTION_EVENT               = 0x51;
+
+    public static final int OP_GET_LOGS                   = 0x60;
+    public static final int OP_GET_LOGS_PAGE              = 0x61;
+
+    public static final int OP_SUBSCRIBE                  = 0x70;
+    public static final int OP_UNSUBSCRIBE                = 0x71;
+
+    public static final int OP_REQUEST                    = 0x7F; // Envelope: int32 id + request
+
+    // ---- REPLY OPCODES ----
+    public static final int OP_OK    = 0x80;
+    public static final int OP_ERROR = 0x81;
+    public static final int OP_VALUE = 0x82;
+    public static final int OP_RESPONSE = 0x83; // Envelope: int32 id + reply
+
+    // ---- LIST PROTOCOL ENVELOPES ----
+    public static final String REQUEST_TAG  = "REQ";
+    public static final String RESPONSE_TAG = "RESP";
+
+    /** Correlation id of a request sent without an envelope */
+    public static final int NO_REQUEST_ID = 0;
+
+    // ---- VALUE TAGS (OP_VALUE payload) ----
+    public static final int TAG_NULL   = 0;
+    public static final int TAG_STRING = 1;
+    public static final int TAG_INT    = 2;
+    public static final int TAG_BOOL   = 3;
+    public static final int TAG_LONG   = 4;
+    public static final int TAG_LIST   = 5;  // u32 count, then count tagged values
+    public static final int TAG_LOG    = 6;  // device, activity, dateTime strings
+
+    // ---- BATCH ITEM RESULTS (["batchResult", okCount, [code...]]) ----
+    public static final int BATCH_OK      = 0;  // Ran and succeeded
+    public static final int BATCH_FAILED  = 1;  // Ran and failed
+    public static final int BATCH_INVALID = 2;  // Unknown, malformed, not batchable or no such device
+    public static final int BATCH_NOT_RUN = 3;  // Skipped: a validateFirst batch was refused or stopped
+    public static final int BATCH_DENIED  = 4;  // The logged-in user may not use that device
+
+    /** Most sub-commands one BATCH may carry */
+    public static final int MAX_BATCH_ITEMS = 256;
+
+    // ---- OPCODE TABLES ----
+    private static final String[] NAMES = new String[0x80];
+    private static final String[] ARGUMENT_TYPES = new String[0x80];
+
+    static {
+        define(OP_LOGIN,                      "LOGIN",                      "ss");
+        define(OP_SIGNUP,                     "SIGNUP",                     "ssss");
+        // session token from loginResult
+        define(OP_RESUME,                     "RESUME",                     "s");
+        define(OP_LOGOUT,                     "LOGOUT",                     "");
+        // sub-commands, validateFirst (validate all, then stop at the first failure)
+        define(OP_BATCH,                      "BATCH",                      "nb");
+        define(OP_TOGGLE_LIGHT,               "TOGGLE_LIGHT",               "ib");
+        define(OP_SET_LIGHT_BRIGHTNESS,       "SET_LIGHT_BRIGHTNESS",       "ii");
+        define(OP_SET_LIGHT_COLOR,            "SET_LIGHT_COLOR",            "iiii");
+        define(OP_SET_LIGHT_TIMEOUT,          "SET_LIGHT_TIMEOUT",          "ii");
+        define(OP_SET_LIGHT_MOTION_LINK,      "SET_LIGHT_MOTION_LINK",      "ib");
+        define(OP_TOGGLE_LOCK,                "TOGGLE_LOCK",                "ib");
+        define(OP_SET_LOCK_DURATION,          "SET_LOCK_DURATION",          "ii");
+        define(OP_LINK_LOCK_TO_ALARM,         "LINK_LOCK_TO_ALARM",         "iib");
+        define(OP_TOGGLE_CAMERA,              "TOGGLE_CAMERA",              "ib");
+        define(OP_TOGGLE_CAMERA_RECORDING,    "TOGGLE_CAMERA_RECORDING",    "ib");
+        define(OP_TOGGLE_CAMERA_MOTION,       "TOGGLE_CAMERA_MOTION",       "ib");
+        define(OP_REQUEST_CAMERA_FOOTAGE,     "REQUEST_CAMERA_FOOTAGE",     "is");
+        define(OP_TOGGLE_ALARM,               "TOGGLE_ALARM",               "ib");
+        define(OP_TOGGLE_ALARM_MOTION,        "TOGGLE_ALARM_MOTION",        "ib");
+        define(OP_TOGGLE_ALARM_RECORD_ON_CAM, "TOGGLE_ALARM_RECORD_ON_CAM", "iib");
+        define(OP_TRIGGER_ALARM,              "TRIGGER_ALARM",              "i");
+        define(OP_SET_MOTION_SENSITIVITY,     "SET_MOTION_SENSITIVITY",     "i");
+        // sensor number, intensity 0-100
+        define(OP_MOTION_EVENT,               "MOTION_EVENT",               "ii");
+        define(OP_GET_LOGS,                   "GET_LOGS",                   "");
+        // cursor, page size, from millis, to millis, device ID, username
+        define(OP_GET_LOGS_PAGE,              "GET_LOGS_PAGE",              "lillss");
+        // device ID ("" = every device)
+        define(OP_SUBSCRIBE,                  "SUBSCRIBE",                  "s");
+        define(OP_UNSUBSCRIBE,                "UNSUBSCRIBE",                "s");
+    }
+
+    private static void define(int opcode, String name, String argumentTypes) {
+        NAMES[opcode] = name;
+        ARGUMENT_TYPES[opcode] = argumentTypes;
+    }
+
+    /**
+     * @return the list-protocol command name for a request opcode, or null
+     */
+    public static String commandName(int opcode) {
+        return (opcode >= 0 && opcode < NAMES.length) ? NAMES[opcode] : null;
+    }
+
+    /**
+     * @return the argument schema for a request opcode, or null if unknown
+     */
+    public static String argumentTypes(int opcode) {
+        return (opcode >= 0 && opcode < ARGUMENT_TYPES.length) ? ARGUMENT_TYPES[opcode] : null;
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Class: ActivityLogBench
+ *
+ * Description:
+ * Allocation and throughput per activity log entry, on one thread:
+ *
+ *  - eager entry:  what every ActivityLog constructor used to do, a new
+ *                  SimpleDateFormat formatting new Date() into a String
+ *  - ActivityLog:  the current constructor (epoch millis, formatted lazily)
+ *  - getDateTime:  formatting a fresh entry's timestamp on first read
+ *  - logActivity:  HGController.logActivity end to end, into a memory-only
+ *                  store with console output discarded
+ *
+ * Bytes/op come from the JVM's per-thread allocation counter
+ * (com.sun.management.ThreadMXBean), so they are exact for the measuring
+ * thread; work done by background threads is not counted. Each case is
+ * warmed up before it is measured.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out ActivityLogBench [operations]
+ */
+public class ActivityLogBench {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final PrintStream OUT = System.out;
+
+    private static volatile Object sink; // Keeps results reachable so the JIT can't drop the work
+
+    public static void main(String[] args) throws Exception {
+        int operations = (args.length > 0) ? Integer.parseInt(args[0]) : 2_000_000;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Console echo of logActivity
+        HGController controller = new HGController(1 << 16);
+
+        OUT.printf("%-14s %10s %10s%n", "case", "ns/op", "bytes/op");
+        run("eager entry", operations, i -> sink = new EagerActivityLog("Living Room Light", "Light turned ON"));
+        run("ActivityLog", operations, i -> sink = new ActivityLog("light1", "Living Room Light", "Light turned ON"));
+        run("getDateTime", operations, i -> sink = new ActivityLog("light1", "Living Room Light", "Light turned ON").getDateTime());
+        run("logActivity", operations, i -> controller.logActivity("Light turned ON"));
+        controller.close();
+    }
+
+    private interface Operation {
+        void run(int i);
+    }
+
+    private static void run(String label, int operations, Operation operation) {
+        for (int i = 0; i < operations; i++) operation.run(i); // Warm-up
+
+        long thread = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(thread);
+        long began = System.nanoTime();
+        for (int i = 0; i < operations; i++) operation.run(i);
+        long nanos = System.nanoTime() - began;
+        long bytes = THREADS.getThreadAllocatedBytes(thread) - bytesBefore;
+
+        OUT.printf("%-14s %10.1f %10.1f%n", label, nanos / (double) operations, bytes / (double) operations);
+    }
+
+    // The entry as it was before timestamps were formatted lazily
+    private static final class EagerActivityLog {
+        private final String device;
+        private final String activity;
+        private final String dateTime;
+
+        EagerActivityLog(String device, String activity) {
+            this.device = device;
+            this.activity = activity;
+            this.dateTime = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
+        }
+
+        @Override
+        public String toString() {
+            return dateTime + " " + device + " " + activity;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class: AlarmTriggerTest
+ *
+ * Description:
+ * Checks TRIGGER_ALARM end to end against a Server running in this JVM on
+ * the NIO transport. One alarm is linked (LINK_LOCK_TO_ALARM,
+ * TOGGLE_ALARM_RECORD_ON_CAM) to two cameras and two unlocked locks; a
+ * third camera and lock are not linked:
+ *
+ *  - triggering a disarmed alarm or an unknown one replies ERROR and
+ *    changes nothing
+ *  - one TRIGGER_ALARM on the armed alarm starts both linked cameras
+ *    recording, engages both linked locks and notifies emergency
+ *    services, leaving the unlinked devices alone
+ *  - a validateFirst BATCH refuses it (it locks linked devices)
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out AlarmTriggerTest [port]
+ */
+public class AlarmTriggerTest {
+
+    private static final PrintStream OUT = System.out;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 12480;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Server diagnostics
+
+        HGController controller = new HGController();
+        controller.addUser(new HomeAdmin("Test Admin", "admin1", "admin@example.com", "hash123", true));
+        Alarm alarm = new Alarm(1, "House Alarm");
+        SecurityCamera[] cams = { new SecurityCamera(1, "Porch Camera"), new SecurityCamera(2, "Garage Camera"),
+                                  new SecurityCamera(3, "Nursery Camera") };
+        SmartLock[] locks = { new SmartLock(1, "Front Door Lock"), new SmartLock(2, "Back Door Lock"),
+                              new SmartLock(3, "Shed Lock") };
+        controller.addDevice(alarm);
+        for (SecurityCamera cam : cams) controller.addDevice(cam);
+        for (SmartLock lock : locks) controller.addDevice(lock);
+
+        Server server = new Server(port, controller);
+        server.setTransport(ServerTransport.NIO);
+        server.listen();
+        Thread.sleep(200);
+
+        try (Client admin = new Client(port)) {
+            check("admin LOGIN", !"ERROR".equals(admin.call("LOGIN", "admin1", "hash123")));
+            for (int n = 1; n <= 2; n++) {
+                check("lock " + n + " linked", "OK".equals(admin.call("LINK_LOCK_TO_ALARM", n, 1, true)));
+                check("camera " + n + " linked", "OK".equals(admin.call("TOGGLE_ALARM_RECORD_ON_CAM", 1, n, true)));
+            }
+            for (int n = 1; n <= 3; n++) admin.call("TOGGLE_LOCK", n, false);
+            check("locks start unlocked", !locks[0].isLocked() && !locks[1].isLocked() && !locks[2].isLocked());
+
+            check("disarmed: TRIGGER_ALARM replies ERROR", "ERROR".equals(admin.call("TRIGGER_ALARM", 1)));
+            check("disarmed: no camera recording, no lock engaged", recording(cams) == 0 && locked(locks) == 0);
+            check("unknown alarm: TRIGGER_ALARM replies ERROR", "ERROR".equals(admin.call("TRIGGER_ALARM", 9)));
+
+            check("TOGGLE_ALARM arms it", "OK".equals(admin.call("TOGGLE_ALARM", 1, true)));
+            int emergencies = emergencies(controller);
+            check("armed: TRIGGER_ALARM replies OK", "OK".equals(admin.call("TRIGGER_ALARM", 1)));
+            check("both linked cameras record", cams[0].isRecording() && cams[1].isRecording());
+            check("both linked locks are engaged", locks[0].isLocked() && locks[1].isLocked());
+            check("the unlinked camera and lock are left alone", !cams[2].isRecording() && !locks[2].isLocked());
+            check("emergency services notified once", emergencies(controller) == emergencies + 1);
+
+            ArrayList<Object> items = new ArrayList<>();
+            items.add(new ArrayList<>(Arrays.asList("TRIGGER_ALARM", 1)));
+            Object batch = admin.call("BATCH", items, true);
+            check("validateFirst BATCH refuses TRIGGER_ALARM (" + batch + ")", batch instanceof List
+                    && List.of(WireProtocol.BATCH_INVALID).equals(((List<?>) batch).get(2)));
+        } finally {
+            server.close();
+            controller.close();
+        }
+
+        OUT.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static int recording(SecurityCamera[] cams) {
+        int n = 0;
+        for (SecurityCamera cam : cams) if (cam.isRecording()) n++;
+        return n;
+    }
+
+    private static int locked(SmartLock[] locks) {
+        int n = 0;
+        for (SmartLock lock : locks) if (lock.isLocked()) n++;
+        return n;
+    }
+
+    private static int emergencies(HGController controller) {
+        int n = 0;
+        for (Notification notification : controller.getAllNotifications()) {
+            if (notification.getMessage().startsWith("[EMERGENCY]")) n++;
+        }
+        return n;
+    }
+
+    private static void check(String what, boolean ok) {
+        OUT.println((ok ? "  PASS " : "  FAIL ") + what);
+        if (!ok) failures++;
+    }
+
+    // =====================================================
+    // ================== SERIALIZED CLIENT ================
+    // =====================================================
+
+    // One NIO connection: frames of [int length][serialized command list]
+    private static final class Client implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        // @return the reply
+        Object call(Object... command) throws Exception {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(new ArrayList<>(Arrays.asList(command)));
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+                return objects.readObject();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
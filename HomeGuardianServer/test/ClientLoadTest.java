@@ -0,0 +1,240 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class: ClientLoadTest
+ *
+ * Description:
+ * Load test for the ways the server can service clients: the BLOCKING
+ * transport with each ClientExecutionMode, and the NIO transport. For
+ * each one it starts a Server in this JVM, connects idleClients that log
+ * in and then stay silent, and activeClients that toggle lights as fast
+ * as replies come back for the given number of seconds. It prints how
+ * many clients were held, the platform threads and heap in use, and the
+ * active clients' throughput and reply latency.
+ *
+ * Clients send serialized command lists, as the existing app does: over
+ * object streams on the BLOCKING transport and as length-prefixed frames
+ * on NIO. Large idleClients values need a matching open-file limit
+ * (ulimit -n). Before Java 21, VIRTUAL_THREADS falls back to a cached
+ * pool of platform threads, so its thread count matches
+ * THREAD_PER_CLIENT there.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out ClientLoadTest [idleClients] [activeClients] [seconds]
+ */
+public class ClientLoadTest {
+
+    private static final int BASE_PORT = 12400;
+
+    public static void main(String[] args) throws Exception {
+        int idle = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+        int active = (args.length > 1) ? Integer.parseInt(args[1]) : 32;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Server diagnostics
+        out.println("idle=" + idle + " active=" + active + " seconds=" + seconds);
+        out.printf("%-26s %9s %8s %8s %10s %9s %9s%n",
+                "mode", "connected", "threads", "heapMB", "ops/s", "p50 us", "p99 us");
+
+        int port = BASE_PORT;
+        for (ClientExecutionMode mode : ClientExecutionMode.values()) {
+            run(out, "BLOCKING/" + mode, ServerTransport.BLOCKING, mode, port++, idle, active, seconds);
+        }
+        run(out, "NIO", ServerTransport.NIO, null, port, idle, active, seconds);
+        System.exit(0);
+    }
+
+    private static void run(PrintStream out, String label, ServerTransport transport, ClientExecutionMode mode,
+                            int port, int idle, int active, int seconds) throws Exception {
+        HGController controller = new HGController();
+        controller.addUser(new HomeAdmin("Load Admin", "admin1", "admin@example.com", "hash123", true));
+        for (int i = 1; i <= active; i++) {
+            controller.addDevice(new SmartLight(i, "Load Light " + i));
+        }
+
+        Server server = new Server(port, controller);
+        server.setTransport(transport);
+        if (mode != null) server.setExecutionMode(mode);
+        if (mode == ClientExecutionMode.BOUNDED_POOL) {
+            // A connection holds its pool thread, so the pool must fit every client
+            server.setClientPoolSize(idle + active);
+            server.setMaxConnections(idle + active);
+        }
+        server.listen();
+        Thread.sleep(200);
+
+        boolean nio = transport == ServerTransport.NIO;
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < idle; i++) {
+                Client client = nio ? new FramedClient(port) : new StreamClient(port);
+                clients.add(client);
+                client.call("LOGIN", "admin1", "hash123");
+            }
+
+            AtomicBoolean stop = new AtomicBoolean();
+            long[][] latencies = new long[active][];
+            int[] counts = new int[active];
+            Thread[] workers = new Thread[active];
+            for (int i = 0; i < active; i++) {
+                Client client = nio ? new FramedClient(port) : new StreamClient(port);
+                clients.add(client);
+                client.call("LOGIN", "admin1", "hash123");
+                int worker = i;
+                workers[i] = new Thread(() -> {
+                    long[] samples = new long[1 << 16];
+                    int n = 0;
+                    try {
+                        while (!stop.get()) {
+                            long start = System.nanoTime();
+                            client.call("TOGGLE_LIGHT", worker + 1, (n & 1) == 0);
+                            if (n == samples.length) samples = Arrays.copyOf(samples, n * 2);
+                            samples[n++] = System.nanoTime() - start;
+                        }
+                    } catch (Exception e) {
+                        out.println("  active client " + worker + " failed: " + e);
+                    }
+                    latencies[worker] = samples;
+                    counts[worker] = n;
+                }, "load-client-" + i);
+            }
+
+            for (Thread t : workers) t.start();
+            Thread.sleep(seconds * 1000L);
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            System.gc();
+            long heap = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+            int connected = server.getNumberOfClients();
+            stop.set(true);
+            for (Thread t : workers) t.join();
+
+            int total = 0;
+            for (int n : counts) total += n;
+            long[] all = new long[total];
+            int at = 0;
+            for (int i = 0; i < active; i++) {
+                System.arraycopy(latencies[i], 0, all, at, counts[i]);
+                at += counts[i];
+            }
+            Arrays.sort(all);
+            out.printf("%-26s %9d %8d %8d %10d %9d %9d%n", label, connected, threads,
+                    heap >> 20, total / Math.max(1, seconds), percentile(all, 50) / 1000, percentile(all, 99) / 1000);
+        } finally {
+            for (Client client : clients) client.close();
+            server.close();
+            Thread.sleep(500);
+        }
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * p / 100))];
+    }
+
+    // =====================================================
+    // ======================= CLIENTS =====================
+    // =====================================================
+
+    private abstract static class Client implements Closeable {
+        protected final Socket socket;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+        }
+
+        // @return the reply
+        Object call(Object... command) throws Exception {
+            send(new ArrayList<>(Arrays.asList(command)));
+            return receive();
+        }
+
+        abstract void send(ArrayList<Object> command) throws IOException;
+
+        abstract Object receive() throws Exception;
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+
+    // BLOCKING transport: one object stream each way
+    private static final class StreamClient extends Client {
+        private final ObjectOutputStream out;
+        private final ObjectInputStream in;
+
+        StreamClient(int port) throws IOException {
+            super(port);
+            out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        @Override
+        void send(ArrayList<Object> command) throws IOException {
+            out.writeObject(command);
+            out.reset();
+            out.flush();
+        }
+
+        @Override
+        Object receive() throws Exception {
+            return in.readObject();
+        }
+    }
+
+    // NIO transport: [int length][serialized object] frames
+    private static final class FramedClient extends Client {
+        private final DataOutputStream out;
+        private final DataInputStream in;
+
+        FramedClient(int port) throws IOException {
+            super(port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        }
+
+        @Override
+        void send(ArrayList<Object> command) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(command);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+        }
+
+        @Override
+        Object receive() throws Exception {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+                return objects.readObject();
+            }
+        }
+    }
+}
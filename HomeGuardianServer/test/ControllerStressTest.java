@@ -0,0 +1,211 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class: ControllerStressTest
+ *
+ * Description:
+ * Stress test for concurrent use of HGController, the way many client
+ * connections call into it at once:
+ *
+ *  - toggle storm: every thread toggles its own lights while readers
+ *    page through the global and per-device logs; each light must end in
+ *    the state its thread set last, no log entry may be lost, and no
+ *    reader may fail
+ *  - signup race: every thread registers the same usernames; each
+ *    username must be taken exactly once
+ *  - scaling: ops/s on distinct lights with one thread and with all, so
+ *    contention between unrelated devices shows up as a flat ratio
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out ControllerStressTest [threads] [operationsPerThread]
+ */
+public class ControllerStressTest {
+
+    private static final int LIGHTS_PER_THREAD = 4;
+    private static final int USERNAMES = 200;
+
+    private static final PrintStream OUT = System.out;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 32;
+        int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 20_000;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Activity log echo
+
+        toggleStorm(threads, operations);
+        signupRace(threads);
+        scaling(threads, operations);
+
+        OUT.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void toggleStorm(int threads, int operations) throws Exception {
+        HGController controller = new HGController(1 << 20);
+        int lights = threads * LIGHTS_PER_THREAD;
+        SmartLight[] light = new SmartLight[lights + 2];
+        for (int i = 1; i <= lights + 1; i++) {
+            light[i] = new SmartLight(i, "Stress Light " + i);
+            controller.addDevice(light[i]);
+        }
+
+        // Entries one toggle adds, measured on the spare light
+        long before = controller.getLogsAppended();
+        controller.toggleLight("light" + (lights + 1), true);
+        long perToggle = controller.getLogsAppended() - before;
+
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        boolean[][] lastSet = new boolean[threads][LIGHTS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger writersLeft = new AtomicInteger(threads);
+        List<Thread> all = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            all.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int k = 0; k < operations; k++) {
+                        int slot = k % LIGHTS_PER_THREAD;
+                        boolean on = ((k / LIGHTS_PER_THREAD) & 1) == 0;
+                        controller.toggleLight("light" + (1 + thread * LIGHTS_PER_THREAD + slot), on);
+                        lastSet[thread][slot] = on;
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    writersLeft.decrementAndGet();
+                }
+            }, "stress-writer-" + t));
+        }
+        for (int r = 0; r < 4; r++) {
+            int reader = r;
+            all.add(new Thread(() -> {
+                try {
+                    start.await();
+                    while (writersLeft.get() > 0) {
+                        controller.getAllLogs();
+                        light[1 + reader].getDeviceLogs();
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "stress-reader-" + r));
+        }
+
+        before = controller.getLogsAppended();
+        long began = System.nanoTime();
+        for (Thread t : all) t.start();
+        start.countDown();
+        for (Thread t : all) t.join();
+        long millis = (System.nanoTime() - began) / 1_000_000;
+
+        int wrongState = 0;
+        for (int t = 0; t < threads; t++) {
+            for (int slot = 0; slot < LIGHTS_PER_THREAD; slot++) {
+                if (light[1 + t * LIGHTS_PER_THREAD + slot].isOn() != lastSet[t][slot]) wrongState++;
+            }
+        }
+        long expected = (long) threads * operations * perToggle;
+        long appended = controller.getLogsAppended() - before;
+
+        OUT.println("toggle storm: " + threads + " threads x " + operations + " toggles in " + millis + " ms");
+        check("no exceptions (" + errors.size() + ")", errors.isEmpty());
+        for (Throwable e : errors) {
+            OUT.println("  " + e);
+            break;
+        }
+        check("every light in its last state (" + wrongState + " wrong)", wrongState == 0);
+        check("log entries appended " + appended + " == " + expected, appended == expected);
+        controller.close();
+    }
+
+    private static void signupRace(int threads) throws Exception {
+        HGController controller = new HGController();
+        AtomicInteger registered = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> all = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            all.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < USERNAMES; i++) {
+                        try {
+                            controller.registerGuest("Guest " + i, "guest" + i + "@example.com", "guest" + i, "pw");
+                            registered.incrementAndGet();
+                        } catch (IllegalArgumentException e) {
+                            refused.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "stress-signup-" + t));
+        }
+        for (Thread t : all) t.start();
+        start.countDown();
+        for (Thread t : all) t.join();
+
+        OUT.println("signup race: " + threads + " threads x " + USERNAMES + " usernames");
+        check("no exceptions (" + errors.size() + ")", errors.isEmpty());
+        check("registered " + registered.get() + " == " + USERNAMES, registered.get() == USERNAMES);
+        check("users listed " + controller.getAllUsers().size() + " == " + USERNAMES,
+                controller.getAllUsers().size() == USERNAMES);
+        check("refused " + refused.get() + " == " + (threads - 1) * USERNAMES,
+                refused.get() == (threads - 1) * USERNAMES);
+        controller.close();
+    }
+
+    private static void scaling(int threads, int operations) throws Exception {
+        double one = toggleRate(1, operations);
+        double many = toggleRate(threads, operations);
+        OUT.printf("scaling on distinct lights: 1 thread %.0f ops/s, %d threads %.0f ops/s (x%.1f, %d cores)%n",
+                one, threads, many, many / one, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static double toggleRate(int threads, int operations) throws Exception {
+        HGController controller = new HGController(1 << 16);
+        for (int i = 1; i <= threads; i++) {
+            controller.addDevice(new SmartLight(i, "Rate Light " + i));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> all = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String id = "light" + (t + 1);
+            all.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int k = 0; k < operations; k++) {
+                    controller.toggleLight(id, (k & 1) == 0);
+                }
+            }));
+        }
+        for (Thread t : all) t.start();
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread t : all) t.join();
+        double seconds = (System.nanoTime() - began) / 1e9;
+        controller.close();
+        return threads * (double) operations / seconds;
+    }
+
+    private static void check(String what, boolean ok) {
+        OUT.println((ok ? "  PASS " : "  FAIL ") + what);
+        if (!ok) failures++;
+    }
+}
@@ -0,0 +1,220 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class: CriticalLaneTest
+ *
+ * Description:
+ * Measures how long an untagged CRITICAL command (TOGGLE_LOCK) takes while
+ * BULK traffic is backlogged. On the NIO transport, bulkClients keep
+ * several GET_LOGS requests each in flight against a full activity log,
+ * so the shared worker pool always has a queue. One more client toggles
+ * a lock and waits for each reply. The run is made twice:
+ *
+ *  - no reserved threads (setCriticalThreads(0)): the lock command waits
+ *    in the worker queue behind the log reads
+ *  - the default reserved lane: the lock command runs on the critical
+ *    threads as soon as it is decoded
+ *
+ * It prints the round-trip p50/p99 for both and the BULK throughput, and
+ * checks that the reserved lane at least halves the p99, every lock
+ * command succeeds and the lock ends in the state last set.
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out CriticalLaneTest [bulkClients] [lockCommands]
+ */
+public class CriticalLaneTest {
+
+    private static final int BASE_PORT = 12470;
+    private static final int NIO_WORKERS = 2;
+    private static final int BULK_IN_FLIGHT = 4;  // GET_LOGS requests each bulk client keeps queued
+    private static final int LOG_ENTRIES = 4000;
+
+    private static final PrintStream OUT = System.out;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int bulkClients = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int lockCommands = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Server diagnostics
+
+        OUT.println("bulkClients=" + bulkClients + " (" + BULK_IN_FLIGHT + " GET_LOGS in flight each, "
+                + LOG_ENTRIES + " entries), " + lockCommands + " TOGGLE_LOCK, " + NIO_WORKERS + " NIO workers");
+        OUT.printf("%-22s %9s %9s %12s%n", "critical lane", "p50 us", "p99 us", "GET_LOGS/s");
+
+        long[] shared = run("none", 0, BASE_PORT, bulkClients, lockCommands);
+        long[] reserved = run("default (" + Server.DEFAULT_CRITICAL_THREADS + " threads)",
+                Server.DEFAULT_CRITICAL_THREADS, BASE_PORT + 1, bulkClients, lockCommands);
+
+        // The median depends on whether a worker happens to be free; the
+        // tail is what the reserved lane is for
+        check("the reserved lane at least halves the p99 (" + reserved[1] / 1000 + " us vs "
+                + shared[1] / 1000 + " us)", reserved[1] * 2 <= shared[1]);
+
+        OUT.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // @return lock command round trips {p50, p99} in nanoseconds
+    private static long[] run(String label, int criticalThreads, int port, int bulkClients, int lockCommands)
+            throws Exception {
+        HGController controller = new HGController();
+        controller.addUser(new HomeAdmin("Test Admin", "admin1", "admin@example.com", "hash123", true));
+        SmartLock lock = new SmartLock(1, "Front Door Lock");
+        controller.addDevice(lock);
+        for (int i = 0; i < LOG_ENTRIES; i++) controller.logActivity("filler entry " + i);
+
+        Server server = new Server(port, controller);
+        server.setTransport(ServerTransport.NIO);
+        server.setNioWorkerThreads(NIO_WORKERS);
+        server.setCriticalThreads(criticalThreads);
+        server.listen();
+        Thread.sleep(200);
+
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Client> clients = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        AtomicLong bulkReplies = new AtomicLong();
+        long[] samples = new long[lockCommands];
+        boolean allOk = true;
+        boolean engaged = false;
+        double perSecond = 0;
+        try {
+            for (int i = 0; i < bulkClients; i++) {
+                Client bulk = new Client(port);
+                clients.add(bulk);
+                bulk.call("LOGIN", "admin1", "hash123");
+                Semaphore inFlight = new Semaphore(BULK_IN_FLIGHT);
+                threads.add(new Thread(() -> {
+                    try {
+                        while (!stop.get()) {
+                            inFlight.acquire();
+                            bulk.send("GET_LOGS");
+                        }
+                    } catch (Exception ignore) {
+                        // Closed at the end of the run
+                    }
+                }, "bulk-sender-" + i));
+                threads.add(new Thread(() -> {
+                    try {
+                        while (true) {
+                            bulk.receive();
+                            bulkReplies.incrementAndGet();
+                            inFlight.release();
+                        }
+                    } catch (Exception ignore) {
+                        // Closed at the end of the run
+                    }
+                }, "bulk-reader-" + i));
+            }
+            for (Thread t : threads) t.start();
+            Thread.sleep(500); // Let the backlog build
+
+            try (Client critical = new Client(port)) {
+                critical.call("LOGIN", "admin1", "hash123");
+                long before = bulkReplies.get();
+                long began = System.nanoTime();
+                for (int n = 0; n < lockCommands; n++) {
+                    engaged = (n & 1) == 0;
+                    long start = System.nanoTime();
+                    Object reply = critical.call("TOGGLE_LOCK", 1, engaged);
+                    samples[n] = System.nanoTime() - start;
+                    allOk &= "OK".equals(reply);
+                }
+                perSecond = (bulkReplies.get() - before) / ((System.nanoTime() - began) / 1e9);
+            }
+        } finally {
+            stop.set(true);
+            for (Client client : clients) client.close();
+            for (Thread t : threads) t.interrupt(); // Senders may be waiting for a permit
+            for (Thread t : threads) t.join(5000);
+            server.close();
+            controller.close();
+        }
+        Arrays.sort(samples);
+        long[] result = { percentile(samples, 50), percentile(samples, 99) };
+        OUT.printf("%-22s %9d %9d %12.0f%n", label, result[0] / 1000, result[1] / 1000, perSecond);
+        check(label + ": every TOGGLE_LOCK replied OK", allOk);
+        check(label + ": the lock ends in the state last set", lock.isLocked() == engaged);
+        return result;
+    }
+
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) ((long) sorted.length * p / 100))];
+    }
+
+    private static void check(String what, boolean ok) {
+        OUT.println((ok ? "  PASS " : "  FAIL ") + what);
+        if (!ok) failures++;
+    }
+
+    // =====================================================
+    // ======================= CLIENT ======================
+    // =====================================================
+
+    // NIO transport: [int length][serialized object] frames
+    private static final class Client implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        // @return the reply
+        Object call(Object... command) throws Exception {
+            send(command);
+            return receive();
+        }
+
+        void send(Object... command) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(new ArrayList<>(Arrays.asList(command)));
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+        }
+
+        Object receive() throws Exception {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+                return objects.readObject();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Class: LogIndexTest
+ *
+ * Description:
+ * Checks ActivityLogStore's indexed queries against a brute-force scan of
+ * every entry appended. Entries get synthetic timestamps (100 ms apart
+ * with up to 400 ms of jitter, inside LogQuery.CLOCK_SKEW_MILLIS) and
+ * rotate through a set of devices and users. For random queries by
+ * device, user and time range it compares:
+ *
+ *  - readLatest: the newest matches, and older pages via beforeSequence
+ *  - openReader: forward pages read until the reader is caught up
+ *
+ * with the same filter applied to the whole list. It runs against a
+ * memory-only store, a persisted store whose ring holds only a fraction
+ * of the entries (the rest are read back from segments), and that store
+ * reopened, with its index rebuilt from disk.
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out LogIndexTest [entries] [queries]
+ */
+public class LogIndexTest {
+
+    private static final long BASE_MILLIS = 1_700_000_000_000L;
+    private static final int DEVICES = 20;
+    private static final int USERS = 5;
+
+    private static final PrintStream OUT = System.out;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int entries = (args.length > 0) ? Integer.parseInt(args[0]) : 20_000;
+        int queries = (args.length > 1) ? Integer.parseInt(args[1]) : 300;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Server diagnostics
+
+        List<ActivityLog> all = generate(entries, new Random(42));
+
+        ActivityLogStore memory = new ActivityLogStore(entries);
+        appendAll(memory, all);
+        verify("memory-only store", memory, all, queries, new Random(1));
+        memory.close();
+
+        Path dir = Files.createTempDirectory("hg-log-index-test");
+        try {
+            ActivityLogStore persisted = new ActivityLogStore(1024, dir, 64 * 1024, 10_000, 0);
+            appendAll(persisted, all);
+            check("nothing lost before it was persisted (" + persisted.spillLostCount() + ")",
+                    persisted.spillLostCount() == 0);
+            verify("persisted store, ring of 1024", persisted, all, queries, new Random(2));
+            persisted.close();
+
+            ActivityLogStore reopened = new ActivityLogStore(1024, dir, 64 * 1024, 10_000, 0);
+            check("reopened store continues at " + reopened.nextSequence(), reopened.nextSequence() == entries);
+            verify("reopened store", reopened, all, queries, new Random(3));
+            reopened.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(LogIndexTest::delete);
+            }
+        }
+
+        OUT.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static List<ActivityLog> generate(int entries, Random random) {
+        List<ActivityLog> all = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            long timestamp = BASE_MILLIS + i * 100L + random.nextInt(801) - 400;
+            String deviceId = (i % 3 == 0) ? null : "light" + random.nextInt(DEVICES);
+            String username = (i % 2 == 0) ? "user" + random.nextInt(USERS) : null;
+            String device = (deviceId != null) ? "Test Light" : "SYSTEM";
+            all.add(new ActivityLog(-1, timestamp, deviceId, username, device, "entry " + i));
+        }
+        return all;
+    }
+
+    // Appends in steps the tail thread can keep up with, then waits for it
+    private static void appendAll(ActivityLogStore store, List<ActivityLog> all) throws InterruptedException {
+        for (int i = 0; i < all.size(); i++) {
+            store.append(all.get(i));
+            if (store.isPersistent() && i % 256 == 255) awaitPersisted(store, i + 1);
+        }
+        if (store.isPersistent()) awaitPersisted(store, all.size());
+    }
+
+    private static void awaitPersisted(ActivityLogStore store, long count) throws InterruptedException {
+        while (store.persistedCount() + store.spillLostCount() < count) Thread.sleep(1);
+    }
+
+    // =====================================================
+    // ====================== QUERIES ======================
+    // =====================================================
+
+    private static void verify(String label, ActivityLogStore store, List<ActivityLog> all,
+                               int queries, Random random) {
+        OUT.println(label + ":");
+        int latestWrong = 0;
+        int pagesWrong = 0;
+        int readerWrong = 0;
+        long matched = 0;
+
+        for (int q = 0; q < queries; q++) {
+            LogQuery query = randomQuery(random, all.size());
+            List<Long> expected = new ArrayList<>();
+            for (int seq = (int) Math.max(0, store.oldestSequence()); seq < all.size(); seq++) {
+                if (query.test(all.get(seq))) expected.add((long) seq);
+            }
+            matched += expected.size();
+
+            // Newest first page
+            int limit = 1 + random.nextInt(50);
+            List<Long> latest = sequences(store.readLatest(query, limit));
+            if (!latest.equals(expected.subList(Math.max(0, expected.size() - limit), expected.size()))) latestWrong++;
+
+            // Walking back page by page reaches the oldest match
+            List<Long> backwards = new ArrayList<>();
+            long before = Long.MAX_VALUE;
+            while (true) {
+                List<ActivityLog> page = store.readLatest(before, query, limit);
+                if (page.isEmpty()) break;
+                backwards.addAll(0, sequences(page));
+                before = page.get(0).getSequence();
+            }
+            if (!backwards.equals(expected)) pagesWrong++;
+
+            // Forward reader in pages of random size
+            List<ActivityLog> forward = new ArrayList<>();
+            ActivityLogStore.LogReader reader = store.openReader(-1, query);
+            while (reader.read(forward, 1 + random.nextInt(40))) {
+                // Keep reading until caught up or past the range
+            }
+            if (!sequences(forward).equals(expected)) readerWrong++;
+        }
+
+        OUT.println("  " + queries + " queries, " + matched + " matching entries");
+        check("readLatest newest page (" + latestWrong + " wrong)", latestWrong == 0);
+        check("readLatest paged back to the oldest (" + pagesWrong + " wrong)", pagesWrong == 0);
+        check("openReader forward pages (" + readerWrong + " wrong)", readerWrong == 0);
+    }
+
+    private static LogQuery randomQuery(Random random, int entries) {
+        long span = entries * 100L;
+        long from = 0;
+        long to = 0;
+        switch (random.nextInt(4)) {
+            case 0: break;                                                        // Open range
+            case 1: from = BASE_MILLIS + (long) (random.nextDouble() * span); break; // From only
+            case 2: to = BASE_MILLIS + (long) (random.nextDouble() * span); break;   // Up to only
+            default:
+                from = BASE_MILLIS + (long) (random.nextDouble() * span);
+                to = from + (long) (random.nextDouble() * span / 10);
+        }
+        String deviceId = random.nextBoolean() ? "light" + random.nextInt(DEVICES) : null;
+        String username = random.nextInt(3) == 0 ? "user" + random.nextInt(USERS) : null;
+        return new LogQuery(from, to, deviceId, username);
+    }
+
+    private static List<Long> sequences(List<ActivityLog> logs) {
+        List<Long> sequences = new ArrayList<>(logs.size());
+        for (ActivityLog log : logs) sequences.add(log.getSequence());
+        return sequences;
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException ignore) {
+        }
+    }
+
+    private static void check(String what, boolean ok) {
+        OUT.println((ok ? "  PASS " : "  FAIL ") + what);
+        if (!ok) failures++;
+    }
+}
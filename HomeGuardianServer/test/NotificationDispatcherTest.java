@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class: NotificationDispatcherTest
+ *
+ * Description:
+ * Checks NotificationDispatcher's delivery guarantees against a recording
+ * NotificationTransport that can fail a recipient's first attempts or
+ * hold its delivery open:
+ *
+ *  - order and merging: alerts reach the transport in submit order, and
+ *    repeats of a queued alert arrive once with the repeat count
+ *  - retry: a batch that fails twice goes back to the front of the queue
+ *    and is retried with backoff; alerts queued meanwhile join the retry
+ *    behind it, and everything arrives once, in order, on the third attempt
+ *  - MAX_PENDING: behind a stuck delivery, a recipient's queue keeps only
+ *    its newest MAX_PENDING alerts, still in order, while other
+ *    recipients are delivered as usual
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out NotificationDispatcherTest
+ */
+public class NotificationDispatcherTest {
+
+    private static final long LINGER_MILLIS = 50;
+    private static final long WAIT_MILLIS = 10_000;
+
+    private static final PrintStream OUT = System.out;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Server diagnostics
+
+        orderAndMerging();
+        retry();
+        maxPending();
+
+        OUT.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // =====================================================
+    // ================== ORDER / MERGING ==================
+    // =====================================================
+
+    private static void orderAndMerging() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        NotificationDispatcher dispatcher = new NotificationDispatcher(transport, 2, LINGER_MILLIS);
+        User alice = user("alice");
+
+        // All inside one linger: m3 is repeated while still queued
+        for (int i = 0; i < 10; i++) {
+            dispatcher.submit(new Notification(alice, "m" + i), Priority.NORMAL);
+            if (i == 3) {
+                for (int k = 0; k < 3; k++) dispatcher.submit(new Notification(alice, "m3"), Priority.NORMAL);
+            }
+        }
+        transport.await("alice", 10);
+
+        List<Notification> got = transport.delivered("alice");
+        OUT.println("order and merging: " + messages(got));
+        check("10 alerts delivered once each, in submit order", messages(got).equals(numbered("m", 0, 10)));
+        check("the repeated alert carries repeat count 4 (" + repeatCount(got, "m3") + ")",
+                repeatCount(got, "m3") == 4);
+        check("the others carry 1", got.stream().filter(n -> !"m3".equals(n.getMessage()))
+                .allMatch(n -> n.getRepeatCount() == 1));
+        check("mergedCount == 3 (" + dispatcher.mergedCount() + ")", dispatcher.mergedCount() == 3);
+        check("batched: fewer deliveries than alerts (" + transport.calls("alice") + ")",
+                transport.calls("alice") < 10);
+        dispatcher.close(1000);
+    }
+
+    // =====================================================
+    // ======================= RETRY =======================
+    // =====================================================
+
+    private static void retry() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        transport.failFirst("bob", 2);
+        NotificationDispatcher dispatcher = new NotificationDispatcher(transport, 2, LINGER_MILLIS);
+        User bob = user("bob");
+
+        for (int i = 0; i < 5; i++) dispatcher.submit(new Notification(bob, "r" + i), Priority.NORMAL);
+        transport.awaitAttempts("bob", 1);
+        for (int i = 5; i < 8; i++) dispatcher.submit(new Notification(bob, "r" + i), Priority.NORMAL);
+        transport.await("bob", 8);
+
+        List<Notification> got = transport.delivered("bob");
+        OUT.println("retry: " + transport.attempts("bob") + " attempts, delivered " + messages(got));
+        check("failed twice, then went through (" + transport.attempts("bob") + " attempts)",
+                transport.attempts("bob") == 3);
+        check("every alert delivered once, in submit order", messages(got).equals(numbered("r", 0, 8)));
+        check("retriedCount == 13: 5, then 8 with the alerts queued meanwhile (" + dispatcher.retriedCount() + ")",
+                dispatcher.retriedCount() == 13);
+        check("nothing failed for good (" + dispatcher.failedCount() + ")", dispatcher.failedCount() == 0);
+        dispatcher.close(1000);
+    }
+
+    // =====================================================
+    // ==================== MAX_PENDING ====================
+    // =====================================================
+
+    private static void maxPending() throws Exception {
+        RecordingTransport transport = new RecordingTransport();
+        CountDownLatch release = transport.hold("carol");
+        NotificationDispatcher dispatcher = new NotificationDispatcher(transport, 2, LINGER_MILLIS);
+        User carol = user("carol");
+        User dave = user("dave");
+
+        dispatcher.submit(new Notification(carol, "first"), Priority.NORMAL);
+        transport.awaitAttempts("carol", 1); // Now stuck in the transport
+
+        int extra = 50;
+        int total = NotificationDispatcher.MAX_PENDING + extra;
+        for (int i = 0; i < total; i++) dispatcher.submit(new Notification(carol, "p" + i), Priority.NORMAL);
+        dispatcher.submit(new Notification(dave, "unaffected"), Priority.NORMAL);
+        transport.await("dave", 1);
+        check("another recipient is delivered meanwhile", transport.delivered("dave").size() == 1);
+
+        release.countDown();
+        transport.await("carol", 1 + NotificationDispatcher.MAX_PENDING);
+
+        List<String> expected = new ArrayList<>();
+        expected.add("first");
+        expected.addAll(numbered("p", extra, total));
+        List<String> got = messages(transport.delivered("carol"));
+        OUT.println("MAX_PENDING: " + total + " queued behind a stuck delivery, " + got.size() + " delivered, "
+                + dispatcher.droppedCount() + " dropped");
+        check("droppedCount == " + extra + " (" + dispatcher.droppedCount() + ")", dispatcher.droppedCount() == extra);
+        check("the oldest were dropped; the newest " + NotificationDispatcher.MAX_PENDING + " arrive in order",
+                got.equals(expected));
+        dispatcher.close(1000);
+    }
+
+    // =====================================================
+    // ===================== TRANSPORT =====================
+    // =====================================================
+
+    // Records every batch per recipient; can fail a recipient's first
+    // attempts or hold its deliveries until released
+    private static final class RecordingTransport implements NotificationTransport {
+        private final Map<String, List<Notification>> delivered = new ConcurrentHashMap<>();
+        private final Map<String, Integer> attempts = new ConcurrentHashMap<>();
+        private final Map<String, Integer> calls = new ConcurrentHashMap<>();
+        private final Map<String, Integer> failuresLeft = new ConcurrentHashMap<>();
+        private final Map<String, CountDownLatch> holds = new ConcurrentHashMap<>();
+
+        void failFirst(String recipient, int attempts) {
+            failuresLeft.put(recipient, attempts);
+        }
+
+        CountDownLatch hold(String recipient) {
+            CountDownLatch latch = new CountDownLatch(1);
+            holds.put(recipient, latch);
+            return latch;
+        }
+
+        @Override
+        public void deliver(String recipient, List<Notification> batch) throws IOException {
+            attempts.merge(recipient, 1, Integer::sum);
+            CountDownLatch hold = holds.get(recipient);
+            if (hold != null) {
+                try {
+                    hold.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failuresLeft.merge(recipient, -1, Integer::sum) >= 0) {
+                throw new IOException("Gateway unavailable");
+            }
+            calls.merge(recipient, 1, Integer::sum);
+            synchronized (this) {
+                delivered.computeIfAbsent(recipient, k -> new ArrayList<>()).addAll(batch);
+                notifyAll();
+            }
+        }
+
+        synchronized List<Notification> delivered(String recipient) {
+            return new ArrayList<>(delivered.getOrDefault(recipient, List.of()));
+        }
+
+        int attempts(String recipient) {
+            return attempts.getOrDefault(recipient, 0);
+        }
+
+        int calls(String recipient) {
+            return calls.getOrDefault(recipient, 0);
+        }
+
+        // Waits until count alerts were delivered to the recipient (or the wait runs out)
+        synchronized void await(String recipient, int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (delivered(recipient).size() < count && System.currentTimeMillis() < deadline) {
+                wait(50);
+            }
+        }
+
+        void awaitAttempts(String recipient, int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            while (attempts(recipient) < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        }
+    }
+
+    // =====================================================
+    // ====================== HELPERS ======================
+    // =====================================================
+
+    private static User user(String username) {
+        return new HomeGuest("Test " + username, username, username + "@example.com", "pw");
+    }
+
+    private static List<String> messages(List<Notification> notifications) {
+        List<String> messages = new ArrayList<>(notifications.size());
+        for (Notification n : notifications) messages.add(n.getMessage());
+        return messages;
+    }
+
+    private static List<String> numbered(String prefix, int from, int to) {
+        List<String> messages = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) messages.add(prefix + i);
+        return messages;
+    }
+
+    private static int repeatCount(List<Notification> notifications, String message) {
+        for (Notification n : notifications) {
+            if (message.equals(n.getMessage())) return n.getRepeatCount();
+        }
+        return 0;
+    }
+
+    private static void check(String what, boolean ok) {
+        OUT.println((ok ? "  PASS " : "  FAIL ") + what);
+        if (!ok) failures++;
+    }
+}
@@ -0,0 +1,275 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Class: ServerLogTest
+ *
+ * Description:
+ * Checks ServerLog's sinks and overflow policies, and measures what a
+ * line costs the thread that logs it:
+ *
+ *  - throughput: producer threads logging to the FILE sink under BLOCK,
+ *    against the same threads calling println on one PrintStream; the
+ *    file must hold every line, each thread's lines in order
+ *  - DROP_NEWEST / DROP_OLDEST / BLOCK: a tiny queue in front of a
+ *    console that takes 2 ms per batch; producers must not wait (or wait
+ *    no longer than the BLOCK timeout, which outlasts a batch, so BLOCK
+ *    loses next to nothing), written + dropped must account for every
+ *    line, and the survivors must be the ones each policy keeps
+ *  - logCritical: behind a full queue, no critical line is lost
+ *  - NONE: nothing is queued or written
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out ServerLogTest [threads] [linesPerThread]
+ */
+public class ServerLogTest {
+
+    private static final int SMALL_QUEUE = 64;
+    private static final long SLOW_FLUSH_MILLIS = 2;
+    private static final long BLOCK_TIMEOUT_MILLIS = 5;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int lines = (args.length > 1) ? Integer.parseInt(args[1]) : 50_000;
+        PrintStream console = System.out;
+        try {
+            throughput(console, threads, lines);
+            overflow(console, LogOverflowPolicy.DROP_NEWEST);
+            overflow(console, LogOverflowPolicy.DROP_OLDEST);
+            overflow(console, LogOverflowPolicy.BLOCK);
+            critical(console);
+            none(console);
+        } finally {
+            System.setOut(console);
+        }
+
+        System.out.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // =====================================================
+    // ===================== THROUGHPUT ====================
+    // =====================================================
+
+    private static void throughput(PrintStream console, int threads, int lines) throws Exception {
+        Path file = Files.createTempFile("hg-server-log-test", ".log");
+        Path direct = Files.createTempFile("hg-server-log-direct", ".log");
+        try {
+            // Synchronous baseline: every thread prints through one PrintStream
+            long directNanos;
+            try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(direct.toFile())),
+                    true, StandardCharsets.UTF_8)) {
+                directNanos = produce(threads, lines, out::println);
+            }
+
+            ServerLog.configure(LogSink.FILE, file, ServerLog.DEFAULT_CAPACITY, LogOverflowPolicy.BLOCK, 60_000);
+            long queuedNanos = produce(threads, lines, ServerLog::log);
+            ServerLog.shutdown();
+            long written = ServerLog.writtenCount();
+            long dropped = ServerLog.droppedCount();
+
+            console.printf("throughput (%d threads x %d lines):%n", threads, lines);
+            console.printf("  println on one PrintStream: %,.0f lines/s%n", threads * (double) lines * 1e9 / directNanos);
+            console.printf("  ServerLog.log, FILE sink:   %,.0f lines/s%n", threads * (double) lines * 1e9 / queuedNanos);
+
+            List<String> content = Files.readAllLines(file, StandardCharsets.UTF_8);
+            long total = (long) threads * lines;
+            check("written " + written + " + dropped " + dropped + " == " + total, written == total && dropped == 0);
+            check("file holds every line (" + content.size() + ")", content.size() == total);
+            check("each thread's lines in order", inOrderPerThread(content, threads));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(direct);
+        }
+    }
+
+    private interface Sink {
+        void line(String line);
+    }
+
+    // @return wall time for all threads to log their lines ("t<thread> <n>")
+    private static long produce(int threads, int lines, Sink sink) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> all = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String prefix = "t" + t + " ";
+            all.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int n = 0; n < lines; n++) sink.line(prefix + n);
+            }, "log-producer-" + t));
+        }
+        for (Thread t : all) t.start();
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread t : all) t.join();
+        return System.nanoTime() - began;
+    }
+
+    private static boolean inOrderPerThread(List<String> content, int threads) {
+        int[] next = new int[threads];
+        for (String line : content) {
+            int space = line.indexOf(' ');
+            if (!line.startsWith("t") || space < 0) return false;
+            int thread = Integer.parseInt(line.substring(1, space));
+            if (Integer.parseInt(line.substring(space + 1)) != next[thread]++) return false;
+        }
+        return true;
+    }
+
+    // =====================================================
+    // ====================== OVERFLOW =====================
+    // =====================================================
+
+    private static void overflow(PrintStream console, LogOverflowPolicy policy) throws Exception {
+        SlowConsole slow = new SlowConsole();
+        System.setOut(slow.stream());
+        ServerLog.configure(LogSink.CONSOLE, null, SMALL_QUEUE, policy, BLOCK_TIMEOUT_MILLIS);
+
+        int total = 5_000;
+        long worstWait = 0;
+        for (int n = 0; n < total; n++) {
+            long began = System.nanoTime();
+            ServerLog.log("line " + n);
+            worstWait = Math.max(worstWait, System.nanoTime() - began);
+        }
+        ServerLog.shutdown();
+        System.setOut(console);
+
+        long written = ServerLog.writtenCount();
+        long dropped = ServerLog.droppedCount();
+        int[] kept = slow.numbered("line ");
+        long worstMillis = worstWait / 1_000_000;
+
+        console.println(policy + " (queue " + SMALL_QUEUE + ", " + SLOW_FLUSH_MILLIS + " ms per batch, "
+                + total + " lines): written " + written + ", dropped " + dropped + ", worst wait " + worstMillis + " ms");
+        check("written + dropped == " + total, written + dropped == total);
+        if (policy == LogOverflowPolicy.BLOCK) {
+            // A batch takes less than the timeout, so only a stalled writer thread costs lines
+            check("at most 1% dropped (" + dropped + ")", dropped <= total / 100);
+        } else {
+            check("some lines dropped", dropped > 0);
+        }
+        check("the sink got every written line, in order", kept.length == written && isIncreasing(kept));
+        switch (policy) {
+            case DROP_NEWEST:
+                check("the first lines are kept", kept.length > 0 && kept[0] == 0);
+                check("the producer never waited (" + worstMillis + " ms)", worstMillis < 50);
+                break;
+            case DROP_OLDEST:
+                check("the last line is kept", kept.length > 0 && kept[kept.length - 1] == total - 1);
+                check("the producer never waited (" + worstMillis + " ms)", worstMillis < 50);
+                break;
+            default:
+                check("waits stay near the " + BLOCK_TIMEOUT_MILLIS + " ms timeout (" + worstMillis + " ms)",
+                        worstMillis < BLOCK_TIMEOUT_MILLIS + 50);
+        }
+    }
+
+    private static void critical(PrintStream console) throws Exception {
+        SlowConsole slow = new SlowConsole();
+        System.setOut(slow.stream());
+        ServerLog.configure(LogSink.CONSOLE, null, SMALL_QUEUE, LogOverflowPolicy.DROP_NEWEST, 0);
+
+        int criticalLines = 500;
+        for (int n = 0; n < criticalLines; n++) {
+            for (int k = 0; k < 10; k++) ServerLog.log("line " + n + "." + k); // Keep the queue full
+            ServerLog.logCritical("critical " + n);
+        }
+        ServerLog.shutdown();
+        System.setOut(console);
+
+        int[] kept = slow.numbered("critical ");
+        console.println("logCritical behind a full queue: " + kept.length + " of " + criticalLines
+                + " written, " + ServerLog.droppedCount() + " ordinary lines dropped");
+        check("every critical line written, in order", kept.length == criticalLines && isIncreasing(kept));
+    }
+
+    private static void none(PrintStream console) throws Exception {
+        ServerLog.configure(LogSink.NONE, null, SMALL_QUEUE, LogOverflowPolicy.BLOCK, 60_000);
+        long began = System.nanoTime();
+        for (int n = 0; n < 1_000_000; n++) ServerLog.log("line " + n);
+        long nanos = System.nanoTime() - began;
+        ServerLog.shutdown();
+
+        console.printf("NONE: %.1f ns per line%n", nanos / 1e6);
+        check("isEnabled() is false", !ServerLog.isEnabled());
+        check("nothing written or dropped", ServerLog.writtenCount() == 0 && ServerLog.droppedCount() == 0);
+    }
+
+    private static boolean isIncreasing(int[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] <= values[i - 1]) return false;
+        }
+        return true;
+    }
+
+    private static void check(String what, boolean ok) {
+        System.out.println((ok ? "  PASS " : "  FAIL ") + what);
+        if (!ok) failures++;
+    }
+
+    // =====================================================
+    // ==================== SLOW CONSOLE ===================
+    // =====================================================
+
+    // Captures what the CONSOLE sink prints, taking SLOW_FLUSH_MILLIS per flush
+    private static final class SlowConsole extends OutputStream {
+        private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+
+        PrintStream stream() {
+            return new PrintStream(this, false, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            captured.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            captured.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            try {
+                Thread.sleep(SLOW_FLUSH_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // @return the numbers of the captured lines "<prefix><n>", in order
+        synchronized int[] numbered(String prefix) {
+            int[] numbers = new int[16];
+            int count = 0;
+            for (String line : captured.toString(StandardCharsets.UTF_8).split("\\R")) {
+                if (!line.startsWith(prefix)) continue;
+                String rest = line.substring(prefix.length());
+                if (rest.indexOf('.') >= 0) continue; // "line n.k" filler
+                if (count == numbers.length) numbers = Arrays.copyOf(numbers, count * 2);
+                numbers[count++] = Integer.parseInt(rest);
+            }
+            return Arrays.copyOf(numbers, count);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class: SubscriptionTest
+ *
+ * Description:
+ * Checks SUBSCRIBE end to end against a Server running in this JVM on the
+ * NIO transport, with clients sending serialized command lists:
+ *
+ *  - SUBSCRIBE before LOGIN is refused
+ *  - snapshots cover only the devices the user may access
+ *  - state changes reach every subscriber allowed to see the device, in
+ *    order, and nobody else
+ *  - access is re-checked per event: granting or revoking a guest's
+ *    device takes effect on the next change
+ *  - UNSUBSCRIBE stops the events
+ *
+ * Exits with status 1 if any check fails.
+ *
+ * Build and run from HomeGuardianServer/:
+ *   javac -encoding UTF-8 -d out src/*.java test/*.java
+ *   java -cp out SubscriptionTest [port]
+ */
+public class SubscriptionTest {
+
+    private static final int QUIET_MILLIS = 300; // How long "no event arrives" is waited for
+    private static final int TOGGLES = 200;
+
+    private static final PrintStream OUT = System.out;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 12450;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Server diagnostics
+
+        HGController controller = new HGController();
+        controller.addUser(new HomeAdmin("Test Admin", "admin1", "admin@example.com", "hash123", true));
+        HomeGuest guest = new HomeGuest("Test Guest", "guest1", "guest@example.com", "pw");
+        controller.addUser(guest);
+        SmartLight light1 = new SmartLight(1, "Hall Light");
+        SmartLight light2 = new SmartLight(2, "Porch Light");
+        SmartLock lock1 = new SmartLock(1, "Front Door Lock");
+        controller.addDevice(light1);
+        controller.addDevice(light2);
+        controller.addDevice(lock1);
+        guest.addAccessibleDevice(light2);
+
+        Server server = new Server(port, controller);
+        server.setTransport(ServerTransport.NIO);
+        server.listen();
+        Thread.sleep(200);
+
+        try (Client anonymous = new Client(port);
+             Client admin = new Client(port);
+             Client guestClient = new Client(port)) {
+
+            OUT.println("subscribe:");
+            check("SUBSCRIBE before LOGIN refused", "ERROR".equals(anonymous.call("SUBSCRIBE", "*")));
+            check("admin LOGIN", !"ERROR".equals(admin.call("LOGIN", "admin1", "hash123")));
+            check("guest LOGIN", !"ERROR".equals(guestClient.call("LOGIN", "guest1", "pw")));
+
+            List<String> adminSnapshots = admin.subscribe("*");
+            check("admin snapshots " + adminSnapshots + " cover every device", adminSnapshots.size() == 3);
+            List<String> guestSnapshots = guestClient.subscribe("*");
+            check("guest snapshots " + guestSnapshots + " cover only light2",
+                    guestSnapshots.equals(List.of("light2")));
+
+            OUT.println("events:");
+            controller.toggleLight("light1", true);
+            controller.toggleLight("light2", true);
+            controller.toggleLock("lock1", false);
+            List<String> adminEvents = admin.drainEvents();
+            List<String> guestEvents = guestClient.drainEvents();
+            check("admin sees light1, light2 and lock1 " + adminEvents,
+                    adminEvents.contains("light1") && adminEvents.contains("light2") && adminEvents.contains("lock1"));
+            check("guest sees only light2 " + guestEvents,
+                    !guestEvents.isEmpty() && guestEvents.stream().allMatch("light2"::equals));
+
+            for (int k = 0; k < TOGGLES; k++) {
+                controller.toggleLight("light2", (k & 1) != 0); // light2 is on already
+            }
+            List<Object> values = guestClient.drainValues("light2", "on");
+            boolean alternating = values.size() == TOGGLES;
+            for (int k = 0; alternating && k < TOGGLES; k++) {
+                alternating = Boolean.valueOf((k & 1) != 0).equals(values.get(k));
+            }
+            check(TOGGLES + " toggles arrive once each, in order (" + values.size() + " received)", alternating);
+            admin.drainEvents();
+
+            OUT.println("access changes:");
+            guest.addAccessibleDevice(light1);
+            controller.toggleLight("light1", false);
+            check("granted light1 reaches the guest", guestClient.drainEvents().contains("light1"));
+            guest.removeAccessibleDevice(light2);
+            controller.toggleLight("light2", true);
+            check("revoked light2 no longer reaches the guest", !guestClient.drainEvents().contains("light2"));
+
+            OUT.println("unsubscribe:");
+            check("admin UNSUBSCRIBE", "OK".equals(admin.call("UNSUBSCRIBE")));
+            controller.toggleLight("light1", true);
+            check("no events after UNSUBSCRIBE", admin.drainEvents().isEmpty());
+        } finally {
+            server.close();
+            controller.close();
+        }
+
+        OUT.println(failures == 0 ? "ALL CHECKS PASSED" : failures + " CHECK(S) FAILED");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(String what, boolean ok) {
+        OUT.println((ok ? "  PASS " : "  FAIL ") + what);
+        if (!ok) failures++;
+    }
+
+    // =====================================================
+    // ================== SERIALIZED CLIENT ================
+    // =====================================================
+
+    // One NIO connection: frames of [int length][serialized command list]
+    private static final class Client implements Closeable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        // @return the reply, skipping events pushed before it
+        Object call(Object... command) throws Exception {
+            send(command);
+            Object reply;
+            do {
+                reply = receive();
+            } while (isEvent(reply));
+            return reply;
+        }
+
+        // @return device IDs of the snapshots sent before "OK"
+        List<String> subscribe(String deviceId) throws Exception {
+            send("SUBSCRIBE", deviceId);
+            List<String> snapshots = new ArrayList<>();
+            Object reply;
+            while (!"OK".equals(reply = receive())) {
+                if (!(reply instanceof List)) throw new IOException("SUBSCRIBE failed: " + reply);
+                snapshots.add(String.valueOf(((List<?>) reply).get(1)));
+            }
+            return snapshots;
+        }
+
+        // @return device IDs of the events received until the line goes quiet
+        List<String> drainEvents() throws Exception {
+            List<String> devices = new ArrayList<>();
+            for (List<?> event : events()) devices.add(String.valueOf(event.get(1)));
+            return devices;
+        }
+
+        // @return values of one device property, in the order received
+        List<Object> drainValues(String deviceId, String property) throws Exception {
+            List<Object> values = new ArrayList<>();
+            for (List<?> event : events()) {
+                if (deviceId.equals(event.get(1)) && property.equals(event.get(2))) values.add(event.get(3));
+            }
+            return values;
+        }
+
+        private List<List<?>> events() throws Exception {
+            List<List<?>> events = new ArrayList<>();
+            socket.setSoTimeout(QUIET_MILLIS);
+            try {
+                while (true) {
+                    Object message = receive();
+                    if (isEvent(message)) events.add((List<?>) message);
+                }
+            } catch (SocketTimeoutException quiet) {
+                return events;
+            } finally {
+                socket.setSoTimeout(0);
+            }
+        }
+
+        private static boolean isEvent(Object message) {
+            return message instanceof List && "deviceState".equals(((List<?>) message).get(0));
+        }
+
+        private void send(Object... command) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(new ArrayList<>(Arrays.asList(command)));
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            out.flush();
+        }
+
+        private Object receive() throws Exception {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+                return objects.readObject();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ignore) {
+            }
+        }
+    }
+}